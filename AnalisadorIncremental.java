@@ -0,0 +1,464 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Regioes que o sintatico sabe reanalisar sozinhas: cada declaracao de sub-rotina (do
+// 'procedimento'/'funcao' ate o token depois do 'fim' do corpo) e cada 'inicio ... fim'.
+// Guarda a faixa de tokens [inicio, fim), onde o corpo comeca (o cabecalho nao pode ser
+// editado sem reanalisar o que vem depois), a quantidade de simbolos e o proximo endereco
+// da tabela na entrada e na saida, o nivel de escopo e o no da arvore.
+class RegioesAnalise {
+    int[] inicios;
+    int[] corpos;
+    int[] fins;
+    int[] simbolosInicio;
+    int[] simbolosFim;
+    int[] enderecosInicio;
+    int[] enderecosFim;
+    int[] niveis;
+    int[] nos;
+    int quantidade;
+
+    RegioesAnalise() {
+        inicios = new int[64];
+        corpos = new int[64];
+        fins = new int[64];
+        simbolosInicio = new int[64];
+        simbolosFim = new int[64];
+        enderecosInicio = new int[64];
+        enderecosFim = new int[64];
+        niveis = new int[64];
+        nos = new int[64];
+    }
+
+    private void garante() {
+        if (quantidade == inicios.length) {
+            int nova = quantidade * 2;
+            inicios = Arrays.copyOf(inicios, nova);
+            corpos = Arrays.copyOf(corpos, nova);
+            fins = Arrays.copyOf(fins, nova);
+            simbolosInicio = Arrays.copyOf(simbolosInicio, nova);
+            simbolosFim = Arrays.copyOf(simbolosFim, nova);
+            enderecosInicio = Arrays.copyOf(enderecosInicio, nova);
+            enderecosFim = Arrays.copyOf(enderecosFim, nova);
+            niveis = Arrays.copyOf(niveis, nova);
+            nos = Arrays.copyOf(nos, nova);
+        }
+    }
+
+    int abre(int token, int simbolos, int endereco, int nivel) {
+        garante();
+        int r = quantidade++;
+        inicios[r] = token;
+        corpos[r] = token + 1;
+        fins[r] = -1;
+        simbolosInicio[r] = simbolos;
+        simbolosFim[r] = -1;
+        enderecosInicio[r] = endereco;
+        enderecosFim[r] = -1;
+        niveis[r] = nivel;
+        nos[r] = -1;
+        return r;
+    }
+
+    void corpo(int r, int token) {
+        corpos[r] = token;
+    }
+
+    void fecha(int r, int token, int simbolos, int endereco, int no) {
+        fins[r] = token;
+        simbolosFim[r] = simbolos;
+        enderecosFim[r] = endereco;
+        nos[r] = no;
+    }
+
+    // Copia a regiao r de 'outras' para esta lista, com o no trocado
+    void copia(RegioesAnalise outras, int r, int no) {
+        garante();
+        int i = quantidade++;
+        inicios[i] = outras.inicios[r];
+        corpos[i] = outras.corpos[r];
+        fins[i] = outras.fins[r];
+        simbolosInicio[i] = outras.simbolosInicio[r];
+        simbolosFim[i] = outras.simbolosFim[r];
+        enderecosInicio[i] = outras.enderecosInicio[r];
+        enderecosFim[i] = outras.enderecosFim[r];
+        niveis[i] = outras.niveis[r];
+        nos[i] = no;
+    }
+
+    // Move a regiao de para a posicao para (compactacao na ordem)
+    void move(int de, int para) {
+        inicios[para] = inicios[de];
+        corpos[para] = corpos[de];
+        fins[para] = fins[de];
+        simbolosInicio[para] = simbolosInicio[de];
+        simbolosFim[para] = simbolosFim[de];
+        enderecosInicio[para] = enderecosInicio[de];
+        enderecosFim[para] = enderecosFim[de];
+        niveis[para] = niveis[de];
+        nos[para] = nos[de];
+    }
+}
+
+// Analise incremental para o editor: guarda o texto, os tokens, a tabela de simbolos, a arvore
+// e as regioes da ultima analise. Uma edicao (posicao, removidos, inserido) relexa so a partir
+// do token anterior a edicao ate o lexico voltar a coincidir com os tokens antigos, e
+// reanalisa so a menor sub-rotina ou 'inicio ... fim' que contem os tokens mudados,
+// deslocando os tokens, simbolos e nos que vem depois. Quando a mudanca nao cabe numa regiao
+// (cabecalho de sub-rotina, declaracoes de variaveis, estrutura alterada) ou o estado anterior
+// tinha erro fora da regiao editada, refaz a analise completa sobre os tokens.
+//
+// O resultado e o mesmo da analise completa do texto atual; getTabela() e getArvore() so
+// refletem o texto quando isValido() (com erro, a parte depois do erro fica da ultima analise valida).
+public class AnalisadorIncremental {
+    private static final PrintStream NULA = new PrintStream(OutputStream.nullOutputStream());
+
+    private char[] texto;
+    private int tamanhoTexto;
+    private final TabelaNomes nomes = new TabelaNomes();
+    private final MapaLinhas linhas = new MapaLinhas(); // do texto atual, atualizado a cada edicao
+    private BufferTokens tokens;
+    private TabelaSimbolos tabela;
+    private ArvoreSintatica arvore;
+    private RegioesAnalise regioes; // null quando nao ha estrutura valida para reaproveitar
+    private int pendente = -1;      // regiao cuja ultima reanalise deu erro (interior desatualizado)
+    private boolean valido;
+    private String erro;
+    private int nosAnaliseCompleta;
+
+    // Estatisticas da ultima operacao
+    private boolean ultimaCompleta;
+    private int tokensRelexados;
+    private int tokensReanalisados;
+
+    public AnalisadorIncremental(String fonte) throws IOException {
+        texto = fonte.toCharArray();
+        tamanhoTexto = texto.length;
+        AnalisadorLexico lexico = new AnalisadorLexico(texto, 0, tamanhoTexto, linhas, nomes);
+        tokens = lexico.tokenizar();
+        tokensRelexados = tokens.tamanho();
+        analisarTudo();
+    }
+
+    // Aplica a edicao: apaga 'removidos' caracteres a partir de 'posicao' e insere 'inserido' no lugar
+    public void editar(int posicao, int removidos, String inserido) throws IOException {
+        if (posicao < 0 || removidos < 0 || posicao + removidos > tamanhoTexto)
+            throw new IllegalArgumentException("Edicao fora do texto: posicao " + posicao + ", removidos "
+                    + removidos + ", tamanho " + tamanhoTexto);
+        int delta = inserido.length() - removidos;
+        int linhasAntes = linhas.quantidade();
+        linhas.substitui(posicao, removidos, inserido);
+        int deltaLinha = linhas.quantidade() - linhasAntes;
+        substituiTexto(posicao, removidos, inserido);
+
+        // Relexa do fim do token anterior a edicao (o lexico olha no maximo um caractere a frente,
+        // por isso um token que termina exatamente na edicao tambem e refeito) ate um token novo
+        // comecar depois da edicao no mesmo lugar onde comecava um token antigo: dali em diante
+        // o texto e o mesmo e os tokens tambem, so deslocados.
+        int n = tokens.tamanho();
+        int k = primeiroTokenAte(posicao);
+        int reinicio = k == 0 ? 0 : tokens.inicio(k - 1) + tokens.comprimento(k - 1);
+        int fimEdicao = posicao + inserido.length();
+        AnalisadorLexico lexico = new AnalisadorLexico(texto, reinicio, tamanhoTexto, linhas, nomes);
+        BufferTokens novos = new BufferTokens(nomes, linhas, 64);
+        int j = k;
+        while (true) {
+            TokenSimbolo simbolo = lexico.avancaToken();
+            int inicio = lexico.inicioToken();
+            if (inicio >= fimEdicao) {
+                int antigo = inicio - delta;
+                while (j < n && tokens.inicio(j) < antigo) j++;
+                if (j < n && tokens.inicio(j) == antigo) break; // sempre acontece no sfim_arquivo
+            }
+            novos.adiciona(simbolo, inicio, lexico.tamanhoToken(), lexico.idNomeToken());
+        }
+        tokensRelexados = novos.tamanho();
+
+        // Faixa realmente alterada [a, b) nos indices antigos: descarta o comeco e o fim iguais
+        int m = novos.tamanho();
+        int prefixo = 0;
+        while (prefixo < m && k + prefixo < j && mesmoToken(novos, prefixo, k + prefixo, 0)) prefixo++;
+        int sufixo = 0;
+        while (sufixo < m - prefixo && j - sufixo > k + prefixo
+                && mesmoToken(novos, m - 1 - sufixo, j - 1 - sufixo, delta)) sufixo++;
+        int a = k + prefixo;
+        int b = j - sufixo;
+        int deltaToken = m - (j - k);
+        tokens.substitui(k, j, novos, delta);
+
+        if (valido && a == b && m == prefixo + sufixo) {
+            // so mudaram espacos ou comentarios: os tokens sao os mesmos, deslocados
+            arvore.deslocar(b, 0, deltaLinha, Integer.MAX_VALUE, 0);
+            ultimaCompleta = false;
+            tokensReanalisados = 0;
+            return;
+        }
+        int r = regioes == null ? -1 : escolheRegiao(a, b);
+        if (r < 0) {
+            analisarTudo();
+        } else {
+            reanalisar(r, b, deltaToken, deltaLinha);
+        }
+    }
+
+    // Menor regiao cujo corpo contem a faixa [a, b) e que contem a regiao pendente, se houver
+    private int escolheRegiao(int a, int b) {
+        int melhor = -1;
+        for (int r = 0; r < regioes.quantidade; r++) {
+            if (regioes.corpos[r] > a || regioes.fins[r] < b) continue;
+            if (pendente >= 0 && (regioes.inicios[r] > regioes.inicios[pendente]
+                    || regioes.fins[r] < regioes.fins[pendente])) continue;
+            if (melhor < 0 || regioes.fins[r] - regioes.inicios[r] < regioes.fins[melhor] - regioes.inicios[melhor])
+                melhor = r;
+        }
+        return melhor;
+    }
+
+    private void reanalisar(int r, int b, int deltaToken, int deltaLinha) throws IOException {
+        int inicio = regioes.inicios[r];
+        int fimAntigo = regioes.fins[r];
+        int simbolosInicio = regioes.simbolosInicio[r];
+        int simbolosFimAntigo = regioes.simbolosFim[r];
+        int enderecosFimAntigo = regioes.enderecosFim[r];
+
+        // Estado da tabela na entrada da regiao: simbolos anteriores menos os corpos das
+        // sub-rotinas que ja fecharam antes dela
+        List<Simbolo> anteriores = new ArrayList<>(simbolosInicio);
+        for (int i = 0; i < simbolosInicio; i++) anteriores.add(tabela.get(i));
+        boolean[] visivel = new boolean[simbolosInicio];
+        Arrays.fill(visivel, true);
+        for (int q = 0; q < regioes.quantidade; q++) {
+            if (regioes.fins[q] > inicio) continue;
+            for (int i = regioes.simbolosInicio[q] + 1; i < regioes.simbolosFim[q]; i++) visivel[i] = false;
+        }
+        TabelaSimbolos parcial = new TabelaSimbolos(nomes);
+        parcial.setSaida(NULA);
+        parcial.restaurar(anteriores, visivel, regioes.niveis[r], regioes.enderecosInicio[r]);
+
+        ArvoreSintatica nova = new ArvoreSintatica(Math.max(16, 2 * (fimAntigo + deltaToken - inicio)));
+        RegioesAnalise internas = new RegioesAnalise();
+        AnalisadorSintatico parser = new AnalisadorSintatico(tokens, parcial, inicio);
+        parser.setSaida(NULA);
+        parser.setArvore(nova);
+        parser.setRegioes(internas);
+        try {
+            parser.analisaRegiao();
+        } catch (RuntimeException e) {
+            // a analise completa pararia no mesmo erro: o que vem antes da regiao nao mudou
+            falhaRegiao(r, b, deltaToken, deltaLinha, e.getMessage());
+            return;
+        }
+        if (parser.indiceToken() != fimAntigo + deltaToken) {
+            // a edicao mudou onde a regiao termina
+            analisarTudo();
+            return;
+        }
+        tokensReanalisados = parser.indiceToken() - inicio;
+        ultimaCompleta = false;
+
+        int deltaSimbolo = parcial.tamanho() - simbolosFimAntigo;
+        int deltaEndereco = parcial.getEnderecoAtual() - enderecosFimAntigo;
+
+        // Arvore: desloca o que vem depois e troca o no da regiao pela arvore nova
+        int no = regioes.nos[r];
+        arvore.deslocar(b, deltaToken, deltaLinha, simbolosFimAntigo, deltaSimbolo);
+        int deslocamento = arvore.enxerta(nova);
+        arvore.substitui(no, deslocamento);
+
+        // Regioes: tira as de dentro da regiao, desloca as outras, acrescenta as novas
+        int w = 0;
+        for (int q = 0; q < regioes.quantidade; q++) {
+            if (regioes.inicios[q] >= inicio && regioes.fins[q] <= fimAntigo) continue;
+            regioes.move(q, w);
+            deslocaRegiao(w, b, deltaToken, simbolosFimAntigo, deltaSimbolo, enderecosFimAntigo, deltaEndereco);
+            w++;
+        }
+        regioes.quantidade = w;
+        for (int q = 0; q < internas.quantidade; q++) {
+            int interno = internas.nos[q];
+            regioes.copia(internas, q, interno == 0 ? no : interno + deslocamento);
+        }
+
+        // Tabela: anteriores + os da regiao + os de depois com indice e endereco deslocados
+        List<Simbolo> todos = new ArrayList<>(tabela.tamanho() + deltaSimbolo);
+        for (int i = 0; i < parcial.tamanho(); i++) todos.add(parcial.get(i));
+        for (int i = simbolosFimAntigo; i < tabela.tamanho(); i++) {
+            Simbolo s = tabela.get(i);
+            todos.add(new Simbolo(s.getNome(), s.getIdNome(), s.getEscopo(), s.getTipo(),
+                    s.getEndereco() < 0 ? -1 : s.getEndereco() + deltaEndereco, s.getIndice() + deltaSimbolo));
+        }
+        boolean[] visivelFinal = new boolean[todos.size()];
+        if (visivelFinal.length > 0) visivelFinal[0] = true; // ao fim da analise so o nome do programa continua visivel
+        TabelaSimbolos atualizada = new TabelaSimbolos(nomes);
+        atualizada.setSaida(NULA);
+        atualizada.restaurar(todos, visivelFinal, 0, tabela.getEnderecoAtual() + deltaEndereco);
+        tabela = atualizada;
+
+        pendente = -1;
+        valido = true;
+        erro = null;
+
+        // Os nos trocados ficam soltos na arena: quando ela passa de 3x o necessario, refaz tudo
+        if (arvore.tamanho() > 3 * nosAnaliseCompleta + 1024) analisarTudo();
+    }
+
+    // A regiao r tem erro: guarda a mensagem e mantem o resto do estado em dia com os tokens,
+    // para que a proxima edicao dentro de r ainda seja incremental
+    private void falhaRegiao(int r, int b, int deltaToken, int deltaLinha, String mensagem) {
+        valido = false;
+        erro = mensagem;
+        ultimaCompleta = false;
+        tokensReanalisados = regioes.fins[r] + deltaToken - regioes.inicios[r];
+        arvore.deslocar(b, deltaToken, deltaLinha, Integer.MAX_VALUE, 0);
+        int inicio = regioes.inicios[r];
+        int fim = regioes.fins[r];
+        int w = 0;
+        int nova = -1;
+        for (int q = 0; q < regioes.quantidade; q++) {
+            if (q != r && regioes.inicios[q] >= inicio && regioes.fins[q] <= fim) continue;
+            regioes.move(q, w);
+            deslocaRegiao(w, b, deltaToken, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, 0);
+            if (q == r) nova = w;
+            w++;
+        }
+        regioes.quantidade = w;
+        pendente = nova;
+    }
+
+    private void deslocaRegiao(int q, int b, int deltaToken, int simbolosMinimo, int deltaSimbolo,
+                               int enderecosMinimo, int deltaEndereco) {
+        if (regioes.inicios[q] >= b) regioes.inicios[q] += deltaToken;
+        if (regioes.corpos[q] >= b) regioes.corpos[q] += deltaToken;
+        if (regioes.fins[q] >= b) regioes.fins[q] += deltaToken;
+        if (regioes.simbolosInicio[q] >= simbolosMinimo) regioes.simbolosInicio[q] += deltaSimbolo;
+        if (regioes.simbolosFim[q] >= simbolosMinimo) regioes.simbolosFim[q] += deltaSimbolo;
+        if (regioes.enderecosInicio[q] >= enderecosMinimo) regioes.enderecosInicio[q] += deltaEndereco;
+        if (regioes.enderecosFim[q] >= enderecosMinimo) regioes.enderecosFim[q] += deltaEndereco;
+    }
+
+    // Analise completa sobre os tokens atuais
+    private void analisarTudo() throws IOException {
+        tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        arvore = new ArvoreSintatica(Math.max(1024, tokens.tamanho()));
+        RegioesAnalise novas = new RegioesAnalise();
+        pendente = -1;
+        ultimaCompleta = true;
+        tokensReanalisados = tokens.tamanho();
+        try {
+            AnalisadorSintatico parser = new AnalisadorSintatico(tokens, tabela);
+            parser.setSaida(NULA);
+            parser.setArvore(arvore);
+            parser.setRegioes(novas);
+            parser.analisaPrograma();
+            regioes = novas;
+            valido = true;
+            erro = null;
+        } catch (RuntimeException e) {
+            regioes = null;
+            valido = false;
+            erro = e.getMessage();
+        }
+        nosAnaliseCompleta = arvore.tamanho();
+    }
+
+    // Primeiro token que termina em 'posicao' ou depois (os fins sao crescentes)
+    private int primeiroTokenAte(int posicao) {
+        int baixo = 0;
+        int alto = tokens.tamanho() - 1; // o sfim_arquivo termina no fim do texto
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            if (tokens.inicio(meio) + tokens.comprimento(meio) >= posicao) alto = meio;
+            else baixo = meio + 1;
+        }
+        return baixo;
+    }
+
+    // A linha nao precisa ser comparada: sai da posicao pelo mesmo mapa
+    private boolean mesmoToken(BufferTokens novos, int i, int antigo, int delta) {
+        return novos.simbolo(i) == tokens.simbolo(antigo)
+                && novos.idNome(i) == tokens.idNome(antigo)
+                && novos.comprimento(i) == tokens.comprimento(antigo)
+                && novos.inicio(i) == tokens.inicio(antigo) + delta;
+    }
+
+    private void substituiTexto(int posicao, int removidos, String inserido) {
+        int novoTamanho = tamanhoTexto - removidos + inserido.length();
+        if (novoTamanho > texto.length)
+            texto = Arrays.copyOf(texto, Math.max(novoTamanho, texto.length + texto.length / 2));
+        System.arraycopy(texto, posicao + removidos, texto, posicao + inserido.length(),
+                tamanhoTexto - posicao - removidos);
+        inserido.getChars(0, inserido.length(), texto, posicao);
+        tamanhoTexto = novoTamanho;
+    }
+
+    public String getTexto() { return new String(texto, 0, tamanhoTexto); }
+    public boolean isValido() { return valido; }
+    public String getErro() { return erro; }
+    public BufferTokens getTokens() { return tokens; }
+    public TabelaSimbolos getTabela() { return tabela; }
+    public ArvoreSintatica getArvore() { return arvore; }
+    public TabelaNomes getNomes() { return nomes; }
+    public MapaLinhas getLinhas() { return linhas; }
+
+    // Se a ultima edicao caiu na analise completa, e quantos tokens foram relexados e reanalisados
+    public boolean isUltimaCompleta() { return ultimaCompleta; }
+    public int getTokensRelexados() { return tokensRelexados; }
+    public int getTokensReanalisados() { return tokensReanalisados; }
+
+    // Compara com a analise completa do texto atual; retorna null se bate ou a primeira diferenca
+    public String confereComAnaliseCompleta() throws IOException {
+        AnalisadorIncremental completa = new AnalisadorIncremental(getTexto());
+        if (completa.valido != valido)
+            return "valido: " + valido + ", analise completa: " + completa.valido + " (" + completa.erro + ")";
+        if (!valido) {
+            return erro.equals(completa.erro) ? comparaTokens(completa) : "erro: '" + erro + "', analise completa: '" + completa.erro + "'";
+        }
+        String diferenca = comparaTokens(completa);
+        if (diferenca != null) return diferenca;
+        if (tabela.tamanho() != completa.tabela.tamanho())
+            return "simbolos: " + tabela.tamanho() + ", analise completa: " + completa.tabela.tamanho();
+        for (int i = 0; i < tabela.tamanho(); i++) {
+            if (!tabela.get(i).toString().equals(completa.tabela.get(i).toString()) || tabela.get(i).getIndice() != i)
+                return "simbolo " + i + ": " + tabela.get(i) + ", analise completa: " + completa.tabela.get(i);
+        }
+        return comparaArvore(arvore.raiz(), completa, completa.arvore.raiz());
+    }
+
+    private String comparaTokens(AnalisadorIncremental completa) {
+        BufferTokens outros = completa.tokens;
+        if (tokens.tamanho() != outros.tamanho())
+            return "tokens: " + tokens.tamanho() + ", analise completa: " + outros.tamanho();
+        for (int i = 0; i < tokens.tamanho(); i++) {
+            if (tokens.simbolo(i) != outros.simbolo(i) || tokens.inicio(i) != outros.inicio(i)
+                    || tokens.comprimento(i) != outros.comprimento(i) || tokens.linha(i) != outros.linha(i)
+                    || !tokens.lexema(i).equals(outros.lexema(i)))
+                return "token " + i + ": " + tokens.token(i) + ", analise completa: " + outros.token(i);
+        }
+        return null;
+    }
+
+    private String comparaArvore(int no, AnalisadorIncremental completa, int outro) {
+        ArvoreSintatica outra = completa.arvore;
+        String descricao = arvore.descricao(no, nomes);
+        if (!descricao.equals(outra.descricao(outro, completa.nomes)) || arvore.token(no) != outra.token(outro)
+                || arvore.linha(no) != outra.linha(outro) || arvore.simbolo(no) != outra.simbolo(outro))
+            return "no " + descricao + " (token " + arvore.token(no) + ", linha " + arvore.linha(no)
+                    + ", simbolo " + arvore.simbolo(no) + "), analise completa: " + outra.descricao(outro, completa.nomes)
+                    + " (token " + outra.token(outro) + ", linha " + outra.linha(outro) + ", simbolo " + outra.simbolo(outro) + ")";
+        int f = arvore.primeiroFilho(no);
+        int g = outra.primeiroFilho(outro);
+        while (f >= 0 && g >= 0) {
+            String diferenca = comparaArvore(f, completa, g);
+            if (diferenca != null) return diferenca;
+            f = arvore.proximoIrmao(f);
+            g = outra.proximoIrmao(g);
+        }
+        if (f >= 0 || g >= 0) return "filhos de " + descricao + " (linha " + arvore.linha(no) + ") diferem";
+        return null;
+    }
+}
@@ -1,33 +1,53 @@
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 enum TokenSimbolo {
-    sprograma, sinicio, sfim, sprocedimento, sfuncao,
-    sse, sentao, ssenao, senquanto, sfaca,
-    satribuicao, sescreva, sleia, svar, sinteiro, sbooleano,
-    sidentificador, snumero,
-    sponto, sponto_virgula, svirgula,
-    sabre_parenteses, sfecha_parenteses,
-    smaior, smaior_ig, sigual, smenor, smenor_ig, sdiferente,
-    smais, smenos, smultiplicacao,
-    sdiv, se, sou, snao,
-    sdois_pontos,
-    sverdadeiro, sfalso,
-    serro,
-    sfim_arquivo
+    sprograma("programa"), sinicio("inicio"), sfim("fim"), sprocedimento("procedimento"), sfuncao("funcao"),
+    sse("se"), sentao("entao"), ssenao("senao"), senquanto("enquanto"), sfaca("faca"),
+    satribuicao(":="), sescreva("escreva"), sleia("leia"), svar("var"), sinteiro("inteiro"), sbooleano("booleano"),
+    sidentificador(null), snumero(null),
+    sponto("."), sponto_virgula(";"), svirgula(","),
+    sabre_parenteses("("), sfecha_parenteses(")"),
+    smaior(">"), smaior_ig(">="), sigual("="), smenor("<"), smenor_ig("<="), sdiferente("!="),
+    smais("+"), smenos("-"), smultiplicacao("*"),
+    sdiv("div"), se("e"), sou("ou"), snao("nao"),
+    sdois_pontos(":"),
+    sverdadeiro("verdadeiro"), sfalso("falso"),
+    serro(null),
+    sfim_arquivo("EOF");
+
+    static final TokenSimbolo[] VALORES = values();
+
+    // Lexema compartilhado por todos os tokens deste simbolo (null quando varia: identificador, numero, erro)
+    final String lexemaFixo;
+
+    TokenSimbolo(String lexemaFixo) {
+        this.lexemaFixo = lexemaFixo;
+    }
 }
 
 class Token {
     TokenSimbolo simbolo;
     String lexema;
     int linha; // linha do token
+    int idNome; // id do lexema na TabelaNomes (-1 para simbolos de lexema fixo)
 
     Token(TokenSimbolo simbolo, String lexema, int linha) {
+        this(simbolo, lexema, linha, -1);
+    }
+
+    Token(TokenSimbolo simbolo, String lexema, int linha, int idNome) {
         this.simbolo = simbolo;
         this.lexema = lexema;
         this.linha = linha;
+        this.idNome = idNome;
     }
 
     public TokenSimbolo getSimbolo() {
@@ -42,160 +62,448 @@ class Token {
         return linha;
     }
 
+    public int getIdNome() {
+        return idNome;
+    }
+
     @Override
     public String toString() {
         return "Token: " + simbolo + " | Lexema: " + lexema + " | Linha: " + linha;
     }
 }
 public class AnalisadorLexico {
+    // Tamanho maximo de cada janela mapeada (arquivos maiores sao remapeados em partes)
+    private static final long TAMANHO_JANELA = 1L << 30;
+
+    // Palavras reservadas, reconhecidas por hash perfeito direto do buffer de caracteres
+    private static final TokenSimbolo[] PALAVRAS = {
+        TokenSimbolo.sprograma, TokenSimbolo.sinicio, TokenSimbolo.sfim, TokenSimbolo.sprocedimento,
+        TokenSimbolo.sfuncao, TokenSimbolo.sse, TokenSimbolo.sentao, TokenSimbolo.ssenao,
+        TokenSimbolo.senquanto, TokenSimbolo.sfaca, TokenSimbolo.sescreva, TokenSimbolo.sleia,
+        TokenSimbolo.svar, TokenSimbolo.sinteiro, TokenSimbolo.sbooleano,
+        TokenSimbolo.sverdadeiro, TokenSimbolo.sfalso, TokenSimbolo.sdiv, TokenSimbolo.se,
+        TokenSimbolo.sou, TokenSimbolo.snao
+    };
+    private static final int BITS_PALAVRAS = 6;
+    private static final int[] TABELA_PALAVRAS = new int[1 << BITS_PALAVRAS]; // indice em PALAVRAS + 1, 0 = vazio
+    private static final int SEMENTE_PALAVRAS = calculaSemente();
+
+    // Procura um multiplicador que espalhe as palavras reservadas sem nenhuma colisao
+    private static int calculaSemente() {
+        for (int semente = 1; ; semente += 2) {
+            Arrays.fill(TABELA_PALAVRAS, 0);
+            boolean colidiu = false;
+            for (int i = 0; i < PALAVRAS.length && !colidiu; i++) {
+                int pos = (PALAVRAS[i].lexemaFixo.hashCode() * semente) >>> (32 - BITS_PALAVRAS);
+                if (TABELA_PALAVRAS[pos] != 0) colidiu = true;
+                else TABELA_PALAVRAS[pos] = i + 1;
+            }
+            if (!colidiu) return semente;
+        }
+    }
+
+    // Classes de caractere. Os ASCII vem da tabela CLASSE; os outros, dos predicados Unicode
+    // (classeUnicode), com o mesmo resultado de Character.isWhitespace/isLetter/isDigit
+    private static final int OUTRO = 0, ESPACO = 1, LETRA = 2, DIGITO = 3, SUBLINHADO = 4, ABRE_COMENTARIO = 5,
+            FECHA_COMENTARIO = 6, PREFIXO = 7, OPERADOR = 8, IGUAL = 9, FIM = 10;
+    private static final int CLASSES = 11;
+    private static final byte[] CLASSE = new byte[128];
+
+    // Estados do automato. PREFIXO e ':', '>', '<' ou '!', que podem ser seguidos de '='.
+    // Os valores a partir de ACEITA nao sao estados: dizem como o token terminou.
+    private static final int EM_INICIO = 0, EM_COMENTARIO = 1, EM_IDENTIFICADOR = 2, EM_NUMERO = 3,
+            EM_PREFIXO = 4, EM_OPERADOR = 5, EM_OPERADOR_DUPLO = 6, EM_INVALIDO = 7;
+    private static final int ESTADOS = 8;
+    private static final int ACEITA = 8;               // o caractere atual ja nao faz parte do token
+    private static final int FIM_ARQUIVO = 9;
+    private static final int COMENTARIO_ABERTO = 10;   // fim do arquivo dentro de '{ ... '
+    // TRANSICOES[estado * CLASSES + classe]: proximo estado (consumindo o caractere) ou um final
+    private static final byte[] TRANSICOES = new byte[ESTADOS * CLASSES];
+    // Operador pelo primeiro caractere, sozinho ou seguido de '=' (sem '=', '!' e um erro)
+    private static final TokenSimbolo[] OPERADOR_SIMPLES = new TokenSimbolo[128];
+    private static final TokenSimbolo[] OPERADOR_DUPLO = new TokenSimbolo[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            if (Character.isWhitespace(c)) CLASSE[c] = ESPACO;
+            else if (Character.isLetter(c)) CLASSE[c] = LETRA;
+            else if (Character.isDigit(c)) CLASSE[c] = DIGITO;
+        }
+        CLASSE['_'] = SUBLINHADO;
+        CLASSE['{'] = ABRE_COMENTARIO;
+        CLASSE['}'] = FECHA_COMENTARIO;
+        CLASSE['='] = IGUAL;
+        operador(':', TokenSimbolo.sdois_pontos, TokenSimbolo.satribuicao);
+        operador('>', TokenSimbolo.smaior, TokenSimbolo.smaior_ig);
+        operador('<', TokenSimbolo.smenor, TokenSimbolo.smenor_ig);
+        operador('!', TokenSimbolo.serro, TokenSimbolo.sdiferente);
+        operador('=', TokenSimbolo.sigual, null);
+        operador('+', TokenSimbolo.smais, null);
+        operador('-', TokenSimbolo.smenos, null);
+        operador('*', TokenSimbolo.smultiplicacao, null);
+        operador('.', TokenSimbolo.sponto, null);
+        operador(';', TokenSimbolo.sponto_virgula, null);
+        operador(',', TokenSimbolo.svirgula, null);
+        operador('(', TokenSimbolo.sabre_parenteses, null);
+        operador(')', TokenSimbolo.sfecha_parenteses, null);
+
+        Arrays.fill(TRANSICOES, (byte) ACEITA);
+        for (int classe = 0; classe < CLASSES; classe++) {
+            transicao(EM_INICIO, classe, EM_INVALIDO);
+            transicao(EM_COMENTARIO, classe, EM_COMENTARIO);
+        }
+        transicao(EM_INICIO, ESPACO, EM_INICIO);
+        transicao(EM_INICIO, ABRE_COMENTARIO, EM_COMENTARIO);
+        transicao(EM_INICIO, LETRA, EM_IDENTIFICADOR);
+        transicao(EM_INICIO, DIGITO, EM_NUMERO);
+        transicao(EM_INICIO, PREFIXO, EM_PREFIXO);
+        transicao(EM_INICIO, OPERADOR, EM_OPERADOR);
+        transicao(EM_INICIO, IGUAL, EM_OPERADOR);
+        transicao(EM_INICIO, FIM, FIM_ARQUIVO);
+        transicao(EM_COMENTARIO, FECHA_COMENTARIO, EM_INICIO);
+        transicao(EM_COMENTARIO, FIM, COMENTARIO_ABERTO);
+        transicao(EM_IDENTIFICADOR, LETRA, EM_IDENTIFICADOR);
+        transicao(EM_IDENTIFICADOR, DIGITO, EM_IDENTIFICADOR);
+        transicao(EM_IDENTIFICADOR, SUBLINHADO, EM_IDENTIFICADOR);
+        transicao(EM_NUMERO, DIGITO, EM_NUMERO);
+        transicao(EM_PREFIXO, IGUAL, EM_OPERADOR_DUPLO);
+    }
+
+    private static void operador(char c, TokenSimbolo simples, TokenSimbolo duplo) {
+        if (c != '=') CLASSE[c] = (byte) (duplo != null ? PREFIXO : OPERADOR);
+        OPERADOR_SIMPLES[c] = simples;
+        OPERADOR_DUPLO[c] = duplo;
+    }
+
+    private static void transicao(int estado, int classe, int proximo) {
+        TRANSICOES[estado * CLASSES + classe] = (byte) proximo;
+    }
+
+    private static int classe(int c) {
+        if (c < 128) return c >= 0 ? CLASSE[c] : FIM;
+        return classeUnicode(c);
+    }
+
+    // Fora do ASCII (raro no fonte): os predicados gerais do Character
+    private static int classeUnicode(int c) {
+        if (Character.isWhitespace(c)) return ESPACO;
+        if (Character.isLetter(c)) return LETRA;
+        if (Character.isDigit(c)) return DIGITO;
+        return OUTRO;
+    }
+
+    private final TabelaNomes nomes;
+    private char[] bufferLexema = new char[64];
+
+    // Ultimo token lido por avancaToken()
+    private TokenSimbolo simboloToken;
+    private int idNomeToken;
+    private int inicioToken;
+    private int tamanhoToken;
+    private int totalTokens;
+
     private FileReader arquivo;
+    // Modo mapeado: le bytes direto do arquivo mapeado em memoria
+    private FileChannel canal;
+    private MappedByteBuffer janela;
+    private long inicioJanela;
+    private long tamanhoArquivo;
+    // Modo texto: le de um vetor de caracteres em memoria (reanalise incremental)
+    private char[] texto;
+    private int posTexto;
+    private int fimTexto;
+    private int substitutoPendente = -1; // segunda metade de um par UTF-16 ja decodificado
+    private int byteDevolvido = -1;      // byte lido a mais durante uma sequencia UTF-8 invalida
     private int caractere;
-    private int linhaAtual = 1;
-    private boolean erroComentarioNaoFechado = false;
-    private int linhaErroComentario = -1;
+    private int caracteresLidos = 0; // posicao do caractere atual = caracteresLidos - 1
+    private final MapaLinhas linhas;
+    private int inicioComentario; // inicio do ultimo comentario (para o erro de comentario nao fechado)
+    private int hashLexema;       // hash do lexema lido por leSequencia
 
     public AnalisadorLexico(String nomeArquivo) throws IOException {
-        arquivo = new FileReader(nomeArquivo);
+        this(nomeArquivo, false);
+    }
+
+    public AnalisadorLexico(String nomeArquivo, boolean mapeado) throws IOException {
+        this(nomeArquivo, mapeado, new TabelaNomes());
+    }
+
+    // mapeado = true: mapeia o arquivo com FileChannel.map e le os bytes diretamente,
+    // decodificando UTF-8 apenas quando aparece um byte fora do ASCII.
+    // nomes: pool onde os identificadores sao internados (compartilhado com a TabelaSimbolos)
+    public AnalisadorLexico(String nomeArquivo, boolean mapeado, TabelaNomes nomes) throws IOException {
+        this.nomes = nomes;
+        this.linhas = new MapaLinhas();
+        if (mapeado) {
+            canal = FileChannel.open(Path.of(nomeArquivo), StandardOpenOption.READ);
+            tamanhoArquivo = canal.size();
+            inicioJanela = 0;
+            janela = canal.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(tamanhoArquivo, TAMANHO_JANELA));
+        } else {
+            arquivo = new FileReader(nomeArquivo);
+        }
+        lerCaractere();
+    }
+
+    // Le texto[inicio..fim) como se fosse o arquivo a partir da posicao 'inicio'. Posicoes dos tokens
+    // saem nas coordenadas do texto inteiro; 'linhas' e o mapa do texto inteiro (ou o que esta sendo
+    // construido desde a posicao 0).
+    public AnalisadorLexico(char[] texto, int inicio, int fim, MapaLinhas linhas, TabelaNomes nomes) throws IOException {
+        this.nomes = nomes;
+        this.texto = texto;
+        this.posTexto = inicio;
+        this.fimTexto = fim;
+        this.caracteresLidos = inicio;
+        this.linhas = linhas;
         lerCaractere();
     }
 
-    // CORREÇÃO: leia primeiro, depois atualize a linha se for '\n'
+    // Le o proximo caractere; depois de um '\n' registra o inicio da linha seguinte
     private void lerCaractere() throws IOException {
-        caractere = arquivo.read();
-        if (caractere == '\n') {
-            linhaAtual++;
+        if (janela != null) {
+            caractere = lerMapeado();
+        } else if (texto != null) {
+            caractere = posTexto < fimTexto ? texto[posTexto++] : -1;
+        } else {
+            caractere = arquivo.read();
+        }
+        if (caractere != -1) {
+            caracteresLidos++;
+            if (caractere == '\n') linhas.adiciona(caracteresLidos);
         }
     }
 
-    // CORREÇÃO: loop para pular espaços e comentários repetidamente
-    private void pulaEspacoComentario() throws IOException {
-        while (caractere != -1) {
-            // pula espaços em branco
-            while (caractere != -1 && Character.isWhitespace(caractere)) {
-                lerCaractere();
+    // Caminho rapido: um byte ASCII vira o proprio caractere, sem passar por decodificador
+    private int lerMapeado() throws IOException {
+        if (substitutoPendente != -1) {
+            int c = substitutoPendente;
+            substitutoPendente = -1;
+            return c;
+        }
+        int b = proximoByte();
+        if (b < 0x80) {
+            return b; // inclui -1 (fim do arquivo)
+        }
+        return decodificaUtf8(b);
+    }
+
+    private int proximoByte() throws IOException {
+        if (byteDevolvido != -1) {
+            int b = byteDevolvido;
+            byteDevolvido = -1;
+            return b;
+        }
+        if (!janela.hasRemaining()) {
+            long proximoInicio = inicioJanela + janela.limit();
+            if (proximoInicio >= tamanhoArquivo) {
+                return -1;
             }
+            inicioJanela = proximoInicio;
+            janela = canal.map(FileChannel.MapMode.READ_ONLY, inicioJanela,
+                    Math.min(tamanhoArquivo - inicioJanela, TAMANHO_JANELA));
+        }
+        return janela.get() & 0xFF;
+    }
+
+    // Decodifica uma sequencia UTF-8 iniciada por 'lider' com as regras do decodificador UTF-8 do JDK
+    // (o do FileReader): uma sequencia invalida vira U+FFFD e o byte que a tornou invalida e lido de
+    // novo. Formas longas demais (C0 80, E0 80..9F, F0 80..8F), surrogates codificados (ED A0..BF) e
+    // valores acima de 0x10FFFF (F4 90.., lideres F5..FF) sao invalidos.
+    private int decodificaUtf8(int lider) throws IOException {
+        int faltam;
+        int codigo;
+        if (lider >= 0xC2 && lider <= 0xDF) { faltam = 1; codigo = lider & 0x1F; }
+        else if (lider >= 0xE0 && lider <= 0xEF) { faltam = 2; codigo = lider & 0x0F; }
+        else if (lider >= 0xF0 && lider <= 0xF4) { faltam = 3; codigo = lider & 0x07; }
+        else return 0xFFFD; // continuacao solta, C0/C1 ou F5..FF
+
+        for (int i = 0; i < faltam; i++) {
+            int b = proximoByte();
+            boolean valido = b != -1 && (b & 0xC0) == 0x80;
+            if (valido && i == 0) {
+                // o segundo byte limita a faixa do valor
+                if (lider == 0xE0) valido = b >= 0xA0;
+                else if (lider == 0xF0) valido = b >= 0x90;
+                else if (lider == 0xF4) valido = b < 0x90;
+            }
+            if (!valido) {
+                // devolve o byte para ser lido de novo
+                byteDevolvido = b;
+                return 0xFFFD;
+            }
+            codigo = (codigo << 6) | (b & 0x3F);
+        }
+
+        if (codigo >= Character.MIN_SURROGATE && codigo <= Character.MAX_SURROGATE) return 0xFFFD;
+        if (Character.isSupplementaryCodePoint(codigo)) {
+            substitutoPendente = Character.lowSurrogate(codigo);
+            return Character.highSurrogate(codigo);
+        }
+        return codigo;
+    }
+
+    private int posicaoAtual() {
+        return caractere == -1 ? caracteresLidos : caracteresLidos - 1;
+    }
 
-            // se for comentário { ... }, consome até '}' e repete (pode haver espaços/comentários consecutivos)
-            if (caractere == '{') {
-                int linhaInicioComentario = linhaAtual;
-                lerCaractere(); // consome '{'
-                while (caractere != -1 && caractere != '}') {
+    private void guardaToken(TokenSimbolo simbolo, int idNome, int inicio) {
+        simboloToken = simbolo;
+        idNomeToken = idNome;
+        inicioToken = inicio;
+        tamanhoToken = posicaoAtual() - inicio;
+    }
+
+    // Indice da palavra reservada que esta em bufferLexema, ou -1 se for identificador
+    private int buscaPalavraReservada(int hash, int tamanho) {
+        int i = TABELA_PALAVRAS[(hash * SEMENTE_PALAVRAS) >>> (32 - BITS_PALAVRAS)] - 1;
+        if (i < 0) return -1;
+        String palavra = PALAVRAS[i].lexemaFixo;
+        if (palavra.length() != tamanho) return -1;
+        for (int k = 0; k < tamanho; k++) {
+            if (palavra.charAt(k) != bufferLexema[k]) return -1;
+        }
+        return i;
+    }
+
+    // Pula espacos e comentarios e retorna a transicao de EM_INICIO pelo primeiro caractere do
+    // token (ou FIM_ARQUIVO / COMENTARIO_ABERTO). Cada sequencia e consumida num laco proprio.
+    private int pulaEspacoComentario() throws IOException {
+        while (true) {
+            int proximo = TRANSICOES[EM_INICIO * CLASSES + classe(caractere)];
+            if (proximo == EM_INICIO) {
+                do {
                     lerCaractere();
-                }
-                if (caractere == -1) {
-                    erroComentarioNaoFechado = true;
-                    linhaErroComentario = linhaInicioComentario;
-                    return; // comentário não fechado -> retorna erro
-                } else {
-                    lerCaractere(); // consome '}'
-                    // continua o loop: pode ter whitespace ou outro comentário em seguida
-                }
+                } while (classe(caractere) == ESPACO);
+            } else if (proximo == EM_COMENTARIO) {
+                inicioComentario = posicaoAtual();
+                do {
+                    lerCaractere();
+                } while (TRANSICOES[EM_COMENTARIO * CLASSES + classe(caractere)] == EM_COMENTARIO);
+                if (caractere == -1) return COMENTARIO_ABERTO;
+                lerCaractere(); // consome '}'
             } else {
-                break; // nem espaço nem comentário: pronto para tokenizar
+                return proximo;
             }
         }
     }
 
-    private Token trataDigito() throws IOException {
-        StringBuilder lexema = new StringBuilder();
-        int linhaToken = linhaAtual;
-        while (caractere != -1 && Character.isDigit(caractere)) {
-            lexema.append((char) caractere);
+    // Identificador ou numero: acumula os caracteres enquanto o automato fica no 'estado'
+    private int leSequencia(int estado) throws IOException {
+        int base = estado * CLASSES;
+        int tamanho = 0;
+        int hash = 0;
+        do {
+            if (tamanho == bufferLexema.length)
+                bufferLexema = Arrays.copyOf(bufferLexema, tamanho * 2);
+            bufferLexema[tamanho++] = (char) caractere;
+            hash = 31 * hash + caractere;
             lerCaractere();
-        }
-        return new Token(TokenSimbolo.snumero, lexema.toString(), linhaToken);
+        } while (TRANSICOES[base + classe(caractere)] == estado);
+        hashLexema = hash;
+        return tamanho;
     }
 
-    private Token trataIdentificadorPalavraReservada() throws IOException {
-        StringBuilder lexema = new StringBuilder();
-        int linhaToken = linhaAtual;
-        while (caractere != -1 && (Character.isLetterOrDigit(caractere) || caractere == '_')) {
-            lexema.append((char) caractere);
-            lerCaractere();
-        }
-        String palavra = lexema.toString();
-        switch (palavra) {
-            case "programa": return new Token(TokenSimbolo.sprograma, palavra, linhaToken);
-            case "inicio": return new Token(TokenSimbolo.sinicio, palavra, linhaToken);
-            case "fim": return new Token(TokenSimbolo.sfim, palavra, linhaToken);
-            case "procedimento": return new Token(TokenSimbolo.sprocedimento, palavra, linhaToken);
-            case "funcao": return new Token(TokenSimbolo.sfuncao, palavra, linhaToken);
-            case "se": return new Token(TokenSimbolo.sse, palavra, linhaToken);
-            case "entao": return new Token(TokenSimbolo.sentao, palavra, linhaToken);
-            case "senao": return new Token(TokenSimbolo.ssenao, palavra, linhaToken);
-            case "enquanto": return new Token(TokenSimbolo.senquanto, palavra, linhaToken);
-            case "faca": return new Token(TokenSimbolo.sfaca, palavra, linhaToken);
-            case "escreva": return new Token(TokenSimbolo.sescreva, palavra, linhaToken);
-            case "leia": return new Token(TokenSimbolo.sleia, palavra, linhaToken);
-            case "var": return new Token(TokenSimbolo.svar, palavra, linhaToken);
-            case "inteiro": return new Token(TokenSimbolo.sinteiro, palavra, linhaToken);
-            case "booleano": return new Token(TokenSimbolo.sbooleano, palavra, linhaToken);
-            case "verdadeiro": return new Token(TokenSimbolo.sverdadeiro, palavra, linhaToken);
-            case "falso": return new Token(TokenSimbolo.sfalso, palavra, linhaToken);
-            case "div": return new Token(TokenSimbolo.sdiv, palavra, linhaToken);
-            case "e": return new Token(TokenSimbolo.se, palavra, linhaToken);
-            case "ou": return new Token(TokenSimbolo.sou, palavra, linhaToken);
-            case "nao": return new Token(TokenSimbolo.snao, palavra, linhaToken);
-            default: return new Token(TokenSimbolo.sidentificador, palavra, linhaToken);
-        }
-    }
-
-    private Token trataSimbolos() throws IOException {
-        char c = (char) caractere;
-        int linhaToken = linhaAtual;
-        lerCaractere();
-        switch (c) {
-            case ':':
-                if (caractere == '=') { lerCaractere(); return new Token(TokenSimbolo.satribuicao, ":=", linhaToken); }
-                else return new Token(TokenSimbolo.sdois_pontos, ":", linhaToken);
-            case '>':
-                if (caractere == '=') { lerCaractere(); return new Token(TokenSimbolo.smaior_ig, ">=", linhaToken); }
-                else return new Token(TokenSimbolo.smaior, ">", linhaToken); 
-            case '<':
-                if (caractere == '=') { lerCaractere(); return new Token(TokenSimbolo.smenor_ig, "<=", linhaToken); }
-                else return new Token(TokenSimbolo.smenor, "<", linhaToken); 
-            case '!':
-                if (caractere == '=') { lerCaractere(); return new Token(TokenSimbolo.sdiferente, "!=", linhaToken); }
-                else { return new Token(TokenSimbolo.serro, "!", linhaToken); }
-            case '=': return new Token(TokenSimbolo.sigual, "=", linhaToken);
-            case '+': return new Token(TokenSimbolo.smais, "+", linhaToken);
-            case '-': return new Token(TokenSimbolo.smenos, "-", linhaToken);
-            case '*': return new Token(TokenSimbolo.smultiplicacao, "*", linhaToken);
-            case '.': return new Token(TokenSimbolo.sponto, ".", linhaToken);
-            case ';': return new Token(TokenSimbolo.sponto_virgula, ";", linhaToken);
-            case ',': return new Token(TokenSimbolo.svirgula, ",", linhaToken);
-            case '(': return new Token(TokenSimbolo.sabre_parenteses, "(", linhaToken);
-            case ')': return new Token(TokenSimbolo.sfecha_parenteses, ")", linhaToken);
-            default: return new Token(TokenSimbolo.serro, String.valueOf(c), linhaToken);
+    // Le o proximo token sem criar objeto: o resultado fica disponivel em simboloToken(),
+    // linhaToken(), idNomeToken(), inicioToken() e tamanhoToken().
+    // As transicoes vem do automato (TRANSICOES); cada estado tem o seu trecho de codigo.
+    public TokenSimbolo avancaToken() throws IOException {
+        totalTokens++;
+        int estado = pulaEspacoComentario();
+        int inicio = posicaoAtual();
+        int primeiro = caractere;
+        switch (estado) {
+            case EM_IDENTIFICADOR: {
+                int tamanho = leSequencia(EM_IDENTIFICADOR);
+                int palavra = buscaPalavraReservada(hashLexema, tamanho);
+                if (palavra >= 0)
+                    guardaToken(PALAVRAS[palavra], -1, inicio);
+                else
+                    guardaToken(TokenSimbolo.sidentificador,
+                            nomes.intern(bufferLexema, 0, tamanho, hashLexema), inicio);
+                break;
+            }
+            case EM_NUMERO: {
+                int tamanho = leSequencia(EM_NUMERO);
+                guardaToken(TokenSimbolo.snumero, nomes.internLiteral(bufferLexema, 0, tamanho, hashLexema), inicio);
+                break;
+            }
+            case EM_PREFIXO:
+                lerCaractere();
+                if (TRANSICOES[EM_PREFIXO * CLASSES + classe(caractere)] == EM_OPERADOR_DUPLO) {
+                    lerCaractere();
+                    guardaToken(OPERADOR_DUPLO[primeiro], -1, inicio);
+                } else if (OPERADOR_SIMPLES[primeiro] != TokenSimbolo.serro) {
+                    guardaToken(OPERADOR_SIMPLES[primeiro], -1, inicio);
+                } else {
+                    erroCaractere(primeiro, inicio); // '!' sem '='
+                }
+                break;
+            case EM_OPERADOR:
+                lerCaractere();
+                guardaToken(OPERADOR_SIMPLES[primeiro], -1, inicio);
+                break;
+            case FIM_ARQUIVO:
+                guardaToken(TokenSimbolo.sfim_arquivo, -1, inicio);
+                break;
+            case COMENTARIO_ABERTO:
+                guardaToken(TokenSimbolo.serro, nomes.internLiteral("Comentario nao fechado"), inicioComentario);
+                break;
+            default: // EM_INVALIDO: caractere que nao comeca token nenhum
+                lerCaractere();
+                erroCaractere(primeiro, inicio);
         }
+        return simboloToken;
+    }
+
+    private void erroCaractere(int c, int inicio) {
+        bufferLexema[0] = (char) c;
+        guardaToken(TokenSimbolo.serro, nomes.internLiteral(bufferLexema, 0, 1, bufferLexema[0]), inicio);
     }
 
     public Token pegaToken() throws IOException {
-        pulaEspacoComentario();
+        avancaToken();
+        return new Token(simboloToken, lexemaToken(), linhaToken(), idNomeToken);
+    }
 
-        if (erroComentarioNaoFechado) {
-            Token erro = new Token(TokenSimbolo.serro, "Comentario nao fechado", linhaErroComentario);
-            erroComentarioNaoFechado = false;
-            return erro;
-        }
+    // Le o arquivo inteiro para um BufferTokens (termina com o token sfim_arquivo)
+    public BufferTokens tokenizar() throws IOException {
+        BufferTokens buffer = new BufferTokens(nomes, linhas);
+        TokenSimbolo simbolo;
+        do {
+            simbolo = avancaToken();
+            buffer.adiciona(simbolo, inicioToken, tamanhoToken, idNomeToken);
+        } while (simbolo != TokenSimbolo.sfim_arquivo);
+        return buffer;
+    }
 
-        if (caractere == -1) {
-            return new Token(TokenSimbolo.sfim_arquivo, "EOF", linhaAtual);
-        }
-        
-        char c = (char) caractere;
-        if (Character.isDigit(c)) {
-            return trataDigito();
-        } else if (Character.isLetter(c)) {
-            return trataIdentificadorPalavraReservada();
-        } else {
-            return trataSimbolos();
-        }
+    public MapaLinhas getLinhas() { return linhas; }
+    public TokenSimbolo simboloToken() { return simboloToken; }
+    // A linha nao e guardada por token: sai do mapa de linhas quando alguem pede
+    public int linhaToken() { return linhas.linha(inicioToken); }
+    public int idNomeToken() { return idNomeToken; }
+    public int inicioToken() { return inicioToken; }
+    public int tamanhoToken() { return tamanhoToken; }
+
+    // Quantidade de tokens lidos ate agora (inclui o sfim_arquivo)
+    public int getTotalTokens() {
+        return totalTokens;
+    }
+
+    public String lexemaToken() {
+        return idNomeToken >= 0 ? nomes.nome(idNomeToken) : simboloToken.lexemaFixo;
     }
     
+    public TabelaNomes getNomes() {
+        return nomes;
+    }
+
     public void fechar() throws IOException {
         if (arquivo != null) {
             arquivo.close();
         }
+        if (canal != null) {
+            janela = null;
+            canal.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,266 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Analise em paralelo das sub-rotinas do programa principal. Cada 'procedimento'/'funcao' do
+// nivel de fora so depende do que esta visivel no seu cabecalho (programa, variaveis globais e
+// cabecalhos das sub-rotinas anteriores), entao:
+//   1. divide os tokens nas fronteiras das sub-rotinas, casando 'inicio'/'fim';
+//   2. agrupa sub-rotinas vizinhas (umas poucas tarefas por thread do pool, com quantidades de
+//      tokens parecidas) e analisa cada grupo numa tarefa do ForkJoinPool, com sua propria
+//      TabelaSimbolos restaurada para a visao do cabecalho da primeira sub-rotina do grupo (os
+//      simbolos dessa visao sao compartilhados e ninguem os altera) e uma arvore por sub-rotina;
+//   3. junta os resultados na ordem do fonte, renumerando indices e enderecos dos simbolos como
+//      a analise sequencial os teria dado.
+// Se uma sub-rotina deu erro ou terminou fora da fronteira prevista, a juncao para nela e a
+// analise sequencial continua dali, com a tabela exatamente no estado sequencial: o diagnostico
+// e o mesmo da analise sequencial.
+public class AnalisadorParalelo {
+    private static final PrintStream NULA = new PrintStream(OutputStream.nullOutputStream());
+    private static final int TAREFAS_POR_THREAD = 4;
+
+    // Uma sub-rotina: fronteira prevista e resultado da analise
+    private static final class Parte {
+        final int inicio;       // token 'procedimento'/'funcao'
+        final int fim;          // token ';' depois do 'fim' do corpo
+        final int tokens;
+        boolean analisada;      // terminou sem erro exatamente em 'fim'
+        int simbolosFim;        // tamanho da tabela do grupo depois dela
+        int enderecoFim;        // enderecoAtual da tabela do grupo depois dela
+        ArvoreSintatica arvore;
+        byte[] rastreio;
+
+        Parte(int inicio, int fim) {
+            this.inicio = inicio;
+            this.fim = fim;
+            this.tokens = fim + 1 - inicio;
+        }
+    }
+
+    // Sub-rotinas [primeira, ultima) analisadas em sequencia numa mesma tabela local
+    private static final class Grupo {
+        final int primeira;
+        final int ultima;
+        TabelaSimbolos tabela;
+
+        Grupo(int primeira, int ultima) {
+            this.primeira = primeira;
+            this.ultima = ultima;
+        }
+    }
+
+    private final BufferTokens tokens;
+    private final TabelaSimbolos tabela;
+    private final ArvoreSintatica arvore;
+    private final ForkJoinPool pool;
+    private int partesJuntadas;
+
+    AnalisadorParalelo(BufferTokens tokens, TabelaSimbolos tabela, ArvoreSintatica arvore, ForkJoinPool pool) {
+        this.tokens = tokens;
+        this.tabela = tabela;
+        this.arvore = arvore;
+        this.pool = pool;
+    }
+
+    // Sub-rotinas que foram aceitas da analise paralela (o resto foi analisado em sequencia)
+    int getPartesJuntadas() {
+        return partesJuntadas;
+    }
+
+    // Analisa as sub-rotinas a partir do token 'inicio' e retorna o token onde a analise
+    // sequencial deve continuar (depois do ';' da ultima sub-rotina aceita)
+    int analisa(int inicio) throws IOException {
+        List<Parte> partes = divide(inicio);
+        if (partes.size() < 2) return inicio;
+
+        // Visao compartilhada: simbolos de base + cabecalho de cada sub-rotina, na ordem
+        int base = tabela.tamanho();
+        int enderecoBase = tabela.getEnderecoAtual();
+        int nivel = tabela.getNivelAtual();
+        List<Simbolo> visao = new ArrayList<>(base + partes.size());
+        for (int i = 0; i < base; i++) visao.add(tabela.get(i));
+        for (int k = 0; k < partes.size(); k++) visao.add(cabecalho(partes.get(k).inicio, nivel, base + k));
+
+        List<Grupo> grupos = agrupa(partes, pool.getParallelism() * TAREFAS_POR_THREAD);
+        List<ForkJoinTask<Grupo>> tarefas = new ArrayList<>(grupos.size());
+        for (Grupo grupo : grupos) {
+            List<Simbolo> anteriores = visao.subList(0, base + grupo.primeira);
+            int endereco = enderecoBase + grupo.primeira;
+            tarefas.add(pool.submit(() -> analisaGrupo(grupo, partes, anteriores, nivel, endereco)));
+        }
+
+        // Juncao na ordem. Na tabela do grupo que comeca na parte a, os simbolos proprios comecam
+        // em base + a (antes estao a base e os cabecalhos das partes anteriores) e os enderecos
+        // proprios em enderecoBase + a.
+        List<Simbolo> todos = new ArrayList<>(visao.subList(0, base));
+        List<Boolean> visiveis = new ArrayList<>(Collections.nCopies(base, Boolean.TRUE));
+        int[] finais = new int[partes.size()]; // indice final do cabecalho de cada parte
+        int endereco = enderecoBase;
+        int continua = inicio;
+        int g = 0;
+        partesJuntadas = 0;
+        juncao:
+        for (; g < grupos.size(); g++) {
+            Grupo grupo = tarefas.get(g).join();
+            int proprios = base + grupo.primeira;
+            int deslocamentoIndice = todos.size() - proprios;
+            int deslocamentoEndereco = endereco - (enderecoBase + grupo.primeira);
+            // mapa[i - base]: indice final do simbolo i da tabela do grupo
+            int[] mapa = new int[grupo.tabela.tamanho() - base];
+            for (int j = 0; j < grupo.primeira; j++) mapa[j] = finais[j];
+            int i = proprios;
+            for (int k = grupo.primeira; k < grupo.ultima; k++) {
+                Parte parte = partes.get(k);
+                if (!parte.analisada) break juncao;
+                finais[k] = i + deslocamentoIndice;
+                for (int cabecalho = i; i < parte.simbolosFim; i++) {
+                    Simbolo s = grupo.tabela.get(i);
+                    todos.add(new Simbolo(s.getNome(), s.getIdNome(), s.getEscopo(), s.getTipo(),
+                            s.getEndereco() < 0 ? -1 : s.getEndereco() + deslocamentoEndereco, i + deslocamentoIndice));
+                    visiveis.add(i == cabecalho); // so o cabecalho continua visivel depois do corpo
+                    mapa[i - base] = i + deslocamentoIndice;
+                }
+                endereco = parte.enderecoFim + deslocamentoEndereco;
+                if (arvore != null) {
+                    parte.arvore.remapeiaSimbolos(base, mapa);
+                    int deslocamento = arvore.enxerta(parte.arvore);
+                    arvore.anexaAberto(deslocamento + parte.arvore.raiz());
+                }
+                if (parte.rastreio != null) tabela.getSaida().write(parte.rastreio, 0, parte.rastreio.length);
+                continua = parte.fim + 1;
+                partesJuntadas++;
+            }
+        }
+        // os grupos depois do que falhou podem ainda estar rodando: o resultado deles e descartado
+        for (g++; g < tarefas.size(); g++) tarefas.get(g).cancel(false);
+
+        if (partesJuntadas > 0) {
+            boolean[] visivel = new boolean[todos.size()];
+            for (int i = 0; i < visivel.length; i++) visivel[i] = visiveis.get(i);
+            tabela.restaurar(todos, visivel, nivel, endereco);
+        }
+        return continua;
+    }
+
+    // Divide as partes em ate 'maximo' grupos seguidos com quantidades de tokens parecidas
+    private static List<Grupo> agrupa(List<Parte> partes, int maximo) {
+        long total = 0;
+        for (Parte p : partes) total += p.tokens;
+        int quantidade = Math.max(1, Math.min(maximo, partes.size()));
+        List<Grupo> grupos = new ArrayList<>(quantidade);
+        int primeira = 0;
+        long acumulado = 0;
+        for (int k = 0; k < partes.size(); k++) {
+            acumulado += partes.get(k).tokens;
+            // fecha o grupo quando passa da sua fracao do total
+            if (k + 1 == partes.size() || acumulado * quantidade >= total * (grupos.size() + 1)) {
+                grupos.add(new Grupo(primeira, k + 1));
+                primeira = k + 1;
+            }
+        }
+        return grupos;
+    }
+
+    // Analisa as partes do grupo em sequencia a partir da visao do cabecalho da primeira; para na
+    // primeira que falhar (as seguintes dependeriam de uma tabela que a analise sequencial nao teria)
+    private Grupo analisaGrupo(Grupo grupo, List<Parte> partes, List<Simbolo> anteriores, int nivel, int endereco) {
+        TabelaSimbolos local = new TabelaSimbolos(tabela.getNomes());
+        ByteArrayOutputStream rastreio = MetricasCompilacao.RASTREIO ? new ByteArrayOutputStream() : null;
+        local.setSaida(rastreio != null ? new PrintStream(rastreio, true, StandardCharsets.UTF_8) : NULA);
+        boolean[] visivel = new boolean[anteriores.size()];
+        Arrays.fill(visivel, true);
+        local.restaurar(anteriores, visivel, nivel, endereco);
+        grupo.tabela = local;
+        for (int k = grupo.primeira; k < grupo.ultima; k++) {
+            Parte parte = partes.get(k);
+            try {
+                AnalisadorSintatico parser = new AnalisadorSintatico(tokens, local, parte.inicio);
+                parser.setSaida(NULA);
+                if (arvore != null) {
+                    parte.arvore = new ArvoreSintatica(Math.max(16, 2 * parte.tokens));
+                    parser.setArvore(parte.arvore);
+                }
+                parser.analisaRegiao();
+                parte.analisada = parser.indiceToken() == parte.fim;
+            } catch (IOException | RuntimeException e) {
+                parte.analisada = false;
+            }
+            if (rastreio != null) {
+                parte.rastreio = rastreio.toByteArray();
+                rastreio.reset();
+            }
+            if (!parte.analisada) break;
+            parte.simbolosFim = local.tamanho();
+            parte.enderecoFim = local.getEnderecoAtual();
+        }
+        return grupo;
+    }
+
+    // Simbolo do cabecalho da sub-rotina que comeca em 'inicio' (o formato ja foi conferido em divide)
+    private Simbolo cabecalho(int inicio, int nivel, int indice) {
+        int id = tokens.idNome(inicio + 1);
+        TipoSimbolo tipo = tokens.simbolo(inicio) == TokenSimbolo.sprocedimento ? TipoSimbolo.PROCEDIMENTO
+                : TipoSimbolo.doToken(tokens.simbolo(inicio + 3));
+        return new Simbolo(tabela.getNomes().nome(id), id, nivel, tipo, -1, indice);
+    }
+
+    // Fronteiras das sub-rotinas seguidas a partir de 'inicio'. Para na primeira que nao tem o
+    // formato esperado; ela e o resto ficam para a analise sequencial.
+    private List<Parte> divide(int inicio) {
+        List<Parte> partes = new ArrayList<>();
+        int n = tokens.tamanho();
+        int i = inicio;
+        while (i < n && (tokens.simbolo(i) == TokenSimbolo.sprocedimento || tokens.simbolo(i) == TokenSimbolo.sfuncao)) {
+            int corpo = fimCabecalho(i);
+            if (corpo < 0) break;
+            int fim = fimBloco(corpo);
+            if (fim < 0 || tokens.simbolo(fim) != TokenSimbolo.sponto_virgula) break;
+            partes.add(new Parte(i, fim));
+            i = fim + 1;
+        }
+        return partes;
+    }
+
+    // 'procedimento id ;' ou 'funcao id : tipo ;': retorna o primeiro token do corpo, ou -1
+    private int fimCabecalho(int i) {
+        int n = tokens.tamanho();
+        if (i + 2 >= n || tokens.simbolo(i + 1) != TokenSimbolo.sidentificador) return -1;
+        if (tokens.simbolo(i) == TokenSimbolo.sprocedimento)
+            return tokens.simbolo(i + 2) == TokenSimbolo.sponto_virgula ? i + 3 : -1;
+        if (i + 4 >= n || tokens.simbolo(i + 2) != TokenSimbolo.sdois_pontos) return -1;
+        TokenSimbolo tipo = tokens.simbolo(i + 3);
+        if (tipo != TokenSimbolo.sinteiro && tipo != TokenSimbolo.sbooleano) return -1;
+        return tokens.simbolo(i + 4) == TokenSimbolo.sponto_virgula ? i + 5 : -1;
+    }
+
+    // Token depois do 'fim' que fecha o bloco que comeca em 'i', ou -1. Cada 'procedimento'/'funcao'
+    // aninhado abre mais um bloco pendente; um 'inicio ... fim' de profundidade 0 fecha o mais interno.
+    private int fimBloco(int i) {
+        int n = tokens.tamanho();
+        int pendentes = 1;
+        int profundidade = 0;
+        for (; i < n; i++) {
+            TokenSimbolo s = tokens.simbolo(i);
+            if (s == TokenSimbolo.sprocedimento || s == TokenSimbolo.sfuncao) {
+                if (profundidade > 0) return -1; // sub-rotina dentro de comandos: deixa para o sequencial
+                pendentes++;
+            } else if (s == TokenSimbolo.sinicio) {
+                profundidade++;
+            } else if (s == TokenSimbolo.sfim) {
+                if (--profundidade < 0) return -1;
+                if (profundidade == 0 && --pendentes == 0) return i + 1;
+            } else if (s == TokenSimbolo.sfim_arquivo) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+}
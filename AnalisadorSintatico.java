@@ -1,55 +1,307 @@
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class AnalisadorSintatico {
-    private Token tokenAtual;
+    // Forca de ligacao dos operadores binarios (0: nao e operador binario), tipo exigido dos dois
+    // operandos (null: os dois do mesmo tipo, qualquer um) e tipo do resultado, pelo ordinal do TokenSimbolo
+    private static final int RELACIONAL = 1, ADITIVO = 2, MULTIPLICATIVO = 3;
+    private static final byte[] LIGACAO = new byte[TokenSimbolo.VALORES.length];
+    private static final TipoSimbolo[] OPERANDO = new TipoSimbolo[TokenSimbolo.VALORES.length];
+    private static final TipoSimbolo[] RESULTADO = new TipoSimbolo[TokenSimbolo.VALORES.length];
+    private static final EnumSet<TokenSimbolo> SINAIS = EnumSet.of(TokenSimbolo.smais, TokenSimbolo.smenos);
+
+    static {
+        binario(TokenSimbolo.sigual, RELACIONAL, null, TipoSimbolo.BOOLEANO);
+        binario(TokenSimbolo.sdiferente, RELACIONAL, null, TipoSimbolo.BOOLEANO);
+        for (TokenSimbolo s : EnumSet.of(TokenSimbolo.smaior, TokenSimbolo.smaior_ig, TokenSimbolo.smenor, TokenSimbolo.smenor_ig))
+            binario(s, RELACIONAL, TipoSimbolo.INTEIRO, TipoSimbolo.BOOLEANO);
+        binario(TokenSimbolo.smais, ADITIVO, TipoSimbolo.INTEIRO, TipoSimbolo.INTEIRO);
+        binario(TokenSimbolo.smenos, ADITIVO, TipoSimbolo.INTEIRO, TipoSimbolo.INTEIRO);
+        binario(TokenSimbolo.sou, ADITIVO, TipoSimbolo.BOOLEANO, TipoSimbolo.BOOLEANO);
+        binario(TokenSimbolo.smultiplicacao, MULTIPLICATIVO, TipoSimbolo.INTEIRO, TipoSimbolo.INTEIRO);
+        binario(TokenSimbolo.sdiv, MULTIPLICATIVO, TipoSimbolo.INTEIRO, TipoSimbolo.INTEIRO);
+        binario(TokenSimbolo.se, MULTIPLICATIVO, TipoSimbolo.BOOLEANO, TipoSimbolo.BOOLEANO);
+    }
+
+    private static void binario(TokenSimbolo operador, int ligacao, TipoSimbolo operando, TipoSimbolo resultado) {
+        LIGACAO[operador.ordinal()] = (byte) ligacao;
+        OPERANDO[operador.ordinal()] = operando;
+        RESULTADO[operador.ordinal()] = resultado;
+    }
+
+    // Token atual, copiado campo a campo do lexico ou do BufferTokens (sem objeto Token)
+    private TokenSimbolo simboloAtual;
+    private int posicaoAtual;     // posicao do token no texto; linha e coluna saem do MapaLinhas
+    private int idNomeAtual;
+    private int indiceAtual = -1; // posicao no BufferTokens, quando le de um buffer
+    private int tokensLidos = 0;  // indice do token atual no fluxo = tokensLidos - 1
+
     private TabelaSimbolos tabela;
+    private MapaLinhas linhas;
     private AnalisadorLexico lexico;
+    private BufferTokens buffer;
+    private CanalTokens canal;  // modo em pipeline: lotes vindos da thread do lexico
+    private LoteTokens lote;
+    private int posLote;
+    private PrintStream saida = System.out;
+    private ArvoreSintatica arvore; // null: so valida, sem construir a arvore
+    private RegioesAnalise regioes; // null: nao registra as regioes reanalisaveis
+    private ForkJoinPool paralelo;  // null: sub-rotinas do programa principal em sequencia
+    private IndiceReferencias referencias; // null: nao grava os usos dos simbolos
+    private int rotinaAtual;        // simbolo da sub-rotina (ou do programa) em analise
+    private boolean pilhaExplicita; // blocos, comandos e expressoes sem recursao na pilha da JVM
+    private int[] pilha;            // quadros da pilha explicita: estado e ate 5 argumentos
+    private int topo;
 
     public AnalisadorSintatico(AnalisadorLexico lexico, TabelaSimbolos tabela) throws IOException {
         this.lexico = lexico;
         this.tabela = tabela;
+        this.linhas = lexico.getLinhas();
+        tabela.vincularNomes(lexico.getNomes());
+        proximoToken();
+    }
+
+    // Consome os tokens ja lidos em um BufferTokens, por indice
+    public AnalisadorSintatico(BufferTokens buffer, TabelaSimbolos tabela) throws IOException {
+        this.buffer = buffer;
+        this.tabela = tabela;
+        this.linhas = buffer.getLinhas();
+        tabela.vincularNomes(buffer.getNomes());
+        proximoToken();
+    }
+
+    // Modo em pipeline: o lexico roda na thread do canal (o chamador fecha o canal no fim)
+    public AnalisadorSintatico(CanalTokens canal, TabelaSimbolos tabela) throws IOException {
+        this.canal = canal;
+        this.tabela = tabela;
+        this.linhas = canal.getLinhas();
+        tabela.vincularNomes(canal.getNomes());
+        lote = canal.proximoLote(null);
+        proximoToken();
+    }
+
+    // Comeca no token 'inicio' do buffer, para reanalisar uma regiao com analisaRegiao()
+    AnalisadorSintatico(BufferTokens buffer, TabelaSimbolos tabela, int inicio) throws IOException {
+        this.buffer = buffer;
+        this.tabela = tabela;
+        this.linhas = buffer.getLinhas();
+        tabela.vincularNomes(buffer.getNomes());
+        indiceAtual = inicio - 1;
+        tokensLidos = inicio;
         proximoToken();
     }
 
+    // Destino das mensagens do sintatico (o padrao e System.out)
+    public void setSaida(PrintStream saida) {
+        this.saida = saida;
+    }
+
+    // Liga a construcao da arvore sintatica (chamar antes de analisaPrograma)
+    public void setArvore(ArvoreSintatica arvore) {
+        this.arvore = arvore;
+    }
+
+    public ArvoreSintatica getArvore() {
+        return arvore;
+    }
+
+    // Analisa as sub-rotinas do programa principal em paralelo no pool (so lendo de um BufferTokens)
+    public void setParalelo(ForkJoinPool pool) {
+        this.paralelo = pool;
+    }
+
+    // Analisa o programa com uma pilha propria no heap em vez da recursao (ver executaPilha): o
+    // aninhamento fica limitado pela memoria, nao pela pilha da thread. Mesmo resultado e mesmas
+    // mensagens da descida recursiva.
+    public void setPilhaExplicita(boolean pilhaExplicita) {
+        this.pilhaExplicita = pilhaExplicita;
+    }
+
+    // Grava cada uso resolvido de um simbolo (leitura, escrita ou chamada) no indice. As sub-rotinas
+    // nao sao analisadas em paralelo enquanto o indice esta ligado: ele e preenchido em ordem de texto.
+    public void setReferencias(IndiceReferencias referencias) {
+        this.referencias = referencias;
+    }
+
+    public IndiceReferencias getReferencias() {
+        return referencias;
+    }
+
+    // Registra cada sub-rotina e cada 'inicio ... fim' analisado (para a reanalise incremental)
+    void setRegioes(RegioesAnalise regioes) {
+        this.regioes = regioes;
+    }
+
+    // Indice do token atual no fluxo
+    int indiceToken() {
+        return tokensLidos - 1;
+    }
+
     private void proximoToken() throws IOException {
-        tokenAtual = lexico.pegaToken();
+        tokensLidos++;
+        if (buffer != null) {
+            // o ultimo token do buffer e sempre sfim_arquivo: fica parado nele
+            if (indiceAtual < buffer.tamanho() - 1)
+                indiceAtual++;
+            simboloAtual = buffer.simbolo(indiceAtual);
+            posicaoAtual = buffer.inicio(indiceAtual);
+            idNomeAtual = buffer.idNome(indiceAtual);
+        } else if (canal != null) {
+            while (posLote == lote.quantidade) {
+                if (lote.fim) {
+                    if (lote.erro != null) CanalTokens.relanca(lote);
+                    return; // ja esta no sfim_arquivo: fica parado nele
+                }
+                lote = canal.proximoLote(lote);
+                posLote = 0;
+            }
+            simboloAtual = TokenSimbolo.VALORES[lote.simbolos[posLote]];
+            posicaoAtual = lote.inicios[posLote];
+            idNomeAtual = lote.idsNome[posLote];
+            posLote++;
+        } else {
+            simboloAtual = lexico.avancaToken();
+            posicaoAtual = lexico.inicioToken();
+            idNomeAtual = lexico.idNomeToken();
+        }
+    }
+
+    private String lexemaAtual() {
+        return idNomeAtual >= 0 ? tabela.getNomes().nome(idNomeAtual) : simboloAtual.lexemaFixo;
+    }
+
+    // Visao do token atual como objeto, para depuracao
+    public Token getTokenAtual() {
+        return new Token(simboloAtual, lexemaAtual(), linhas.linha(posicaoAtual), idNomeAtual);
+    }
+
+    // Construcao da arvore: nao fazem nada quando a arvore esta desligada. Os nos guardam a linha,
+    // calculada pela posicao do token.
+    private int abreNo(TipoNo tipo, int valor) {
+        return abreNo(tipo, valor, tokensLidos - 1, posicaoAtual);
+    }
+
+    private int abreNo(TipoNo tipo, int valor, int token, int posicao) {
+        return arvore == null ? -1 : arvore.abre(tipo, token, valor, linhas.linha(posicao));
+    }
+
+    private int folhaNo(TipoNo tipo, int valor) {
+        return folhaNo(tipo, valor, tokensLidos - 1, posicaoAtual);
+    }
+
+    private int folhaNo(TipoNo tipo, int valor, int token, int posicao) {
+        return arvore == null ? -1 : arvore.folha(tipo, token, valor, linhas.linha(posicao));
+    }
+
+    private void fechaNo() {
+        if (arvore != null) arvore.fecha();
+    }
+
+    private int marcaNo() {
+        return arvore == null ? -1 : arvore.marca();
+    }
+
+    private void envolveNo(int marca, TipoNo tipo, int valor) {
+        if (arvore != null) arvore.envolve(marca, tipo, tokensLidos - 1, valor, linhas.linha(posicaoAtual));
+    }
+
+    private int abreRegiao() {
+        return regioes == null ? -1
+                : regioes.abre(tokensLidos - 1, tabela.tamanho(), tabela.getEnderecoAtual(), tabela.getNivelAtual());
+    }
+
+    // O corpo da regiao comeca no token atual (o que vem antes e cabecalho)
+    private void marcaCorpoRegiao(int regiao) {
+        if (regioes != null) regioes.corpo(regiao, tokensLidos - 1);
+    }
+
+    private void fechaRegiao(int regiao, int no) {
+        if (regioes != null) regioes.fecha(regiao, tokensLidos - 1, tabela.tamanho(), tabela.getEnderecoAtual(), no);
+    }
+
+    private void ligaSimbolo(int no, Simbolo s) {
+        if (arvore != null && s != null) arvore.defineSimbolo(no, s.getIndice());
+    }
+
+    // Simbolo recem inserido na tabela
+    private Simbolo ultimoSimbolo() {
+        return tabela.get(tabela.tamanho() - 1);
+    }
+
+    // Com setReferencias: declaracao do simbolo recem inserido, com o nome na 'posicao'
+    private void declaraNoIndice(int posicao, boolean variavel) {
+        if (referencias != null) referencias.declara(tabela.tamanho() - 1, posicao, variavel);
+    }
+
+    // Com setReferencias: uso de 's' no token da 'posicao'; 's' ja foi conferido (declarado e do
+    // tipo que o uso pede), entao o indice nunca ve um uso invalido
+    private void registraUso(Simbolo s, int posicao, byte tipo) {
+        if (referencias != null) referencias.registra(s.getIndice(), posicao, tipo, rotinaAtual);
+    }
+
+    // Leitura de 's' numa expressao ou no 'escreva': o nome de uma funcao ali e uma chamada
+    private void registraLeitura(Simbolo s, int posicao) {
+        if (referencias != null)
+            registraUso(s, posicao, referencias.ehVariavel(s.getIndice())
+                    ? IndiceReferencias.LEITURA : IndiceReferencias.CHAMADA);
     }
 
     private void erro(String msg) {
-        if (tokenAtual != null)
-            throw new RuntimeException("Erro sintatico na linha " + tokenAtual.getLinha() + ": " + msg);
+        if (simboloAtual != null)
+            throw new RuntimeException("Erro sintatico na " + linhas.descreve(posicaoAtual) + ": " + msg);
         else
             throw new RuntimeException("Erro sintatico: " + msg + " (Fim inesperado do arquivo)");
     }
 
+    private void erroSemantico(int posicao, String msg) {
+        throw new RuntimeException("Erro semantico na " + linhas.descreve(posicao) + ": " + msg);
+    }
+
+    // Operando de 'operador' (na posicao 'posicao') precisa ser do tipo 'esperado'
+    private void exigeTipo(TipoSimbolo tipo, TipoSimbolo esperado, TokenSimbolo operador, int posicao) {
+        if (tipo != esperado)
+            erroSemantico(posicao, "Operador '" + operador.lexemaFixo + "' espera " + esperado.nome
+                    + ", encontrado " + tipo.nome);
+    }
+
     // <programa> ::= programa <identificador> ; <bloco> .
     public void analisaPrograma() throws IOException {
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sprograma)
+        if (simboloAtual != TokenSimbolo.sprograma)
             erro("Palavra-chave 'programa' esperada");
 
         proximoToken();
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+        if (simboloAtual != TokenSimbolo.sidentificador)
             erro("Identificador esperado apos 'programa'");
 
-        tabela.inserir(tokenAtual.getLexema(), tabela.getNivelAtual(), "programa");
+        tabela.inserir(idNomeAtual, tabela.getNivelAtual(), TipoSimbolo.PROGRAMA);
+        ligaSimbolo(abreNo(TipoNo.PROGRAMA, idNomeAtual), ultimoSimbolo());
+        declaraNoIndice(posicaoAtual, false);
+        rotinaAtual = tabela.tamanho() - 1;
         proximoToken();
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sponto_virgula)
+        if (simboloAtual != TokenSimbolo.sponto_virgula)
             erro("Ponto e virgula esperado apos identificador do programa");
 
         proximoToken();
-        analisaBloco();
+        if (pilhaExplicita)
+            executaPilha(BLOCO);
+        else
+            analisaBloco();
 
         // verificação do ponto final
-        if (tokenAtual.getSimbolo() == TokenSimbolo.sponto_virgula)
+        if (simboloAtual == TokenSimbolo.sponto_virgula)
             erro("Ponto e virgula nao permitido apos 'fim' do programa principal");
 
-        if (tokenAtual.getSimbolo() == TokenSimbolo.sponto) {
+        if (simboloAtual == TokenSimbolo.sponto) {
+            fechaNo();
             proximoToken();
-            System.out.println("Programa valido!");
+            saida.println("Programa valido!");
         } else {
             erro("Ponto final esperado apos 'fim' do programa principal");
         }
@@ -57,22 +309,33 @@ public class AnalisadorSintatico {
 
     // <bloco> ::= [<etapa de declaracao de variaveis>] [<etapa de declaracao de sub-rotinas>] <comandos>
     private void analisaBloco() throws IOException {
-        tabela.entrarEscopo();
-        analisaEtVariaveis();
+        abreBloco();
         analisaSubrotinas();
         analisaComandos();
+        fechaBloco();
+    }
+
+    // Abre o escopo e o no do bloco e analisa as variaveis
+    private void abreBloco() throws IOException {
+        tabela.entrarEscopo();
+        abreNo(TipoNo.BLOCO, -1);
+        analisaEtVariaveis();
+    }
+
+    private void fechaBloco() {
+        fechaNo();
         tabela.sairEscopo();
     }
 
     // <etapa de declaracao de variaveis> ::= var <declaracao de variaveis> ; {<declaracao de variaveis>;}
     private void analisaEtVariaveis() throws IOException {
-        if (tokenAtual.getSimbolo() == TokenSimbolo.svar) {
+        if (simboloAtual == TokenSimbolo.svar) {
             proximoToken();
             analisaDeclaracaoVariaveis();
 
-            while (tokenAtual.getSimbolo() == TokenSimbolo.sponto_virgula) {
+            while (simboloAtual == TokenSimbolo.sponto_virgula) {
                 proximoToken();
-                if (tokenAtual.getSimbolo() == TokenSimbolo.sidentificador)
+                if (simboloAtual == TokenSimbolo.sidentificador)
                     analisaDeclaracaoVariaveis();
                 else
                     break;
@@ -81,124 +344,206 @@ public class AnalisadorSintatico {
     }
 
     private void analisaDeclaracaoVariaveis() throws IOException {
-        List<String> ids = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        List<Integer> posicoes = new ArrayList<>();
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+        if (simboloAtual != TokenSimbolo.sidentificador)
             erro("Identificador esperado na declaracao de variaveis");
 
-        ids.add(tokenAtual.getLexema());
+        int declaracao = abreNo(TipoNo.DECLARACAO, -1);
+        ids.add(idNomeAtual);
+        posicoes.add(posicaoAtual);
+        folhaNo(TipoNo.VARIAVEL, idNomeAtual);
         proximoToken();
 
-        while (tokenAtual.getSimbolo() == TokenSimbolo.svirgula) {
+        while (simboloAtual == TokenSimbolo.svirgula) {
             proximoToken();
-            if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+            if (simboloAtual != TokenSimbolo.sidentificador)
                 erro("Identificador esperado apos virgula");
-            ids.add(tokenAtual.getLexema());
+            ids.add(idNomeAtual);
+            posicoes.add(posicaoAtual);
+            folhaNo(TipoNo.VARIAVEL, idNomeAtual);
             proximoToken();
         }
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sdois_pontos)
+        if (simboloAtual != TokenSimbolo.sdois_pontos)
             erro("Dois pontos esperado apos lista de identificadores");
 
         proximoToken();
-        String tipo = analisaTipo();
+        TokenSimbolo simboloTipo = simboloAtual;
+        TipoSimbolo tipo = analisaTipo();
 
-        for (String id : ids) {
+        for (int i = 0; i < ids.size(); i++) {
+            int id = ids.get(i);
             if (!tabela.inserir(id, tabela.getNivelAtual(), tipo))
-                erro("Identificador '" + id + "' ja declarado neste escopo");
+                erro("Identificador '" + tabela.getNomes().nome(id) + "' ja declarado neste escopo");
+            declaraNoIndice(posicoes.get(i), true);
         }
+        if (arvore != null) {
+            // as folhas VARIAVEL sao os filhos da declaracao, na mesma ordem das insercoes
+            arvore.defineValor(declaracao, simboloTipo.ordinal());
+            int indice = tabela.tamanho() - ids.size();
+            for (int f = arvore.primeiroFilho(declaracao); f >= 0; f = arvore.proximoIrmao(f))
+                arvore.defineSimbolo(f, indice++);
+        }
+        fechaNo();
     }
 
-    private String analisaTipo() throws IOException {
-        if (tokenAtual.getSimbolo() == TokenSimbolo.sinteiro ||
-            tokenAtual.getSimbolo() == TokenSimbolo.sbooleano) {
-            String tipo = tokenAtual.getLexema();
-            proximoToken();
-            return tipo;
-        } else {
+    private TipoSimbolo analisaTipo() throws IOException {
+        TipoSimbolo tipo = TipoSimbolo.doToken(simboloAtual);
+        if (tipo == null)
             erro("Tipo esperado (inteiro ou booleano)");
-            return null;
-        }
+        proximoToken();
+        return tipo;
     }
 
     // <etapa de declaracao de sub-rotinas> ::= (<declaracao de procedimento>; | <declaracao de funcao>;){...}
     private void analisaSubrotinas() throws IOException {
-        while (tokenAtual.getSimbolo() == TokenSimbolo.sprocedimento || tokenAtual.getSimbolo() == TokenSimbolo.sfuncao) {
-            if (tokenAtual.getSimbolo() == TokenSimbolo.sprocedimento)
+        subrotinasEmParalelo();
+        while (simboloAtual == TokenSimbolo.sprocedimento || simboloAtual == TokenSimbolo.sfuncao) {
+            if (simboloAtual == TokenSimbolo.sprocedimento)
                 analisaDeclaracaoProcedimento();
             else
                 analisaDeclaracaoFuncao();
+            fimDeclaracao();
+        }
+    }
 
-            if (tokenAtual.getSimbolo() != TokenSimbolo.sponto_virgula)
-                erro("Ponto e virgula esperado apos declaracao de sub-rotina");
-            proximoToken();
+    // Com setParalelo, as sub-rotinas do programa principal que der para analisar em paralelo
+    private void subrotinasEmParalelo() throws IOException {
+        if (paralelo != null && buffer != null && referencias == null && tabela.getNivelAtual() == 1) {
+            int continua = new AnalisadorParalelo(buffer, tabela, arvore, paralelo).analisa(indiceAtual);
+            if (continua != indiceAtual) {
+                indiceAtual = continua - 1;
+                tokensLidos = continua;
+                proximoToken();
+            }
         }
     }
 
+    private void fimDeclaracao() throws IOException {
+        if (simboloAtual != TokenSimbolo.sponto_virgula)
+            erro("Ponto e virgula esperado apos declaracao de sub-rotina");
+        proximoToken();
+    }
+
     private void analisaDeclaracaoProcedimento() throws IOException {
+        int regiao = abreRegiao();
+        int rotina = rotinaAtual;
+        int procedimento = cabecalhoProcedimento(regiao);
+        analisaBloco();
+        rotinaAtual = rotina;
+        fechaNo();
+        fechaRegiao(regiao, procedimento);
+    }
+
+    private void analisaDeclaracaoFuncao() throws IOException {
+        int regiao = abreRegiao();
+        int rotina = rotinaAtual;
+        int funcao = cabecalhoFuncao(regiao);
+        analisaBloco();
+        rotinaAtual = rotina;
+        fechaNo();
+        fechaRegiao(regiao, funcao);
+    }
+
+    // 'procedimento <identificador> ;' ate o corpo, que passa a ser a rotinaAtual; retorna o no aberto
+    // da declaracao
+    private int cabecalhoProcedimento(int regiao) throws IOException {
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+        if (simboloAtual != TokenSimbolo.sidentificador)
             erro("Identificador esperado apos 'procedimento'");
 
-        if (!tabela.inserir(tokenAtual.getLexema(), tabela.getNivelAtual(), "procedimento"))
-            erro("Procedimento '" + tokenAtual.getLexema() + "' ja declarado");
+        if (!tabela.inserir(idNomeAtual, tabela.getNivelAtual(), TipoSimbolo.PROCEDIMENTO))
+            erro("Procedimento '" + lexemaAtual() + "' ja declarado");
+        int procedimento = abreNo(TipoNo.PROCEDIMENTO, idNomeAtual);
+        ligaSimbolo(procedimento, ultimoSimbolo());
+        declaraNoIndice(posicaoAtual, false);
+        rotinaAtual = tabela.tamanho() - 1;
 
         proximoToken();
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sponto_virgula)
+        if (simboloAtual != TokenSimbolo.sponto_virgula)
             erro("Ponto e virgula esperado apos cabecalho de procedimento");
 
         proximoToken();
-        analisaBloco();
+        marcaCorpoRegiao(regiao);
+        return procedimento;
     }
 
-    private void analisaDeclaracaoFuncao() throws IOException {
+    // 'funcao <identificador> : <tipo> ;' ate o corpo, que passa a ser a rotinaAtual; retorna o no
+    // aberto da declaracao
+    private int cabecalhoFuncao(int regiao) throws IOException {
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+        if (simboloAtual != TokenSimbolo.sidentificador)
             erro("Identificador esperado apos 'funcao'");
 
-        String nome = tokenAtual.getLexema();
+        String nome = lexemaAtual();
+        int idNome = idNomeAtual;
+        int posicaoNome = posicaoAtual;
+        int funcao = abreNo(TipoNo.FUNCAO, idNome);
         proximoToken();
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sdois_pontos)
+        if (simboloAtual != TokenSimbolo.sdois_pontos)
             erro("':' esperado apos nome da funcao");
 
         proximoToken();
-        String tipo = analisaTipo();
+        TipoSimbolo tipo = analisaTipo();
 
-        if (!tabela.inserir(nome, tabela.getNivelAtual(), tipo))
+        if (!tabela.inserir(idNome, tabela.getNivelAtual(), tipo))
             erro("Funcao '" + nome + "' ja declarada");
+        ligaSimbolo(funcao, ultimoSimbolo());
+        declaraNoIndice(posicaoNome, false);
+        rotinaAtual = tabela.tamanho() - 1;
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sponto_virgula)
+        if (simboloAtual != TokenSimbolo.sponto_virgula)
             erro("Ponto e virgula esperado apos tipo da funcao");
 
         proximoToken();
-        analisaBloco();
+        marcaCorpoRegiao(regiao);
+        return funcao;
     }
 
     // <comandos> ::= inicio <comando> {; <comando>} [;] fim
     private void analisaComandos() throws IOException {
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sinicio)
+        if (simboloAtual != TokenSimbolo.sinicio)
             erro("'inicio' esperado");
 
+        int regiao = abreRegiao();
+        int comandos = abreNo(TipoNo.COMANDOS, -1);
         proximoToken();
         analisaComando();
 
-        while (tokenAtual.getSimbolo() == TokenSimbolo.sponto_virgula) {
+        while (simboloAtual == TokenSimbolo.sponto_virgula) {
             proximoToken();
-            if (tokenAtual.getSimbolo() == TokenSimbolo.sfim)
+            if (simboloAtual == TokenSimbolo.sfim)
                 break;
             analisaComando();
         }
+        fimComandos(regiao, comandos);
+    }
 
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sfim)
+    private void fimComandos(int regiao, int comandos) throws IOException {
+        if (simboloAtual != TokenSimbolo.sfim)
             erro("'fim' esperado");
 
+        fechaNo();
         proximoToken(); // consome fim
+        fechaRegiao(regiao, comandos);
+    }
+
+    // Reanalisa a regiao que comeca no token atual: uma declaracao de sub-rotina ou um 'inicio ... fim'
+    void analisaRegiao() throws IOException {
+        if (simboloAtual == TokenSimbolo.sprocedimento)
+            analisaDeclaracaoProcedimento();
+        else if (simboloAtual == TokenSimbolo.sfuncao)
+            analisaDeclaracaoFuncao();
+        else
+            analisaComandos();
     }
 
     private void analisaComando() throws IOException {
-        switch (tokenAtual.getSimbolo()) {
+        switch (simboloAtual) {
             case sidentificador:
                 analisaAtribOuChamada();
                 break;
@@ -224,196 +569,495 @@ public class AnalisadorSintatico {
 
     // <atribuição_chprocedimento> ::= <identificador> := <expressao> | <identificador>
     private void analisaAtribOuChamada() throws IOException {
-        Simbolo s = tabela.buscar(tokenAtual.getLexema());
+        Simbolo s = inicioAtribOuChamada();
+        if (s == null) return;
+        int posicaoAtribuicao = posicaoAtual;
+        proximoToken();
+        fimAtribuicao(s, analisaExpressao(), posicaoAtribuicao);
+    }
+
+    // Ate o ':=' (exclusive) de uma atribuicao, que fica com o no aberto: retorna o simbolo atribuido.
+    // Numa chamada de procedimento analisa tudo e retorna null.
+    private Simbolo inicioAtribOuChamada() throws IOException {
+        Simbolo s = tabela.buscar(idNomeAtual);
         if (s == null)
-            erro("Identificador '" + tokenAtual.getLexema() + "' nao declarado");
+            erro("Identificador '" + lexemaAtual() + "' nao declarado");
 
-        String nome = tokenAtual.getLexema();
+        String nome = lexemaAtual();
+        int idNome = idNomeAtual;
+        int token = tokensLidos - 1;
+        int posicao = posicaoAtual;
         proximoToken();
 
-        if (tokenAtual.getSimbolo() == TokenSimbolo.satribuicao) {
-            if (s.getTipo().equals("procedimento") || s.getTipo().equals("programa"))
-                erro("Nao e possivel atribuir a '" + nome + "' (tipo " + s.getTipo() + ")");
-            proximoToken();
-            analisaExpressaoComTipo();
-        } else {
-            // chamada simples de procedimento (sem parenteses)
-            if (!s.getTipo().equals("procedimento"))
-                erro("Chamada invalida: '" + nome + "' nao e um procedimento");
+        if (simboloAtual == TokenSimbolo.satribuicao) {
+            if (!s.getTipo().ehValor())
+                erro("Nao e possivel atribuir a '" + nome + "' (tipo " + s.getTipo().nome + ")");
+            ligaSimbolo(abreNo(TipoNo.ATRIBUICAO, idNome, token, posicao), s);
+            registraUso(s, posicao, IndiceReferencias.ESCRITA);
+            return s;
         }
+        // chamada simples de procedimento (sem parenteses)
+        if (s.getTipo() != TipoSimbolo.PROCEDIMENTO)
+            erro("Chamada invalida: '" + nome + "' nao e um procedimento");
+        ligaSimbolo(folhaNo(TipoNo.CHAMADA, idNome, token, posicao), s);
+        registraUso(s, posicao, IndiceReferencias.CHAMADA);
+        return null;
+    }
+
+    // Expressao atribuida a 's' (o ':=' estava em 'posicao') ja analisada: confere o tipo e fecha o no
+    private void fimAtribuicao(Simbolo s, TipoSimbolo tipo, int posicao) {
+        if (tipo != s.getTipo())
+            erroSemantico(posicao, "Atribuicao de " + tipo.nome + " a '" + s.getNome() + "' ("
+                    + s.getTipo().nome + ")");
+        fechaNo();
     }
 
     private void analisaSe() throws IOException {
+        abreNo(TipoNo.SE, -1);
+        int posicao = posicaoAtual;
         proximoToken();
-        analisaExpressaoComTipo();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sentao)
-            erro("'entao' esperado");
-        proximoToken();
+        condicaoSe(analisaExpressao(), posicao);
         analisaComando();
-        if (tokenAtual.getSimbolo() == TokenSimbolo.ssenao) {
+        if (simboloAtual == TokenSimbolo.ssenao) {
             proximoToken();
             analisaComando();
         }
+        fechaNo();
+    }
+
+    // Condicao do 'se' (em 'posicao') ja analisada, do tipo 'tipo': confere e consome o 'entao'
+    private void condicaoSe(TipoSimbolo tipo, int posicao) throws IOException {
+        if (tipo != TipoSimbolo.BOOLEANO)
+            erroSemantico(posicao, "Condicao do 'se' precisa ser booleana");
+        if (simboloAtual != TokenSimbolo.sentao)
+            erro("'entao' esperado");
+        proximoToken();
     }
 
     private void analisaEnquanto() throws IOException {
+        abreNo(TipoNo.ENQUANTO, -1);
+        int posicao = posicaoAtual;
         proximoToken();
-        analisaExpressaoComTipo();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sfaca)
+        condicaoEnquanto(analisaExpressao(), posicao);
+        analisaComando();
+        fechaNo();
+    }
+
+    private void condicaoEnquanto(TipoSimbolo tipo, int posicao) throws IOException {
+        if (tipo != TipoSimbolo.BOOLEANO)
+            erroSemantico(posicao, "Condicao do 'enquanto' precisa ser booleana");
+        if (simboloAtual != TokenSimbolo.sfaca)
             erro("'faca' esperado apos expressao do 'enquanto'");
         proximoToken();
-        analisaComando();
     }
 
     private void analisaLeia() throws IOException {
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sabre_parenteses)
+        if (simboloAtual != TokenSimbolo.sabre_parenteses)
             erro("'(' esperado apos 'leia'");
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+        if (simboloAtual != TokenSimbolo.sidentificador)
             erro("Identificador esperado em 'leia'");
+        Simbolo s = alvoEntradaSaida("leia");
+        if (s.getTipo() != TipoSimbolo.INTEIRO)
+            erroSemantico(posicaoAtual, "'leia' so le inteiro: '" + lexemaAtual() + "' e " + s.getTipo().nome);
+        // so um alvo ja validado entra na arvore e no indice
+        ligaSimbolo(folhaNo(TipoNo.LEIA, idNomeAtual), s);
+        registraUso(s, posicaoAtual, IndiceReferencias.ESCRITA);
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sfecha_parenteses)
+        if (simboloAtual != TokenSimbolo.sfecha_parenteses)
             erro("')' esperado apos identificador em 'leia'");
         proximoToken();
     }
 
     private void analisaEscreva() throws IOException {
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sabre_parenteses)
+        if (simboloAtual != TokenSimbolo.sabre_parenteses)
             erro("'(' esperado apos 'escreva'");
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sidentificador)
+        if (simboloAtual != TokenSimbolo.sidentificador)
             erro("Identificador esperado em 'escreva'");
+        Simbolo s = alvoEntradaSaida("escreva");
+        ligaSimbolo(folhaNo(TipoNo.ESCREVA, idNomeAtual), s);
+        registraLeitura(s, posicaoAtual);
         proximoToken();
-        if (tokenAtual.getSimbolo() != TokenSimbolo.sfecha_parenteses)
+        if (simboloAtual != TokenSimbolo.sfecha_parenteses)
             erro("')' esperado apos identificador em 'escreva'");
         proximoToken();
     }
 
-    // EXPRESSOES
-    private String analisaExpressaoComTipo() throws IOException {
-        String tipo1 = analisaExpressaoSimplesComTipo();
-        if (tokenAtual.getSimbolo() == TokenSimbolo.sigual || tokenAtual.getSimbolo() == TokenSimbolo.sdiferente ||
-            tokenAtual.getSimbolo() == TokenSimbolo.smaior || tokenAtual.getSimbolo() == TokenSimbolo.smenor ||
-            tokenAtual.getSimbolo() == TokenSimbolo.smaior_ig || tokenAtual.getSimbolo() == TokenSimbolo.smenor_ig) {
-            proximoToken();
-            analisaExpressaoSimplesComTipo();
-            return "booleano";
-        }
-        return tipo1;
+    // Identificador entre os parenteses de 'leia'/'escreva': precisa estar declarado e guardar um
+    // valor (variavel, ou o resultado de uma funcao, como no lado esquerdo de ':=')
+    private Simbolo alvoEntradaSaida(String comando) {
+        Simbolo s = tabela.buscar(idNomeAtual);
+        if (s == null)
+            erro("Identificador '" + lexemaAtual() + "' nao declarado");
+        if (!s.getTipo().ehValor())
+            erroSemantico(posicaoAtual, "'" + lexemaAtual() + "' nao pode ser usado em '" + comando + "' (tipo "
+                    + s.getTipo().nome + ")");
+        return s;
     }
 
-    private String analisaExpressaoSimplesComTipo() throws IOException {
-        if (tokenAtual.getSimbolo() == TokenSimbolo.smais || tokenAtual.getSimbolo() == TokenSimbolo.smenos)
+    // EXPRESSOES: precedencia por escalada (Pratt). analisaExpressao(minimo) analisa um operando e
+    // depois todo operador binario com forca de ligacao >= minimo; o operando direito e analisado
+    // com forca + 1 (associativo a esquerda). Os relacionais nao associam: 'a < b < c' nao e expressao.
+    // Sinal (+/-) so vale no inicio de uma expressao simples e se aplica ao termo; 'nao' ao fator.
+    private TipoSimbolo analisaExpressao() throws IOException {
+        return analisaExpressao(RELACIONAL);
+    }
+
+    private TipoSimbolo analisaExpressao(int minimo) throws IOException {
+        int marca = marcaNo();
+        TipoSimbolo tipo;
+        if (minimo <= ADITIVO && SINAIS.contains(simboloAtual)) {
+            TokenSimbolo operador = simboloAtual;
+            int posicao = posicaoAtual;
+            abreNo(TipoNo.UNARIO, operador.ordinal());
             proximoToken();
-        analisaTermoComTipo();
-        while (tokenAtual.getSimbolo() == TokenSimbolo.smais ||
-               tokenAtual.getSimbolo() == TokenSimbolo.smenos ||
-               tokenAtual.getSimbolo() == TokenSimbolo.sou) {
+            tipo = analisaExpressao(MULTIPLICATIVO);
+            exigeTipo(tipo, TipoSimbolo.INTEIRO, operador, posicao);
+            fechaNo();
+        } else {
+            tipo = analisaFator();
+        }
+        int ligacao;
+        while ((ligacao = LIGACAO[simboloAtual.ordinal()]) >= minimo) {
+            TokenSimbolo operador = simboloAtual;
+            int posicao = posicaoAtual;
+            TipoSimbolo operando = OPERANDO[operador.ordinal()];
+            if (operando != null) exigeTipo(tipo, operando, operador, posicao);
+            envolveNo(marca, TipoNo.BINARIO, operador.ordinal());
             proximoToken();
-            analisaTermoComTipo();
+            exigeTipo(analisaExpressao(ligacao + 1), operando != null ? operando : tipo, operador, posicao);
+            fechaNo();
+            tipo = RESULTADO[operador.ordinal()];
+            if (ligacao == RELACIONAL) minimo = RELACIONAL + 1;
         }
-        return "inteiro"; // simplificado
+        return tipo;
     }
 
-    private String analisaTermoComTipo() throws IOException {
-        analisaFatorComTipo();
-        while (tokenAtual.getSimbolo() == TokenSimbolo.smultiplicacao ||
-               tokenAtual.getSimbolo() == TokenSimbolo.sdiv ||
-               tokenAtual.getSimbolo() == TokenSimbolo.se) {
-            proximoToken();
-            analisaFatorComTipo();
+    private TipoSimbolo analisaFator() throws IOException {
+        switch (simboloAtual) {
+            case snao: {
+                int posicao = posicaoAtual;
+                abreNo(TipoNo.UNARIO, simboloAtual.ordinal());
+                proximoToken();
+                exigeTipo(analisaFator(), TipoSimbolo.BOOLEANO, TokenSimbolo.snao, posicao);
+                fechaNo();
+                return TipoSimbolo.BOOLEANO;
+            }
+            case sabre_parenteses: {
+                proximoToken();
+                TipoSimbolo tipo = analisaExpressao();
+                fechaParenteses();
+                return tipo;
+            }
+            default:
+                return analisaOperando();
         }
-        return "inteiro";
     }
 
-    private String analisaFatorComTipo() throws IOException {
-        switch (tokenAtual.getSimbolo()) {
-            case sidentificador:
+    private void fechaParenteses() throws IOException {
+        if (simboloAtual != TokenSimbolo.sfecha_parenteses)
+            erro("')' esperado");
+        proximoToken();
+    }
+
+    // Fator sem recursao: identificador, numero ou constante booleana
+    private TipoSimbolo analisaOperando() throws IOException {
+        switch (simboloAtual) {
+            case sidentificador: {
+                Simbolo s = tabela.buscar(idNomeAtual);
+                if (s == null)
+                    erro("Identificador '" + lexemaAtual() + "' nao declarado");
+                if (!s.getTipo().ehValor())
+                    erroSemantico(posicaoAtual, "'" + lexemaAtual() + "' nao pode ser usado em expressao (tipo "
+                            + s.getTipo().nome + ")");
+                ligaSimbolo(folhaNo(TipoNo.IDENTIFICADOR, idNomeAtual), s);
+                registraLeitura(s, posicaoAtual);
                 proximoToken();
-                return "inteiro";
-            case snumero:
+                return s.getTipo();
+            }
+            case snumero: {
+                int valor = valorNumero(); // o intervalo vale em todo modo, com ou sem arvore
+                if (arvore != null)
+                    folhaNo(TipoNo.NUMERO, valor);
                 proximoToken();
-                return "inteiro";
+                return TipoSimbolo.INTEIRO;
+            }
             case sverdadeiro:
             case sfalso:
+                folhaNo(TipoNo.BOOLEANO, simboloAtual == TokenSimbolo.sverdadeiro ? 1 : 0);
                 proximoToken();
-                return "booleano";
-            case snao:
-                proximoToken();
-                analisaFatorComTipo();
-                return "booleano";
-            case sabre_parenteses:
-                proximoToken();
-                analisaExpressaoComTipo();
-                if (tokenAtual.getSimbolo() != TokenSimbolo.sfecha_parenteses)
-                    erro("')' esperado");
-                proximoToken();
-                return "inteiro";
+                return TipoSimbolo.BOOLEANO;
             default:
                 erro("Fator invalido");
                 return null;
         }
     }
 
+    // PILHA EXPLICITA (setPilhaExplicita): a mesma gramatica, como uma maquina de estados. Cada
+    // metodo recursivo vira um estado de inicio e, em cada ponto em que ele chamava outro, um estado
+    // de continuacao; em vez de chamar, o estado empilha um quadro com a continuacao e as variaveis
+    // locais que ela ainda vai usar e passa para o estado de inicio do chamado. Quando o chamado
+    // termina, o quadro do topo e desempilhado e a continuacao segue. O que nao recursa (variaveis,
+    // cabecalhos, leia, escreva, operandos) e feito pelos mesmos metodos da descida recursiva, e o
+    // resto pelas mesmas partes (condicaoSe, fimAtribuicao, ...), entao as mensagens saem iguais e
+    // na mesma ordem. Registradores: 'minimo' e o argumento de analisaExpressao e 'tipo' o retorno.
+    // A reanalise incremental (analisaRegiao) continua recursiva.
+    private static final int FIM = 0;
+    // estados de inicio
+    private static final int BLOCO = 1, SUBROTINAS = 2, COMANDOS = 3, COMANDO = 4, EXPRESSAO = 5, FATOR = 6;
+    // continuacoes (argumentos do quadro entre parenteses)
+    private static final int DECLARACAO_FIM = 7;    // (regiao, no, rotina anterior)
+    private static final int BLOCO_FIM = 8;
+    private static final int COMANDOS_SEGUINTE = 9; // (regiao, no)
+    private static final int ATRIBUICAO_FIM = 10;   // (indice do simbolo, posicao do ':=')
+    private static final int SE_CONDICAO = 11;      // (posicao)
+    private static final int SE_ENTAO = 12;
+    private static final int ENQUANTO_CONDICAO = 13; // (posicao)
+    private static final int FECHA_NO = 14;
+    private static final int EXPRESSAO_SINAL = 15;  // (marca, minimo, operador, posicao)
+    private static final int EXPRESSAO_LACO = 16;   // (marca, minimo)
+    private static final int EXPRESSAO_DIREITO = 17; // (marca, minimo, operador, posicao, tipo esquerdo)
+    private static final int FATOR_NAO = 18;        // (posicao)
+    private static final int FATOR_PARENTESES = 19;
+    private static final int QUADRO = 6;            // estado + 5 argumentos
 
-    private void analisaExpressao() throws IOException {
-        analisaExpressaoSimples();
-        if (tokenAtual.getSimbolo() == TokenSimbolo.smaior || tokenAtual.getSimbolo() == TokenSimbolo.smaior_ig ||
-            tokenAtual.getSimbolo() == TokenSimbolo.sigual || tokenAtual.getSimbolo() == TokenSimbolo.smenor ||
-            tokenAtual.getSimbolo() == TokenSimbolo.smenor_ig || tokenAtual.getSimbolo() == TokenSimbolo.sdiferente) {
-            proximoToken();
-            analisaExpressaoSimples();
-        }
+    private void empilha(int estado, int a, int b, int c, int d, int e) {
+        if (pilha == null) pilha = new int[64 * QUADRO];
+        else if (topo == pilha.length) pilha = Arrays.copyOf(pilha, pilha.length * 2);
+        int[] p = pilha;
+        int t = topo;
+        p[t] = estado;
+        p[t + 1] = a;
+        p[t + 2] = b;
+        p[t + 3] = c;
+        p[t + 4] = d;
+        p[t + 5] = e;
+        topo = t + QUADRO;
     }
 
-    private void analisaExpressaoSimples() throws IOException {
-        if (tokenAtual.getSimbolo() == TokenSimbolo.smais || tokenAtual.getSimbolo() == TokenSimbolo.smenos) {
-            proximoToken();
-        }
-        analisaTermo();
-        while (tokenAtual.getSimbolo() == TokenSimbolo.smais || tokenAtual.getSimbolo() == TokenSimbolo.smenos ||
-               tokenAtual.getSimbolo() == TokenSimbolo.sou) {
-            proximoToken();
-            analisaTermo();
-        }
+    // Desempilha o quadro do topo e retorna a sua continuacao (FIM com a pilha vazia); os argumentos
+    // ficam em pilha[topo + 1 ...] ate o proximo empilha
+    private int retorna() {
+        if (topo == 0) return FIM;
+        topo -= QUADRO;
+        return pilha[topo];
     }
 
-    private void analisaTermo() throws IOException {
-        analisaFator();
-        while (tokenAtual.getSimbolo() == TokenSimbolo.smultiplicacao || tokenAtual.getSimbolo() == TokenSimbolo.sdiv ||
-               tokenAtual.getSimbolo() == TokenSimbolo.se) {
-            proximoToken();
-            analisaFator();
+    private void executaPilha(int estado) throws IOException {
+        topo = 0;
+        int minimo = RELACIONAL;
+        TipoSimbolo tipo = null;
+        while (estado != FIM) {
+            int[] p = pilha;
+            int q = topo; // argumentos da continuacao desempilhada em p[q + 1 ...]
+            switch (estado) {
+                case BLOCO:
+                    abreBloco();
+                    subrotinasEmParalelo();
+                    empilha(BLOCO_FIM, 0, 0, 0, 0, 0);
+                    estado = SUBROTINAS;
+                    break;
+                case SUBROTINAS:
+                    if (simboloAtual == TokenSimbolo.sprocedimento || simboloAtual == TokenSimbolo.sfuncao) {
+                        int regiao = abreRegiao();
+                        int rotina = rotinaAtual;
+                        int no = simboloAtual == TokenSimbolo.sprocedimento
+                                ? cabecalhoProcedimento(regiao) : cabecalhoFuncao(regiao);
+                        empilha(DECLARACAO_FIM, regiao, no, rotina, 0, 0);
+                        estado = BLOCO;
+                    } else {
+                        estado = COMANDOS; // BLOCO_FIM ja esta no topo
+                    }
+                    break;
+                case DECLARACAO_FIM:
+                    rotinaAtual = p[q + 3];
+                    fechaNo();
+                    fechaRegiao(p[q + 1], p[q + 2]);
+                    fimDeclaracao();
+                    estado = SUBROTINAS;
+                    break;
+                case BLOCO_FIM:
+                    fechaBloco();
+                    estado = retorna();
+                    break;
+                case COMANDOS: {
+                    if (simboloAtual != TokenSimbolo.sinicio)
+                        erro("'inicio' esperado");
+                    int regiao = abreRegiao();
+                    int no = abreNo(TipoNo.COMANDOS, -1);
+                    proximoToken();
+                    empilha(COMANDOS_SEGUINTE, regiao, no, 0, 0, 0);
+                    estado = COMANDO;
+                    break;
+                }
+                case COMANDOS_SEGUINTE: {
+                    int regiao = p[q + 1], no = p[q + 2];
+                    if (simboloAtual == TokenSimbolo.sponto_virgula) {
+                        proximoToken();
+                        if (simboloAtual != TokenSimbolo.sfim) {
+                            empilha(COMANDOS_SEGUINTE, regiao, no, 0, 0, 0);
+                            estado = COMANDO;
+                            break;
+                        }
+                    }
+                    fimComandos(regiao, no);
+                    estado = retorna();
+                    break;
+                }
+                case COMANDO:
+                    switch (simboloAtual) {
+                        case sidentificador: {
+                            Simbolo s = inicioAtribOuChamada();
+                            if (s == null) {
+                                estado = retorna();
+                                break;
+                            }
+                            empilha(ATRIBUICAO_FIM, s.getIndice(), posicaoAtual, 0, 0, 0);
+                            proximoToken();
+                            minimo = RELACIONAL;
+                            estado = EXPRESSAO;
+                            break;
+                        }
+                        case sse:
+                        case senquanto:
+                            abreNo(simboloAtual == TokenSimbolo.sse ? TipoNo.SE : TipoNo.ENQUANTO, -1);
+                            empilha(simboloAtual == TokenSimbolo.sse ? SE_CONDICAO : ENQUANTO_CONDICAO,
+                                    posicaoAtual, 0, 0, 0, 0);
+                            proximoToken();
+                            minimo = RELACIONAL;
+                            estado = EXPRESSAO;
+                            break;
+                        case sleia:
+                            analisaLeia();
+                            estado = retorna();
+                            break;
+                        case sescreva:
+                            analisaEscreva();
+                            estado = retorna();
+                            break;
+                        case sinicio:
+                            estado = COMANDOS;
+                            break;
+                        default:
+                            erro("Comando invalido");
+                    }
+                    break;
+                case ATRIBUICAO_FIM:
+                    fimAtribuicao(tabela.get(p[q + 1]), tipo, p[q + 2]);
+                    estado = retorna();
+                    break;
+                case SE_CONDICAO:
+                    condicaoSe(tipo, p[q + 1]);
+                    empilha(SE_ENTAO, 0, 0, 0, 0, 0);
+                    estado = COMANDO;
+                    break;
+                case SE_ENTAO:
+                    if (simboloAtual == TokenSimbolo.ssenao) {
+                        proximoToken();
+                        empilha(FECHA_NO, 0, 0, 0, 0, 0);
+                        estado = COMANDO;
+                    } else {
+                        fechaNo();
+                        estado = retorna();
+                    }
+                    break;
+                case ENQUANTO_CONDICAO:
+                    condicaoEnquanto(tipo, p[q + 1]);
+                    empilha(FECHA_NO, 0, 0, 0, 0, 0);
+                    estado = COMANDO;
+                    break;
+                case FECHA_NO:
+                    fechaNo();
+                    estado = retorna();
+                    break;
+                case EXPRESSAO: {
+                    int marca = marcaNo();
+                    if (minimo <= ADITIVO && SINAIS.contains(simboloAtual)) {
+                        empilha(EXPRESSAO_SINAL, marca, minimo, simboloAtual.ordinal(), posicaoAtual, 0);
+                        abreNo(TipoNo.UNARIO, simboloAtual.ordinal());
+                        proximoToken();
+                        minimo = MULTIPLICATIVO;
+                        estado = EXPRESSAO;
+                    } else {
+                        empilha(EXPRESSAO_LACO, marca, minimo, 0, 0, 0);
+                        estado = FATOR;
+                    }
+                    break;
+                }
+                case EXPRESSAO_SINAL:
+                    exigeTipo(tipo, TipoSimbolo.INTEIRO, TokenSimbolo.VALORES[p[q + 3]], p[q + 4]);
+                    fechaNo();
+                    estado = EXPRESSAO_LACO; // mesmo quadro: marca e minimo nas mesmas posicoes
+                    break;
+                case EXPRESSAO_LACO: {
+                    int marca = p[q + 1];
+                    minimo = p[q + 2];
+                    int ligacao = LIGACAO[simboloAtual.ordinal()];
+                    if (ligacao < minimo) {
+                        estado = retorna();
+                        break;
+                    }
+                    TokenSimbolo operador = simboloAtual;
+                    int posicao = posicaoAtual;
+                    TipoSimbolo operando = OPERANDO[operador.ordinal()];
+                    if (operando != null) exigeTipo(tipo, operando, operador, posicao);
+                    envolveNo(marca, TipoNo.BINARIO, operador.ordinal());
+                    empilha(EXPRESSAO_DIREITO, marca, minimo, operador.ordinal(), posicao, tipo.ordinal());
+                    proximoToken();
+                    minimo = ligacao + 1;
+                    estado = EXPRESSAO;
+                    break;
+                }
+                case EXPRESSAO_DIREITO: {
+                    TokenSimbolo operador = TokenSimbolo.VALORES[p[q + 3]];
+                    TipoSimbolo operando = OPERANDO[operador.ordinal()];
+                    exigeTipo(tipo, operando != null ? operando : TipoSimbolo.VALORES[p[q + 5]], operador, p[q + 4]);
+                    fechaNo();
+                    tipo = RESULTADO[operador.ordinal()];
+                    if (LIGACAO[operador.ordinal()] == RELACIONAL) p[q + 2] = RELACIONAL + 1;
+                    estado = EXPRESSAO_LACO;
+                    break;
+                }
+                case FATOR:
+                    if (simboloAtual == TokenSimbolo.snao) {
+                        empilha(FATOR_NAO, posicaoAtual, 0, 0, 0, 0);
+                        abreNo(TipoNo.UNARIO, simboloAtual.ordinal());
+                        proximoToken();
+                    } else if (simboloAtual == TokenSimbolo.sabre_parenteses) {
+                        empilha(FATOR_PARENTESES, 0, 0, 0, 0, 0);
+                        proximoToken();
+                        minimo = RELACIONAL;
+                        estado = EXPRESSAO;
+                    } else {
+                        tipo = analisaOperando();
+                        estado = retorna();
+                    }
+                    break;
+                case FATOR_NAO:
+                    exigeTipo(tipo, TipoSimbolo.BOOLEANO, TokenSimbolo.snao, p[q + 1]);
+                    fechaNo();
+                    tipo = TipoSimbolo.BOOLEANO;
+                    estado = retorna();
+                    break;
+                case FATOR_PARENTESES:
+                    fechaParenteses();
+                    estado = retorna();
+                    break;
+                default:
+                    throw new IllegalStateException("Estado invalido: " + estado);
+            }
         }
     }
 
-    private void analisaFator() throws IOException {
-        if (tokenAtual.getSimbolo() == TokenSimbolo.sidentificador) {
-            if (tabela.buscar(tokenAtual.getLexema()) != null) {
-                proximoToken();
-            } else {
-                erro("Identificador '" + tokenAtual.getLexema() + "' nao declarado");
-            }
-        } else if (tokenAtual.getSimbolo() == TokenSimbolo.snumero) {
-            proximoToken();
-        } else if (tokenAtual.getSimbolo() == TokenSimbolo.snao) {
-            proximoToken();
-            analisaFator();
-        } else if (tokenAtual.getSimbolo() == TokenSimbolo.sabre_parenteses) {
-            proximoToken();
-            analisaExpressao();
-            if (tokenAtual.getSimbolo() == TokenSimbolo.sfecha_parenteses) {
-                proximoToken();
-            } else {
-                erro("Parentese fechando esperado");
-            }
-        } else if (tokenAtual.getSimbolo() == TokenSimbolo.sverdadeiro || tokenAtual.getSimbolo() == TokenSimbolo.sfalso) {
-            proximoToken();
-        } else {
-            erro("Fator invalido");
+    private int valorNumero() {
+        try {
+            return Integer.parseInt(lexemaAtual());
+        } catch (NumberFormatException e) {
+            erro("Numero fora do intervalo: " + lexemaAtual());
+            return 0;
         }
     }
-
 }
\ No newline at end of file
@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Arquivo binario com a saida do lexico (--tokens), para ferramentas que nao querem reler o fonte
+// (formatadores, metricas, realce de sintaxe). Little-endian:
+//   cabecalho  MAGICO VERSAO TAMANHO_REGISTRO                                (3 ints)
+//   tokens     {simbolo:byte linha:int inicio:int idNome:int}*               (13 bytes cada)
+//   nomes      {comprimento:int bytes UTF-8}*  -- identificadores, indexados pelo idNome; -1 = lexema fixo
+//   literais   {comprimento:int bytes UTF-8}*  -- numeros e erros, idNome com o bit TabelaNomes.LITERAL
+//   rodape     posicaoNomes:long quantidadeNomes:int quantidadeLiterais:int MAGICO
+// O ultimo token e sempre sfim_arquivo. 'inicio' e a posicao (em caracteres) do token no fonte.
+// A gravacao passa token a token por um buffer de tamanho fixo, entao usa a mesma memoria para
+// qualquer tamanho de fonte (alem da TabelaNomes que o lexico ja mantem); os nomes vao no fim.
+public class ArquivoTokens {
+    static final int MAGICO = 0x5444504C; // "LPDT" em little-endian
+    static final int VERSAO = 2;
+    static final int TAMANHO_CABECALHO = 12;
+    static final int TAMANHO_REGISTRO = 13;
+    static final int TAMANHO_RODAPE = 20;
+    private static final int TAMANHO_BUFFER = 64 * 1024;
+
+    // Le o fonte inteiro pelo lexico e grava os tokens em 'destino'; retorna a quantidade de tokens
+    public static long gravar(AnalisadorLexico lexico, Path destino) throws IOException {
+        try (FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGICO).putInt(VERSAO).putInt(TAMANHO_REGISTRO);
+            long quantidade = 0;
+            TokenSimbolo simbolo;
+            do {
+                simbolo = lexico.avancaToken();
+                if (buffer.remaining() < TAMANHO_REGISTRO) esvazia(canal, buffer);
+                buffer.put((byte) simbolo.ordinal())
+                      .putInt(lexico.linhaToken())
+                      .putInt(lexico.inicioToken())
+                      .putInt(lexico.idNomeToken());
+                quantidade++;
+            } while (simbolo != TokenSimbolo.sfim_arquivo);
+
+            long posicaoNomes = TAMANHO_CABECALHO + quantidade * TAMANHO_REGISTRO;
+            TabelaNomes nomes = lexico.getNomes();
+            for (int id = 0; id < nomes.tamanho(); id++) gravaNome(canal, buffer, nomes.nome(id));
+            for (int id = 0; id < nomes.quantidadeLiterais(); id++)
+                gravaNome(canal, buffer, nomes.nome(TabelaNomes.LITERAL | id));
+            if (buffer.remaining() < TAMANHO_RODAPE) esvazia(canal, buffer);
+            buffer.putLong(posicaoNomes).putInt(nomes.tamanho()).putInt(nomes.quantidadeLiterais()).putInt(MAGICO);
+            esvazia(canal, buffer);
+            return quantidade;
+        }
+    }
+
+    private static void gravaNome(FileChannel canal, ByteBuffer buffer, String texto) throws IOException {
+        byte[] nome = texto.getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < 4) esvazia(canal, buffer);
+        buffer.putInt(nome.length);
+        for (int escritos = 0; escritos < nome.length; ) {
+            if (!buffer.hasRemaining()) esvazia(canal, buffer);
+            int n = Math.min(buffer.remaining(), nome.length - escritos);
+            buffer.put(nome, escritos, n);
+            escritos += n;
+        }
+    }
+
+    private static void esvazia(FileChannel canal, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) canal.write(buffer);
+        buffer.clear();
+    }
+
+    // Mapeia o arquivo para leitura; os tokens sao lidos direto do mapeamento
+    public static LeitorTokens abrir(Path arquivo) throws IOException {
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            long tamanho = canal.size();
+            if (tamanho > Integer.MAX_VALUE)
+                throw new IOException("Arquivo de tokens grande demais para mapear: " + arquivo);
+            // o mapeamento continua valido depois que o canal e fechado
+            MappedByteBuffer dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamanho);
+            dados.order(ByteOrder.LITTLE_ENDIAN);
+            return new LeitorTokens(dados, arquivo);
+        }
+    }
+
+    // Lista os tokens de um arquivo gravado com --tokens, no formato do Token.toString()
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Uso: java ArquivoTokens <arquivo.lpdt>");
+            return;
+        }
+        LeitorTokens leitor = abrir(Path.of(args[0]));
+        PrintStream out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        for (int i = 0; i < leitor.tamanho(); i++)
+            out.println("Token: " + leitor.simbolo(i) + " | Lexema: " + leitor.lexema(i) + " | Linha: " + leitor.linha(i));
+        out.flush();
+    }
+}
+
+// Acesso aleatorio aos tokens de um arquivo mapeado: cada campo e lido na hora do mapeamento, sem
+// copiar nada; so o lexema vira String (nomeBytes devolve os bytes do nome sem copiar)
+class LeitorTokens {
+    private final ByteBuffer dados;
+    private final int quantidade;
+    private final int[] posicoesNomes; // posicao do comprimento de cada nome, seguidos dos literais
+    private final int quantidadeNomes;
+
+    LeitorTokens(ByteBuffer dados, Path arquivo) throws IOException {
+        this.dados = dados;
+        int tamanho = dados.capacity();
+        if (tamanho < ArquivoTokens.TAMANHO_CABECALHO + ArquivoTokens.TAMANHO_RODAPE
+                || dados.getInt(0) != ArquivoTokens.MAGICO
+                || dados.getInt(tamanho - 4) != ArquivoTokens.MAGICO)
+            throw new IOException("Arquivo de tokens invalido: " + arquivo);
+        if (dados.getInt(4) != ArquivoTokens.VERSAO || dados.getInt(8) != ArquivoTokens.TAMANHO_REGISTRO)
+            throw new IOException("Versao do arquivo de tokens nao suportada: " + arquivo);
+        long posicaoNomes = dados.getLong(tamanho - ArquivoTokens.TAMANHO_RODAPE);
+        quantidadeNomes = dados.getInt(tamanho - 12);
+        int quantidadeLiterais = dados.getInt(tamanho - 8);
+        long registros = posicaoNomes - ArquivoTokens.TAMANHO_CABECALHO;
+        if (registros < 0 || registros % ArquivoTokens.TAMANHO_REGISTRO != 0 || quantidadeNomes < 0
+                || quantidadeLiterais < 0 || posicaoNomes > tamanho - ArquivoTokens.TAMANHO_RODAPE)
+            throw new IOException("Arquivo de tokens invalido: " + arquivo);
+        quantidade = (int) (registros / ArquivoTokens.TAMANHO_REGISTRO);
+
+        posicoesNomes = new int[quantidadeNomes + quantidadeLiterais];
+        int p = (int) posicaoNomes;
+        int fimNomes = tamanho - ArquivoTokens.TAMANHO_RODAPE;
+        for (int id = 0; id < posicoesNomes.length; id++) {
+            if (p + 4 > fimNomes) throw new IOException("Tabela de nomes truncada: " + arquivo);
+            posicoesNomes[id] = p;
+            int n = dados.getInt(p);
+            if (n < 0 || n > fimNomes - p - 4) throw new IOException("Tabela de nomes truncada: " + arquivo);
+            p += 4 + n;
+        }
+    }
+
+    private int registro(int i) {
+        return ArquivoTokens.TAMANHO_CABECALHO + i * ArquivoTokens.TAMANHO_REGISTRO;
+    }
+
+    public int tamanho() { return quantidade; }
+    public int quantidadeNomes() { return quantidadeNomes; }
+
+    public TokenSimbolo simbolo(int i) { return TokenSimbolo.VALORES[dados.get(registro(i))]; }
+    public int linha(int i) { return dados.getInt(registro(i) + 1); }
+    public int inicio(int i) { return dados.getInt(registro(i) + 5); }
+    public int idNome(int i) { return dados.getInt(registro(i) + 9); }
+
+    // Posicao na tabela de nomes do idNome de um identificador ou de um literal
+    private int posicaoNome(int id) {
+        return TabelaNomes.ehLiteral(id) ? posicoesNomes[quantidadeNomes + (id & ~TabelaNomes.LITERAL)] : posicoesNomes[id];
+    }
+
+    // Bytes UTF-8 do nome 'id', como uma fatia do mapeamento
+    public ByteBuffer nomeBytes(int id) {
+        int p = posicaoNome(id);
+        return dados.slice(p + 4, dados.getInt(p));
+    }
+
+    public String nome(int id) {
+        int p = posicaoNome(id);
+        byte[] b = new byte[dados.getInt(p)];
+        dados.get(p + 4, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    public String lexema(int i) {
+        int id = idNome(i);
+        return id >= 0 ? nome(id) : simbolo(i).lexemaFixo;
+    }
+}
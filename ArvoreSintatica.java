@@ -0,0 +1,309 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Tipos de no da arvore sintatica. O significado de 'valor' depende do tipo:
+//   PROGRAMA, PROCEDIMENTO, FUNCAO, VARIAVEL, IDENTIFICADOR, CHAMADA, LEIA, ESCREVA: id do nome
+//   DECLARACAO: ordinal do TokenSimbolo do tipo (sinteiro/sbooleano)
+//   ATRIBUICAO: id do nome do destino
+//   BINARIO, UNARIO: ordinal do TokenSimbolo do operador
+//   NUMERO: valor do literal; BOOLEANO: 1 ou 0
+enum TipoNo {
+    PROGRAMA, BLOCO, DECLARACAO, VARIAVEL, PROCEDIMENTO, FUNCAO,
+    COMANDOS, ATRIBUICAO, CHAMADA, SE, ENQUANTO, LEIA, ESCREVA,
+    BINARIO, UNARIO, IDENTIFICADOR, NUMERO, BOOLEANO;
+
+    static final TipoNo[] VALORES = values();
+}
+
+// Arvore sintatica em arena: cada no e um indice em vetores paralelos (tipo, primeiro filho,
+// proximo irmao, token, valor, simbolo, linha), sem um objeto por no. Os filhos formam uma
+// lista encadeada pelo proximo irmao, na ordem do fonte.
+//
+// A construcao segue a descida recursiva: abre() empilha um no que recebe os proximos nos
+// como filhos, folha() anexa um no sem filhos, fecha() desempilha. Para operadores binarios
+// (associativos a esquerda) o operando esquerdo ja foi anexado quando o operador aparece:
+// marca() guarda a posicao antes dele e envolve() cria o no do operador adotando o que veio
+// depois da marca.
+public class ArvoreSintatica {
+    private byte[] tipos;
+    private int[] primeirosFilhos;
+    private int[] proximosIrmaos;
+    private int[] ultimosFilhos;
+    private int[] tokens;    // indice do token no fluxo (igual ao indice no BufferTokens)
+    private int[] valores;
+    private int[] simbolos;  // indice do Simbolo na TabelaSimbolos (-1 se nao resolvido)
+    private int[] linhas;
+    private int quantidade;
+
+    private int[] abertos = new int[64];
+    private int topo = -1;
+
+    public ArvoreSintatica() {
+        this(1024);
+    }
+
+    public ArvoreSintatica(int capacidade) {
+        capacidade = Math.max(capacidade, 16);
+        tipos = new byte[capacidade];
+        primeirosFilhos = new int[capacidade];
+        proximosIrmaos = new int[capacidade];
+        ultimosFilhos = new int[capacidade];
+        tokens = new int[capacidade];
+        valores = new int[capacidade];
+        simbolos = new int[capacidade];
+        linhas = new int[capacidade];
+    }
+
+    private int novo(TipoNo tipo, int token, int valor, int linha) {
+        if (quantidade == tipos.length) {
+            int nova = quantidade * 2;
+            tipos = Arrays.copyOf(tipos, nova);
+            primeirosFilhos = Arrays.copyOf(primeirosFilhos, nova);
+            proximosIrmaos = Arrays.copyOf(proximosIrmaos, nova);
+            ultimosFilhos = Arrays.copyOf(ultimosFilhos, nova);
+            tokens = Arrays.copyOf(tokens, nova);
+            valores = Arrays.copyOf(valores, nova);
+            simbolos = Arrays.copyOf(simbolos, nova);
+            linhas = Arrays.copyOf(linhas, nova);
+        }
+        int n = quantidade++;
+        tipos[n] = (byte) tipo.ordinal();
+        primeirosFilhos[n] = -1;
+        proximosIrmaos[n] = -1;
+        ultimosFilhos[n] = -1;
+        tokens[n] = token;
+        valores[n] = valor;
+        simbolos[n] = -1;
+        linhas[n] = linha;
+        return n;
+    }
+
+    private void anexa(int pai, int filho) {
+        if (ultimosFilhos[pai] < 0) primeirosFilhos[pai] = filho;
+        else proximosIrmaos[ultimosFilhos[pai]] = filho;
+        ultimosFilhos[pai] = filho;
+    }
+
+    private void empilha(int n) {
+        if (++topo == abertos.length) abertos = Arrays.copyOf(abertos, topo * 2);
+        abertos[topo] = n;
+    }
+
+    // Cria um no e o deixa aberto: os proximos nos viram seus filhos ate fecha()
+    public int abre(TipoNo tipo, int token, int valor, int linha) {
+        int n = novo(tipo, token, valor, linha);
+        if (topo >= 0) anexa(abertos[topo], n);
+        empilha(n);
+        return n;
+    }
+
+    public int folha(TipoNo tipo, int token, int valor, int linha) {
+        int n = novo(tipo, token, valor, linha);
+        if (topo >= 0) anexa(abertos[topo], n);
+        return n;
+    }
+
+    public void fecha() {
+        topo--;
+    }
+
+    // Posicao atual dentro do no aberto (ultimo filho ate agora, ou -1)
+    public int marca() {
+        return ultimosFilhos[abertos[topo]];
+    }
+
+    // Cria um no aberto cujos filhos sao os nos anexados depois da marca
+    public int envolve(int marca, TipoNo tipo, int token, int valor, int linha) {
+        int pai = abertos[topo];
+        int primeiro = marca < 0 ? primeirosFilhos[pai] : proximosIrmaos[marca];
+        int n = novo(tipo, token, valor, linha);
+        if (primeiro >= 0) {
+            primeirosFilhos[n] = primeiro;
+            ultimosFilhos[n] = ultimosFilhos[pai];
+        }
+        if (marca < 0) primeirosFilhos[pai] = n;
+        else proximosIrmaos[marca] = n;
+        ultimosFilhos[pai] = n;
+        empilha(n);
+        return n;
+    }
+
+    // Transforma n numa folha (ex.: expressao dobrada em NUMERO/BOOLEANO); os filhos antigos ficam soltos
+    public void tornaFolha(int n, TipoNo tipo, int valor) {
+        tipos[n] = (byte) tipo.ordinal();
+        valores[n] = valor;
+        simbolos[n] = -1;
+        primeirosFilhos[n] = -1;
+        ultimosFilhos[n] = -1;
+    }
+
+    // Coloca o conteudo do no 'origem' (com seus filhos) no lugar de n, mantendo n na lista de irmaos
+    public void substitui(int n, int origem) {
+        tipos[n] = tipos[origem];
+        primeirosFilhos[n] = primeirosFilhos[origem];
+        ultimosFilhos[n] = ultimosFilhos[origem];
+        tokens[n] = tokens[origem];
+        valores[n] = valores[origem];
+        simbolos[n] = simbolos[origem];
+        linhas[n] = linhas[origem];
+    }
+
+    // Ajusta os nos depois de uma edicao no fonte: token >= tokenMinimo anda deltaToken (e a linha
+    // anda deltaLinha); simbolo >= simboloMinimo anda deltaSimbolo
+    public void deslocar(int tokenMinimo, int deltaToken, int deltaLinha, int simboloMinimo, int deltaSimbolo) {
+        for (int n = 0; n < quantidade; n++) {
+            if (tokens[n] >= tokenMinimo) {
+                tokens[n] += deltaToken;
+                linhas[n] += deltaLinha;
+            }
+            if (simbolos[n] >= simboloMinimo) simbolos[n] += deltaSimbolo;
+        }
+    }
+
+    // Copia todos os nos de 'outra' para o fim desta arena e retorna o deslocamento dos indices
+    // (o no i de 'outra' vira o no deslocamento + i)
+    public int enxerta(ArvoreSintatica outra) {
+        int deslocamento = quantidade;
+        int n = outra.quantidade;
+        if (quantidade + n > tipos.length) {
+            int nova = Math.max(tipos.length * 2, quantidade + n);
+            tipos = Arrays.copyOf(tipos, nova);
+            primeirosFilhos = Arrays.copyOf(primeirosFilhos, nova);
+            proximosIrmaos = Arrays.copyOf(proximosIrmaos, nova);
+            ultimosFilhos = Arrays.copyOf(ultimosFilhos, nova);
+            tokens = Arrays.copyOf(tokens, nova);
+            valores = Arrays.copyOf(valores, nova);
+            simbolos = Arrays.copyOf(simbolos, nova);
+            linhas = Arrays.copyOf(linhas, nova);
+        }
+        System.arraycopy(outra.tipos, 0, tipos, deslocamento, n);
+        System.arraycopy(outra.tokens, 0, tokens, deslocamento, n);
+        System.arraycopy(outra.valores, 0, valores, deslocamento, n);
+        System.arraycopy(outra.simbolos, 0, simbolos, deslocamento, n);
+        System.arraycopy(outra.linhas, 0, linhas, deslocamento, n);
+        for (int i = 0; i < n; i++) {
+            int f = outra.primeirosFilhos[i];
+            int irmao = outra.proximosIrmaos[i];
+            int ultimo = outra.ultimosFilhos[i];
+            primeirosFilhos[deslocamento + i] = f < 0 ? -1 : f + deslocamento;
+            proximosIrmaos[deslocamento + i] = irmao < 0 ? -1 : irmao + deslocamento;
+            ultimosFilhos[deslocamento + i] = ultimo < 0 ? -1 : ultimo + deslocamento;
+        }
+        quantidade += n;
+        return deslocamento;
+    }
+
+    // Anexa um no ja existente (ex.: raiz de uma arvore enxertada) como proximo filho do no aberto
+    public void anexaAberto(int n) {
+        if (topo >= 0) anexa(abertos[topo], n);
+    }
+
+    // Troca os indices de simbolo >= minimo por mapa[simbolo - minimo] (juncao de arvores analisadas
+    // com outra numeracao da tabela)
+    public void remapeiaSimbolos(int minimo, int[] mapa) {
+        for (int n = 0; n < quantidade; n++)
+            if (simbolos[n] >= minimo) simbolos[n] = mapa[simbolos[n] - minimo];
+    }
+
+    // Quantidade de nos alcancaveis a partir da raiz (os soltos por otimizacoes nao contam)
+    public int contaAlcancaveis() {
+        if (quantidade == 0) return 0;
+        int[] pilha = new int[64];
+        int n = 0;
+        int total = 0;
+        pilha[n++] = raiz();
+        while (n > 0) {
+            int no = pilha[--n];
+            total++;
+            for (int f = primeirosFilhos[no]; f >= 0; f = proximosIrmaos[f]) {
+                if (n == pilha.length) pilha = Arrays.copyOf(pilha, n * 2);
+                pilha[n++] = f;
+            }
+        }
+        return total;
+    }
+
+    public void defineValor(int n, int valor) { valores[n] = valor; }
+    public void defineSimbolo(int n, int simbolo) { simbolos[n] = simbolo; }
+
+    public int tamanho() { return quantidade; }
+    public int raiz() { return quantidade > 0 ? 0 : -1; }
+    public TipoNo tipo(int n) { return TipoNo.VALORES[tipos[n]]; }
+    public int primeiroFilho(int n) { return primeirosFilhos[n]; }
+    public int proximoIrmao(int n) { return proximosIrmaos[n]; }
+    public int token(int n) { return tokens[n]; }
+    public int valor(int n) { return valores[n]; }
+    public int simbolo(int n) { return simbolos[n]; }
+    public int linha(int n) { return linhas[n]; }
+
+    public int quantidadeFilhos(int n) {
+        int k = 0;
+        for (int f = primeirosFilhos[n]; f >= 0; f = proximosIrmaos[f]) k++;
+        return k;
+    }
+
+    // Bytes ocupados pelos vetores (capacidade alocada, nao so os nos usados)
+    public long memoriaBytes() {
+        return tipos.length + 7L * 4 * tipos.length;
+    }
+
+    // Libera a folga dos vetores depois da construcao
+    public void compactar() {
+        tipos = Arrays.copyOf(tipos, quantidade);
+        primeirosFilhos = Arrays.copyOf(primeirosFilhos, quantidade);
+        proximosIrmaos = Arrays.copyOf(proximosIrmaos, quantidade);
+        ultimosFilhos = Arrays.copyOf(ultimosFilhos, quantidade);
+        tokens = Arrays.copyOf(tokens, quantidade);
+        valores = Arrays.copyOf(valores, quantidade);
+        simbolos = Arrays.copyOf(simbolos, quantidade);
+        linhas = Arrays.copyOf(linhas, quantidade);
+    }
+
+    // Imprime a arvore indentada, para depuracao
+    public void imprimir(PrintStream saida, TabelaNomes nomes) {
+        if (quantidade == 0) return;
+        int[] pilha = new int[64];
+        int[] niveis = new int[64];
+        int n = 0;
+        pilha[n] = raiz();
+        niveis[n++] = 0;
+        while (n > 0) {
+            int no = pilha[--n];
+            int nivel = niveis[n];
+            StringBuilder linha = new StringBuilder();
+            for (int i = 0; i < nivel; i++) linha.append("  ");
+            linha.append(descricao(no, nomes));
+            saida.println(linha);
+            // empilha os filhos de tras para frente para visitar na ordem do fonte
+            int k = quantidadeFilhos(no);
+            if (n + k > pilha.length) {
+                pilha = Arrays.copyOf(pilha, (n + k) * 2);
+                niveis = Arrays.copyOf(niveis, (n + k) * 2);
+            }
+            int i = n + k - 1;
+            for (int f = primeirosFilhos[no]; f >= 0; f = proximosIrmaos[f]) {
+                pilha[i] = f;
+                niveis[i--] = nivel + 1;
+            }
+            n += k;
+        }
+    }
+
+    public String descricao(int n, TabelaNomes nomes) {
+        TipoNo tipo = tipo(n);
+        int v = valores[n];
+        switch (tipo) {
+            case PROGRAMA: case PROCEDIMENTO: case FUNCAO: case VARIAVEL: case IDENTIFICADOR:
+            case CHAMADA: case LEIA: case ESCREVA: case ATRIBUICAO:
+                return tipo + " " + (v >= 0 ? nomes.nome(v) : "?");
+            case DECLARACAO: case BINARIO: case UNARIO:
+                return tipo + " " + TokenSimbolo.VALORES[v].lexemaFixo;
+            case NUMERO:
+                return tipo + " " + v;
+            case BOOLEANO:
+                return tipo + " " + (v != 0 ? "verdadeiro" : "falso");
+            default:
+                return tipo.toString();
+        }
+    }
+}
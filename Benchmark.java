@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+// Um cenario mede uma operacao sobre um arquivo de entrada; o valor retornado
+// (tokens, simbolos, ...) e acumulado para o JIT nao eliminar o trabalho
+interface CenarioBenchmark {
+    long executar(Path arquivo) throws IOException;
+}
+
+// Benchmarks do compilador sobre programas gerados pelo GeradorLPD.
+// Para cada cenario e tamanho: aquecimento, medicao e bytes alocados por operacao
+// (via com.sun.management.ThreadMXBean, o mesmo numero que o profiler de GC do JMH reporta).
+//
+// Uso: java -Xms2g Benchmark [--tamanhos 1K,1M,10M] [--cenarios lexico,sintatico,...]
+//                            [--aquecimento N] [--iteracoes N]
+public class Benchmark {
+    private static final PrintStream NULA = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final Map<String, CenarioBenchmark> CENARIOS = new LinkedHashMap<>();
+
+    static {
+        CENARIOS.put("lexico", Benchmark::lexico);
+        CENARIOS.put("lexico-mapeado", Benchmark::lexicoMapeado);
+        CENARIOS.put("sintatico", Benchmark::sintatico);
+        CENARIOS.put("sintatico-buffer", Benchmark::sintaticoBuffer);
+        CENARIOS.put("sintatico-pipeline", Benchmark::sintaticoPipeline);
+        CENARIOS.put("sintatico-paralelo", Benchmark::sintaticoParalelo);
+        CENARIOS.put("sintatico-arvore", Benchmark::sintaticoArvore);
+        CENARIOS.put("sintatico-referencias", Benchmark::sintaticoReferencias);
+        CENARIOS.put("interpretador", Benchmark::interpretador);
+        CENARIOS.put("interpretador-peephole", Benchmark::interpretadorPeephole);
+        CENARIOS.put("jvm", Benchmark::jvm);
+        CENARIOS.put("incremental", Benchmark::incremental);
+        CENARIOS.put("aninhado-recursivo", arquivo -> aninhado(arquivo, false));
+        CENARIOS.put("aninhado-pilha", arquivo -> aninhado(arquivo, true));
+        CENARIOS.put("tabela-profunda", arquivo -> tabela(arquivo, 2000, 5));
+        CENARIOS.put("tabela-larga", arquivo -> tabela(arquivo, 5, 2000));
+    }
+
+    // Lexico sozinho: laco de pegaToken() ate o fim do arquivo
+    static long lexico(Path arquivo) throws IOException {
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString());
+        long n = 0;
+        while (lexico.pegaToken().getSimbolo() != TokenSimbolo.sfim_arquivo) n++;
+        lexico.fechar();
+        return n;
+    }
+
+    static long lexicoMapeado(Path arquivo) throws IOException {
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true);
+        long n = 0;
+        while (lexico.avancaToken() != TokenSimbolo.sfim_arquivo) n++;
+        lexico.fechar();
+        return n;
+    }
+
+    // Lexico + sintatico: analisaPrograma() completo
+    static long sintatico(Path arquivo) throws IOException {
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        AnalisadorSintatico parser = new AnalisadorSintatico(lexico, tabela);
+        parser.setSaida(NULA);
+        parser.analisaPrograma();
+        lexico.fechar();
+        return lexico.getTotalTokens();
+    }
+
+    static long sintaticoBuffer(Path arquivo) throws IOException {
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        AnalisadorSintatico parser = new AnalisadorSintatico(lexico.tokenizar(), tabela);
+        parser.setSaida(NULA);
+        parser.analisaPrograma();
+        lexico.fechar();
+        return lexico.getTotalTokens();
+    }
+
+    // Lexico numa thread e sintatico em outra, ligados pelo CanalTokens; comparar com "sintatico"
+    static long sintaticoPipeline(Path arquivo) throws IOException {
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        try (CanalTokens canal = new CanalTokens(lexico)) {
+            AnalisadorSintatico parser = new AnalisadorSintatico(canal, tabela);
+            parser.setSaida(NULA);
+            parser.analisaPrograma();
+        }
+        lexico.fechar();
+        return lexico.getTotalTokens();
+    }
+
+    // Sub-rotinas do programa principal analisadas em paralelo no commonPool; comparar com "sintatico-buffer"
+    static long sintaticoParalelo(Path arquivo) throws IOException {
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        AnalisadorSintatico parser = new AnalisadorSintatico(lexico.tokenizar(), tabela);
+        parser.setSaida(NULA);
+        parser.setParalelo(ForkJoinPool.commonPool());
+        parser.analisaPrograma();
+        lexico.fechar();
+        return lexico.getTotalTokens();
+    }
+
+    // Sintatico construindo a arvore; retorna a quantidade de nos
+    static long sintaticoArvore(Path arquivo) throws IOException {
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        AnalisadorSintatico parser = new AnalisadorSintatico(lexico, tabela);
+        parser.setSaida(NULA);
+        parser.setArvore(new ArvoreSintatica(Math.max(1024, (int) (Files.size(arquivo) / 4))));
+        parser.analisaPrograma();
+        lexico.fechar();
+        return parser.getArvore().tamanho();
+    }
+
+    // Sintatico gravando o IndiceReferencias; retorna a quantidade de usos (comparar com "sintatico")
+    static long sintaticoReferencias(Path arquivo) throws IOException {
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(arquivo.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        AnalisadorSintatico parser = new AnalisadorSintatico(lexico, tabela);
+        parser.setSaida(NULA);
+        parser.setReferencias(new IndiceReferencias());
+        parser.analisaPrograma();
+        lexico.fechar();
+        return parser.getReferencias().quantidade();
+    }
+
+    // Programa com laco 'enquanto' chamando procedimento e funcao, para medir a MVD
+    static final String PROGRAMA_LACO =
+            "programa laco;\n"
+            + "var i, s, n: inteiro;\n    par: booleano;\n"
+            + "funcao dobro: inteiro;\ninicio dobro := i * 2 fim;\n"
+            + "procedimento soma;\nvar k: inteiro;\n"
+            + "inicio k := dobro; se par entao s := s + k senao s := s - 1; par := nao par fim;\n"
+            + "inicio\n  leia(n); i := 0; s := 0; par := verdadeiro;\n"
+            + "  enquanto i < n faca inicio soma; i := i + 1 fim;\n  escreva(s)\nfim.\n";
+
+    private static ProgramaMVD programaLaco;
+    private static ProgramaMVD programaLacoPeephole;
+    private static ProgramaJVM programaLacoJvm;
+
+    static ProgramaMVD compilaLaco() throws IOException {
+        if (programaLaco == null) {
+            Path fonte = Files.createTempFile("laco-", ".txt");
+            fonte.toFile().deleteOnExit();
+            Files.writeString(fonte, PROGRAMA_LACO);
+            TabelaNomes nomes = new TabelaNomes();
+            AnalisadorLexico lexico = new AnalisadorLexico(fonte.toString(), false, nomes);
+            TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+            tabela.setSaida(NULA);
+            AnalisadorSintatico parser = new AnalisadorSintatico(lexico, tabela);
+            parser.setSaida(NULA);
+            parser.setArvore(new ArvoreSintatica());
+            parser.analisaPrograma();
+            lexico.fechar();
+            programaLaco = new GeradorCodigo(parser.getArvore(), tabela).gerar();
+            programaLacoPeephole = new OtimizadorPeephole().otimizar(programaLaco);
+            programaLacoJvm = new GeradorBytecode(parser.getArvore(), tabela).gerar();
+        }
+        return programaLaco;
+    }
+
+    // MVD executando o laco; o tamanho do arquivo define as iteracoes. Unidade: instrucoes
+    static long interpretador(Path arquivo) throws IOException {
+        long iteracoes = Files.size(arquivo);
+        byte[] entrada = (iteracoes + "\n").getBytes();
+        MaquinaVirtual mvd = new MaquinaVirtual(new java.io.ByteArrayInputStream(entrada), NULA);
+        return mvd.executar(compilaLaco());
+    }
+
+    // O mesmo laco depois do OtimizadorPeephole; comparar ms/op e instrucoes executadas (despachos)
+    // com "interpretador"
+    static long interpretadorPeephole(Path arquivo) throws IOException {
+        long iteracoes = Files.size(arquivo);
+        byte[] entrada = (iteracoes + "\n").getBytes();
+        MaquinaVirtual mvd = new MaquinaVirtual(new java.io.ByteArrayInputStream(entrada), NULA);
+        compilaLaco();
+        return mvd.executar(programaLacoPeephole);
+    }
+
+    // O mesmo laco compilado para bytecode da JVM (GeradorBytecode); comparar o ms/op com
+    // "interpretador". Unidade: iteracoes do laco
+    static long jvm(Path arquivo) throws IOException {
+        long iteracoes = Files.size(arquivo);
+        byte[] entrada = (iteracoes + "\n").getBytes();
+        compilaLaco();
+        programaLacoJvm.executar(new java.io.ByteArrayInputStream(entrada), NULA);
+        return iteracoes;
+    }
+
+    private static final Map<Path, AnalisadorIncremental> EDITORES = new HashMap<>();
+    private static long sementeEdicao = 1;
+
+    // Reanalise incremental: 100 edicoes trocando um numero do programa (a analise completa
+    // inicial fica fora da medicao). Unidade: edicoes; ms/op / 100 = latencia por edicao
+    static long incremental(Path arquivo) throws IOException {
+        AnalisadorIncremental editor = EDITORES.get(arquivo);
+        if (editor == null) {
+            editor = new AnalisadorIncremental(Files.readString(arquivo));
+            EDITORES.put(arquivo, editor);
+        }
+        for (int e = 0; e < 100; e++) {
+            BufferTokens tokens = editor.getTokens();
+            sementeEdicao = sementeEdicao * 6364136223846793005L + 1442695040888963407L;
+            int i = (int) ((sementeEdicao >>> 33) % tokens.tamanho());
+            while (i < tokens.tamanho() && tokens.simbolo(i) != TokenSimbolo.snumero) i++;
+            if (i == tokens.tamanho()) continue;
+            editor.editar(tokens.inicio(i), tokens.comprimento(i), String.valueOf(1 + (sementeEdicao >>> 60) % 9));
+        }
+        return 100;
+    }
+
+    private static final Map<Path, Path> ANINHADOS = new HashMap<>();
+
+    // Sintatico sobre GeradorLPD.gerarAninhado com um nivel a cada 64 bytes do arquivo, pela descida
+    // recursiva ou pela pilha explicita. A recursiva estoura a pilha da JVM nos tamanhos maiores
+    static long aninhado(Path arquivo, boolean pilhaExplicita) throws IOException {
+        Path fonte = ANINHADOS.get(arquivo);
+        if (fonte == null) {
+            fonte = Files.createTempFile("lpd-aninhado-", ".txt");
+            fonte.toFile().deleteOnExit();
+            GeradorLPD.gerarAninhado(fonte, (int) Math.max(1, Files.size(arquivo) / 64));
+            ANINHADOS.put(arquivo, fonte);
+        }
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = new AnalisadorLexico(fonte.toString(), true, nomes);
+        TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+        tabela.setSaida(NULA);
+        AnalisadorSintatico parser = new AnalisadorSintatico(lexico, tabela);
+        parser.setSaida(NULA);
+        parser.setPilhaExplicita(pilhaExplicita);
+        try {
+            parser.analisaPrograma();
+        } finally {
+            lexico.fechar();
+        }
+        return lexico.getTotalTokens();
+    }
+
+    // Insere/busca na TabelaSimbolos com 'profundidade' escopos aninhados de 'largura' nomes cada
+    // (o arquivo nao e usado: o tamanho so repete a rodada)
+    static long tabela(Path arquivo, int profundidade, int largura) throws IOException {
+        long rodadas = Math.max(1, Files.size(arquivo) >> 16);
+        long encontrados = 0;
+        for (long r = 0; r < rodadas; r++) {
+            TabelaSimbolos tabela = new TabelaSimbolos();
+            tabela.setSaida(NULA);
+            TabelaNomes nomes = tabela.getNomes();
+            int[] ids = new int[largura];
+            for (int i = 0; i < largura; i++) ids[i] = nomes.intern("n" + i);
+            for (int d = 0; d < profundidade; d++) {
+                tabela.entrarEscopo();
+                for (int i = 0; i < largura; i++) {
+                    tabela.inserir(ids[i], tabela.getNivelAtual(), TipoSimbolo.INTEIRO);
+                }
+                for (int i = 0; i < largura; i++) {
+                    if (tabela.buscar(ids[(i * 7) % largura]) != null) encontrados++;
+                }
+            }
+            for (int d = 0; d < profundidade; d++) tabela.sairEscopo();
+        }
+        return encontrados;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String tamanhos = "1K,100K,1M,10M";
+        String selecionados = String.join(",", CENARIOS.keySet());
+        int aquecimento = 5;
+        int iteracoes = 10;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tamanhos": tamanhos = args[++i]; break;
+                case "--cenarios": selecionados = args[++i]; break;
+                case "--aquecimento": aquecimento = Integer.parseInt(args[++i]); break;
+                case "--iteracoes": iteracoes = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Opcao desconhecida: " + args[i]);
+                    return;
+            }
+        }
+
+        List<Path> arquivos = new ArrayList<>();
+        for (String t : tamanhos.split(",")) {
+            long bytes = GeradorLPD.leTamanho(t);
+            Path arquivo = Files.createTempFile("lpd-" + t + "-", ".txt");
+            arquivo.toFile().deleteOnExit();
+            int procedimentos = (int) Math.max(1, Math.min(5000, bytes / 2048));
+            new GeradorLPD(bytes, procedimentos, 4, 4, 42).gerar(arquivo);
+            arquivos.add(arquivo);
+        }
+
+        System.out.printf("%-20s %12s %12s %12s %14s %14s%n",
+                "cenario", "bytes", "ms/op", "MB/s", "unid/s", "B alocados/op");
+        for (String nome : selecionados.split(",")) {
+            CenarioBenchmark cenario = CENARIOS.get(nome);
+            if (cenario == null) {
+                System.err.println("Cenario desconhecido: " + nome);
+                continue;
+            }
+            for (Path arquivo : arquivos) {
+                mede(nome, cenario, arquivo, aquecimento, iteracoes);
+            }
+        }
+    }
+
+    static void mede(String nome, CenarioBenchmark cenario, Path arquivo, int aquecimento, int iteracoes)
+            throws IOException {
+        long acumulado = 0;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        @SuppressWarnings("deprecation") // threadId() so existe a partir do JDK 19
+        long id = Thread.currentThread().getId();
+        long unidades = 0;
+        long alocadoAntes;
+        long inicio;
+        try {
+            for (int i = 0; i < aquecimento; i++) acumulado += cenario.executar(arquivo);
+            alocadoAntes = threads.getThreadAllocatedBytes(id);
+            inicio = System.nanoTime();
+            for (int i = 0; i < iteracoes; i++) unidades += cenario.executar(arquivo);
+        } catch (StackOverflowError e) {
+            // cenarios recursivos sobre entradas profundas demais
+            System.out.printf("%-20s %12d %s%n", nome, Files.size(arquivo), "estouro da pilha da JVM");
+            return;
+        }
+        long nanos = System.nanoTime() - inicio;
+        long alocado = threads.getThreadAllocatedBytes(id) - alocadoAntes;
+
+        long bytes = Files.size(arquivo);
+        double msPorOp = nanos / 1e6 / iteracoes;
+        double segundos = nanos / 1e9;
+        System.out.printf("%-20s %12d %12.3f %12.1f %14.0f %14d%n",
+                nome, bytes, msPorOp, bytes * (double) iteracoes / segundos / (1 << 20),
+                unidades / segundos, alocado / iteracoes);
+        if (acumulado == 42) System.out.print(""); // mantem o aquecimento vivo
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Arrays;
+
+// Sequencia de tokens guardada em vetores primitivos (um vetor por campo), sem um objeto por token.
+// Simbolos de lexema fixo nao guardam lexema; identificadores, numeros e erros guardam o id na TabelaNomes.
+// A linha de cada token nao e guardada: sai da posicao pelo MapaLinhas do texto.
+public class BufferTokens {
+    private final TabelaNomes nomes;
+    private final MapaLinhas linhas;
+    private byte[] simbolos; // ordinal de TokenSimbolo
+    private int[] inicios;   // posicao do primeiro caractere no arquivo
+    private int[] tamanhos;
+    private int[] idsNome;   // -1 para lexema fixo
+    private int quantidade;
+
+    public BufferTokens(TabelaNomes nomes, MapaLinhas linhas) {
+        this(nomes, linhas, 1024);
+    }
+
+    public BufferTokens(TabelaNomes nomes, MapaLinhas linhas, int capacidade) {
+        this.nomes = nomes;
+        this.linhas = linhas;
+        capacidade = Math.max(capacidade, 16);
+        simbolos = new byte[capacidade];
+        inicios = new int[capacidade];
+        tamanhos = new int[capacidade];
+        idsNome = new int[capacidade];
+        quantidade = 0;
+    }
+
+    private void garante(int capacidade) {
+        if (capacidade > simbolos.length) {
+            int nova = Math.max(capacidade, simbolos.length * 2);
+            simbolos = Arrays.copyOf(simbolos, nova);
+            inicios = Arrays.copyOf(inicios, nova);
+            tamanhos = Arrays.copyOf(tamanhos, nova);
+            idsNome = Arrays.copyOf(idsNome, nova);
+        }
+    }
+
+    public void adiciona(TokenSimbolo simbolo, int inicio, int tamanho, int idNome) {
+        garante(quantidade + 1);
+        simbolos[quantidade] = (byte) simbolo.ordinal();
+        inicios[quantidade] = inicio;
+        tamanhos[quantidade] = tamanho;
+        idsNome[quantidade] = idNome;
+        quantidade++;
+    }
+
+    // Troca os tokens [de, ate) pelos de 'novos' e desloca a posicao dos que vem depois
+    // (usado depois de uma edicao no texto; o MapaLinhas e atualizado por quem edita)
+    public void substitui(int de, int ate, BufferTokens novos, int deltaInicio) {
+        int n = novos.quantidade;
+        int cauda = quantidade - ate;
+        garante(de + n + cauda);
+        System.arraycopy(simbolos, ate, simbolos, de + n, cauda);
+        System.arraycopy(inicios, ate, inicios, de + n, cauda);
+        System.arraycopy(tamanhos, ate, tamanhos, de + n, cauda);
+        System.arraycopy(idsNome, ate, idsNome, de + n, cauda);
+        for (int i = de + n; i < de + n + cauda; i++) inicios[i] += deltaInicio;
+        System.arraycopy(novos.simbolos, 0, simbolos, de, n);
+        System.arraycopy(novos.inicios, 0, inicios, de, n);
+        System.arraycopy(novos.tamanhos, 0, tamanhos, de, n);
+        System.arraycopy(novos.idsNome, 0, idsNome, de, n);
+        quantidade = de + n + cauda;
+    }
+
+    public void limpar() {
+        quantidade = 0;
+    }
+
+    public int tamanho() { return quantidade; }
+    public TabelaNomes getNomes() { return nomes; }
+    public MapaLinhas getLinhas() { return linhas; }
+
+    public TokenSimbolo simbolo(int i) { return TokenSimbolo.VALORES[simbolos[i]]; }
+    public int inicio(int i) { return inicios[i]; }
+    public int comprimento(int i) { return tamanhos[i]; }
+    public int linha(int i) { return linhas.linha(inicios[i]); }
+    public int idNome(int i) { return idsNome[i]; }
+
+    public String lexema(int i) {
+        int id = idsNome[i];
+        return id >= 0 ? nomes.nome(id) : simbolo(i).lexemaFixo;
+    }
+
+    // Visao como objeto Token, para depuracao
+    public Token token(int i) {
+        return new Token(simbolo(i), lexema(i), linha(i), idsNome[i]);
+    }
+}
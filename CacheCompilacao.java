@@ -0,0 +1,307 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Cache de compilacao em disco, enderecado pelo conteudo: a chave e o SHA-256 dos bytes do fonte
+// junto com a versao do compilador e as opcoes que mudam o resultado. Cada entrada e um arquivo
+// <chave>.lpdc com o resultado completo (valido/erro e a linha, a saida, os Simbolos e o codigo
+// da MVD), lido de volta por mapeamento de memoria. Num acerto o lexico e o sintatico nao rodam.
+//
+// Varios processos podem usar o mesmo diretorio: cada entrada e escrita num arquivo temporario e
+// publicada com um move atomico, entao um leitor ve a entrada inteira ou nao a ve. Dois processos
+// que compilam o mesmo fonte ao mesmo tempo so gravam o mesmo conteudo duas vezes.
+//
+// O tamanho total e limitado; quando passa do limite os arquivos usados ha mais tempo (data de
+// modificacao, atualizada a cada acerto) sao apagados ate sobrar 90% do limite.
+public class CacheCompilacao {
+    static final String EXTENSAO = ".lpdc";
+    private static final int MAGICO = 0x4C504443; // "LPDC"
+    private static final int FORMATO = 4;
+    private static final Pattern LINHA = Pattern.compile("linha (\\d+)");
+
+    static final String VERSAO_COMPILADOR = versaoCompilador();
+
+    private final Path diretorio;
+    private final long limiteBytes;
+    private final AtomicLong bytesEstimados = new AtomicLong(-1); // -1: diretorio ainda nao medido
+    private final AtomicInteger acertos = new AtomicInteger();
+    private final AtomicInteger falhas = new AtomicInteger();
+
+    public CacheCompilacao(Path diretorio, long limiteBytes) throws IOException {
+        this.diretorio = diretorio;
+        this.limiteBytes = limiteBytes;
+        Files.createDirectories(diretorio);
+    }
+
+    public int getAcertos() { return acertos.get(); }
+    public int getFalhas() { return falhas.get(); }
+
+    // Hash de todos os .class do diretorio ou jar de onde o compilador foi carregado (nome e bytes,
+    // em ordem de nome): uma lista fixa de classes deixava de fora as que o compilador tambem usa
+    // (Token, Simbolo, BufferTokens, ...), e qualquer mudanca nelas tem de invalidar o cache inteiro
+    private static String versaoCompilador() {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            Path origem = Path.of(CacheCompilacao.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isDirectory(origem)) {
+                List<Path> classes;
+                try (Stream<Path> arquivos = Files.list(origem)) {
+                    classes = arquivos.filter(c -> c.getFileName().toString().endsWith(".class")).sorted().toList();
+                }
+                for (Path classe : classes) somaClasse(sha, classe.getFileName().toString(), Files.readAllBytes(classe));
+            } else {
+                try (ZipFile jar = new ZipFile(origem.toFile())) {
+                    List<? extends ZipEntry> classes = jar.stream()
+                            .filter(e -> e.getName().endsWith(".class") && e.getName().indexOf('/') < 0)
+                            .sorted(Comparator.comparing(ZipEntry::getName)).toList();
+                    for (ZipEntry classe : classes) {
+                        try (InputStream in = jar.getInputStream(classe)) {
+                            somaClasse(sha, classe.getName(), in.readAllBytes());
+                        }
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(sha.digest(), 0, 8);
+        } catch (IOException | NoSuchAlgorithmException | URISyntaxException | RuntimeException e) {
+            return "sem-versao";
+        }
+    }
+
+    private static void somaClasse(MessageDigest sha, String nome, byte[] bytes) {
+        sha.update(nome.getBytes(StandardCharsets.UTF_8));
+        sha.update((byte) 0);
+        sha.update(bytes);
+    }
+
+    // Chave de uma compilacao: versao do compilador, variante (opcoes) e bytes do fonte
+    public static String chave(byte[] fonte, String variante) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(VERSAO_COMPILADOR.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(variante.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            sha.update(fonte);
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponivel", e);
+        }
+    }
+
+    private Path entrada(String chave) {
+        return diretorio.resolve(chave + EXTENSAO);
+    }
+
+    // Resultado guardado para a chave, ou null (entrada ausente ou corrompida)
+    public ResultadoCompilacao buscar(String chave, Path arquivo) {
+        Path caminho = entrada(chave);
+        try (FileChannel canal = FileChannel.open(caminho, StandardOpenOption.READ)) {
+            MappedByteBuffer dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            ResultadoCompilacao r = decodifica(dados, arquivo);
+            if (r == null) {
+                Files.deleteIfExists(caminho);
+                falhas.incrementAndGet();
+                return null;
+            }
+            try {
+                Files.setLastModifiedTime(caminho, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                // outro processo pode ter despejado a entrada agora; o resultado ja foi lido
+            }
+            acertos.incrementAndGet();
+            return r;
+        } catch (IOException e) { // inclui NoSuchFileException: entrada ainda nao existe
+            falhas.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Guarda o resultado; falhas de escrita so fazem o cache deixar de ajudar
+    public void guardar(String chave, ResultadoCompilacao r) {
+        Path temporario = null;
+        try {
+            byte[] dados = codifica(r);
+            if (bytesEstimados.get() < 0) bytesEstimados.compareAndSet(-1, tamanhoDiretorio());
+            temporario = Files.createTempFile(diretorio, ".tmp-", EXTENSAO);
+            Files.write(temporario, dados);
+            try {
+                Files.move(temporario, entrada(chave), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporario, entrada(chave), StandardCopyOption.REPLACE_EXISTING);
+            }
+            temporario = null;
+            if (bytesEstimados.addAndGet(dados.length) > limiteBytes) despejar();
+        } catch (IOException e) {
+            System.err.println("Cache: nao foi possivel gravar a entrada: " + e.getMessage());
+        } finally {
+            if (temporario != null) {
+                try {
+                    Files.deleteIfExists(temporario);
+                } catch (IOException e) {
+                    // sobra um temporario; o proximo despejo o ignora
+                }
+            }
+        }
+    }
+
+    private List<Path> entradas() throws IOException {
+        try (Stream<Path> arquivos = Files.list(diretorio)) {
+            return arquivos.filter(p -> {
+                String nome = p.getFileName().toString();
+                return nome.endsWith(EXTENSAO) && !nome.startsWith(".tmp-");
+            }).toList();
+        }
+    }
+
+    private long tamanhoDiretorio() throws IOException {
+        long total = 0;
+        for (Path p : entradas()) {
+            try {
+                total += Files.size(p);
+            } catch (IOException e) {
+                // apagada por outro processo durante a listagem
+            }
+        }
+        return total;
+    }
+
+    // Apaga as entradas menos usadas ate o diretorio ficar com 90% do limite
+    private synchronized void despejar() throws IOException {
+        record Entrada(Path caminho, long tamanho, long usadoEm) {}
+        List<Entrada> lista = new ArrayList<>();
+        long total = 0;
+        for (Path p : entradas()) {
+            try {
+                long tamanho = Files.size(p);
+                lista.add(new Entrada(p, tamanho, Files.getLastModifiedTime(p).toMillis()));
+                total += tamanho;
+            } catch (IOException e) {
+                // apagada por outro processo durante a listagem
+            }
+        }
+        lista.sort(Comparator.comparingLong(Entrada::usadoEm));
+        long alvo = limiteBytes / 10 * 9;
+        for (int i = 0; i < lista.size() && total > alvo; i++) {
+            Files.deleteIfExists(lista.get(i).caminho());
+            total -= lista.get(i).tamanho();
+        }
+        bytesEstimados.set(total);
+    }
+
+    // Formato (big-endian): MAGICO FORMATO valido:byte linhaErro tokens bytes:long erro saida
+    // nSimbolos {nome escopo tipo:byte endereco}* tamanhoCodigo [memoriaDados codigo:int*]
+    // Strings sao int comprimento (-1 = null) seguido dos bytes UTF-8
+    static byte[] codifica(ResultadoCompilacao r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + r.saida.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGICO);
+        out.writeInt(FORMATO);
+        out.writeByte(r.erro == null ? 1 : 0);
+        out.writeInt(linhaErro(r.erro));
+        out.writeInt(r.tokens);
+        out.writeLong(r.bytes);
+        escreveTexto(out, r.erro);
+        escreveTexto(out, r.saida);
+        out.writeInt(r.simbolos.size());
+        for (Simbolo s : r.simbolos) {
+            escreveTexto(out, s.getNome());
+            out.writeInt(s.getEscopo());
+            out.writeByte(s.getTipo().ordinal());
+            out.writeInt(s.getEndereco());
+        }
+        if (r.programa == null) {
+            out.writeInt(-1);
+        } else {
+            int[] codigo = r.programa.getCodigo();
+            out.writeInt(codigo.length);
+            out.writeInt(r.programa.getMemoriaDados());
+            for (int v : codigo) out.writeInt(v);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static ResultadoCompilacao decodifica(MappedByteBuffer dados, Path arquivo) {
+        try {
+            if (dados.getInt() != MAGICO || dados.getInt() != FORMATO) return null;
+            boolean valido = dados.get() == 1;
+            dados.getInt(); // linha do erro: guardada para quem le o arquivo sem o texto
+            int tokens = dados.getInt();
+            long bytes = dados.getLong();
+            String erro = leTexto(dados);
+            String saida = leTexto(dados);
+            if (valido != (erro == null) || saida == null) return null;
+            int n = dados.getInt();
+            List<Simbolo> simbolos = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                String nome = leTexto(dados);
+                int escopo = dados.getInt();
+                TipoSimbolo tipo = TipoSimbolo.VALORES[dados.get()];
+                int endereco = dados.getInt();
+                simbolos.add(new Simbolo(nome, -1, escopo, tipo, endereco, i));
+            }
+            ProgramaMVD programa = null;
+            int tamanho = dados.getInt();
+            if (tamanho >= 0) {
+                int memoriaDados = dados.getInt();
+                int[] codigo = new int[tamanho];
+                dados.asIntBuffer().get(codigo);
+                programa = new ProgramaMVD(codigo, memoriaDados);
+            }
+            return new ResultadoCompilacao(arquivo, saida, erro, tokens, bytes, simbolos, programa, true);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null; // entrada truncada ou de outro formato
+        }
+    }
+
+    // Linha do erro tirada da mensagem ("... na linha N: ..."), 0 se valido ou sem linha
+    static int linhaErro(String erro) {
+        if (erro == null) return 0;
+        Matcher m = LINHA.matcher(erro);
+        return m.find() ? Integer.parseInt(m.group(1)) : 0;
+    }
+
+    private static void escreveTexto(DataOutputStream out, String texto) throws IOException {
+        if (texto == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = texto.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String leTexto(MappedByteBuffer dados) {
+        int n = dados.getInt();
+        if (n < 0) return null;
+        byte[] b = new byte[n];
+        dados.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
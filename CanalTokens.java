@@ -0,0 +1,146 @@
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+// Lote de tokens no anel do CanalTokens: os mesmos campos que o sintatico copia do lexico
+class LoteTokens {
+    final byte[] simbolos;
+    final int[] inicios;
+    final int[] idsNome;
+    int quantidade;
+    boolean fim;     // ultimo lote: termina em sfim_arquivo ou em erro
+    Throwable erro;  // falha do lexico depois do ultimo token do lote (ex.: erro de leitura)
+
+    LoteTokens(int capacidade) {
+        simbolos = new byte[capacidade];
+        inicios = new int[capacidade];
+        idsNome = new int[capacidade];
+    }
+}
+
+// Modo em pipeline: o lexico roda na sua propria thread e entrega os tokens ao sintatico em lotes,
+// por um anel de capacidade fixa com um produtor e um consumidor. Os lotes do anel sao reaproveitados,
+// entao nada e alocado por token. Com o anel cheio o lexico espera o sintatico (back-pressure); com o
+// anel vazio e o sintatico que espera. Tokens de erro do lexico (ex.: "Comentario nao fechado") sao
+// tokens como os outros e chegam na ordem; uma excecao do lexico e relancada pelo sintatico quando ele
+// chega na posicao em que ela aconteceu.
+//
+// A TabelaNomes e preenchida pela thread do lexico; o sintatico so le nomes de ids que ja recebeu.
+public class CanalTokens implements AutoCloseable {
+    static final int TAMANHO_LOTE = 4096;
+    static final int LOTES = 8; // potencia de 2
+    private static final int GIROS = 200; // espera ativa antes de estacionar a thread
+
+    private final AnalisadorLexico lexico;
+    private final LoteTokens[] anel = new LoteTokens[LOTES];
+    private final Thread produtor;
+    private final Thread consumidor;
+
+    // Contadores de lotes; cada um so e escrito por uma das threads
+    private volatile long publicados;
+    private volatile long consumidos;
+    private volatile boolean produtorEsperando;
+    private volatile boolean consumidorEsperando;
+    private volatile boolean cancelado;
+
+    // Comeca a ler em outra thread; a thread que cria o canal e a unica que pode consumir
+    public CanalTokens(AnalisadorLexico lexico) {
+        this.lexico = lexico;
+        for (int i = 0; i < LOTES; i++) anel[i] = new LoteTokens(TAMANHO_LOTE);
+        consumidor = Thread.currentThread();
+        produtor = new Thread(this::produz, "lexico");
+        produtor.setDaemon(true);
+        produtor.start();
+    }
+
+    public TabelaNomes getNomes() {
+        return lexico.getNomes();
+    }
+
+    // Preenchido pela thread do lexico; as linhas de posicoes ja recebidas estao sempre registradas
+    public MapaLinhas getLinhas() {
+        return lexico.getLinhas();
+    }
+
+    private void produz() {
+        long n = 0;
+        boolean fim = false;
+        while (!fim) {
+            // back-pressure: so reusa um lote depois que o sintatico o liberou
+            if (n - consumidos == LOTES) {
+                produtorEsperando = true;
+                for (int giros = 0; n - consumidos == LOTES && !cancelado; giros++) espera(giros);
+                produtorEsperando = false;
+            }
+            if (cancelado) return;
+            LoteTokens lote = anel[(int) n & (LOTES - 1)];
+            lote.quantidade = 0;
+            lote.fim = false;
+            lote.erro = null;
+            try {
+                while (lote.quantidade < TAMANHO_LOTE) {
+                    TokenSimbolo simbolo = lexico.avancaToken();
+                    int i = lote.quantidade++;
+                    lote.simbolos[i] = (byte) simbolo.ordinal();
+                    lote.inicios[i] = lexico.inicioToken();
+                    lote.idsNome[i] = lexico.idNomeToken();
+                    if (simbolo == TokenSimbolo.sfim_arquivo) {
+                        fim = true;
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                lote.erro = e;
+                fim = true;
+            }
+            lote.fim = fim;
+            publicados = ++n; // escrita volatil: publica o conteudo do lote
+            if (consumidorEsperando) LockSupport.unpark(consumidor);
+        }
+    }
+
+    // Devolve 'anterior' (null na primeira chamada) ao lexico e retorna o proximo lote, esperando se preciso
+    LoteTokens proximoLote(LoteTokens anterior) {
+        long n = consumidos;
+        if (anterior != null) {
+            consumidos = ++n;
+            if (produtorEsperando) LockSupport.unpark(produtor);
+        }
+        if (publicados == n) {
+            consumidorEsperando = true;
+            for (int giros = 0; publicados == n; giros++) espera(giros);
+            consumidorEsperando = false;
+        }
+        return anel[(int) n & (LOTES - 1)];
+    }
+
+    // Relanca, na thread do sintatico, a falha que o lexico teve no fim do lote
+    static void relanca(LoteTokens lote) throws IOException {
+        if (lote.erro instanceof IOException e) throw e;
+        if (lote.erro instanceof RuntimeException e) throw e;
+        throw new IllegalStateException("Fim do fluxo de tokens sem sfim_arquivo");
+    }
+
+    // Gira um pouco (a outra thread costuma responder logo) e depois estaciona; o unpark acorda antes
+    private static void espera(int giros) {
+        if (giros < GIROS) Thread.onSpinWait();
+        else LockSupport.parkNanos(50_000);
+    }
+
+    // Para o lexico (ex.: o sintatico parou num erro) e espera a thread terminar; o lexico pode ser
+    // fechado depois disso
+    @Override
+    public void close() {
+        cancelado = true;
+        LockSupport.unpark(produtor);
+        boolean interrompido = false;
+        while (true) {
+            try {
+                produtor.join();
+                break;
+            } catch (InterruptedException e) {
+                interrompido = true;
+            }
+        }
+        if (interrompido) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,83 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Cliente do ServidorCompilacao: manda cada arquivo pela mesma conexao e imprime a resposta
+// como o Main imprimiria (saida no System.out, erro no System.err).
+//
+// Uso: java ClienteCompilacao [--socket caminho | --porta N] [--repetir N] [--parar] <arquivo>...
+// --repetir N compila cada arquivo N vezes e mostra a latencia media por pedido.
+public class ClienteCompilacao {
+    public static void main(String[] args) throws IOException {
+        String socket = ServidorCompilacao.SOCKET_PADRAO;
+        int porta = 0;
+        int repetir = 1;
+        boolean parar = false;
+        List<String> arquivos = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--socket": socket = args[++i]; break;
+                case "--porta": porta = Integer.parseInt(args[++i]); break;
+                case "--repetir": repetir = Integer.parseInt(args[++i]); break;
+                case "--parar": parar = true; break;
+                default: arquivos.add(args[i]);
+            }
+        }
+        if (arquivos.isEmpty() && !parar) {
+            System.out.println("Uso: java ClienteCompilacao [--socket caminho | --porta N] [--repetir N] [--parar] <arquivo>...");
+            return;
+        }
+
+        SocketAddress endereco = ServidorCompilacao.endereco(socket, porta);
+        int erros = 0;
+        try (SocketChannel canal = SocketChannel.open(endereco);
+             InputStream in = new BufferedInputStream(Channels.newInputStream(canal));
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(canal))) {
+            for (String arquivo : arquivos) {
+                byte[] pedido = ("COMPILAR " + Path.of(arquivo).toAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8);
+                String[] resposta = null;
+                long inicio = System.nanoTime();
+                for (int i = 0; i < repetir; i++) {
+                    out.write(pedido);
+                    out.flush();
+                    resposta = leResposta(in);
+                }
+                long nanos = System.nanoTime() - inicio;
+                System.out.print(resposta[1]);
+                if (resposta[0].equals("ERRO")) {
+                    System.err.println(resposta[2]);
+                    erros++;
+                }
+                if (repetir > 1)
+                    System.err.printf("%s: %d compilacoes, %.1f us por pedido%n", arquivo, repetir, nanos / 1e3 / repetir);
+            }
+            if (parar) {
+                out.write("PARAR\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+        System.out.flush();
+        if (erros > 0) System.exit(1);
+    }
+
+    // {status, saida, erro}
+    private static String[] leResposta(InputStream in) throws IOException {
+        String cabecalho = ServidorCompilacao.leLinha(in);
+        if (cabecalho == null) throw new IOException("Servidor encerrou a conexao");
+        String[] partes = cabecalho.split(" ");
+        byte[] saida = in.readNBytes(Integer.parseInt(partes[1]));
+        byte[] erro = in.readNBytes(Integer.parseInt(partes[2]));
+        return new String[] {
+            partes[0], new String(saida, StandardCharsets.UTF_8), new String(erro, StandardCharsets.UTF_8)
+        };
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+// Resultado da compilacao de um arquivo no modo em lote
+class ResultadoCompilacao {
+    final Path arquivo;
+    final String saida; // tudo que a compilacao escreveria no System.out
+    final String erro;  // mensagem de erro (null se o programa e valido)
+    final int tokens;
+    final long bytes;
+    final List<Simbolo> simbolos; // TabelaSimbolos.getTodos() ao fim da analise
+    final ProgramaMVD programa;   // codigo gerado (null se a geracao nao foi pedida ou houve erro)
+    final boolean doCache;        // veio do CacheCompilacao, sem passar pelo lexico e sintatico
+
+    ResultadoCompilacao(Path arquivo, String saida, String erro, int tokens, long bytes) {
+        this(arquivo, saida, erro, tokens, bytes, new ArrayList<>(), null, false);
+    }
+
+    ResultadoCompilacao(Path arquivo, String saida, String erro, int tokens, long bytes,
+                        List<Simbolo> simbolos, ProgramaMVD programa, boolean doCache) {
+        this.arquivo = arquivo;
+        this.saida = saida;
+        this.erro = erro;
+        this.tokens = tokens;
+        this.bytes = bytes;
+        this.simbolos = simbolos;
+        this.programa = programa;
+        this.doCache = doCache;
+    }
+}
+
+// Compila varios arquivos em paralelo num ForkJoinPool. Cada tarefa tem seu proprio
+// lexico, tabela de simbolos e sintatico; os resultados sao impressos na ordem dos arquivos.
+public class CompiladorLote {
+    static final String ESTOURO_PILHA =
+            "Erro de compilacao: estouro da pilha da JVM (aninhamento profundo demais; use --iterativo)";
+
+    private final boolean mapeado;
+    private final boolean buffer;
+    private final ForkJoinPool pool;
+    private CacheCompilacao cache;
+    private boolean gerarCodigo;
+    private boolean otimizar;
+    private boolean pilhaExplicita;
+    private boolean listarCodigo;
+    private List<RegraPeephole> peephole;
+    private MetricasCompilacao metricas; // soma das metricas de cada arquivo compilado (null: nao mede)
+
+    public CompiladorLote(boolean mapeado, boolean buffer) {
+        this(mapeado, buffer, ForkJoinPool.commonPool());
+    }
+
+    public CompiladorLote(boolean mapeado, boolean buffer, ForkJoinPool pool) {
+        this.mapeado = mapeado;
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    // Expande arquivos, diretorios (recursivamente) e padroes glob como "testes_sintatico/sint1*.txt"
+    public static List<Path> expandir(List<String> caminhos) throws IOException {
+        TreeSet<Path> arquivos = new TreeSet<>();
+        for (String caminho : caminhos) {
+            if (ehGlob(caminho)) {
+                Path base = baseDoGlob(caminho);
+                PathMatcher padrao = FileSystems.getDefault().getPathMatcher("glob:" + caminho);
+                try (Stream<Path> s = Files.walk(base)) {
+                    s.filter(Files::isRegularFile).filter(padrao::matches).forEach(arquivos::add);
+                }
+            } else {
+                Path p = Path.of(caminho);
+                if (Files.isDirectory(p)) {
+                    try (Stream<Path> s = Files.walk(p)) {
+                        s.filter(Files::isRegularFile).forEach(arquivos::add);
+                    }
+                } else {
+                    arquivos.add(p);
+                }
+            }
+        }
+        return new ArrayList<>(arquivos);
+    }
+
+    private static boolean ehGlob(String caminho) {
+        return caminho.indexOf('*') >= 0 || caminho.indexOf('?') >= 0
+                || caminho.indexOf('[') >= 0 || caminho.indexOf('{') >= 0;
+    }
+
+    // Maior prefixo de diretorios sem caracteres de glob
+    private static Path baseDoGlob(String caminho) {
+        int fimBase = -1;
+        for (int i = 0; i < caminho.length(); i++) {
+            char c = caminho.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') break;
+            if (c == '/') fimBase = i;
+        }
+        return fimBase < 0 ? Path.of(".") : Path.of(caminho.substring(0, fimBase + 1));
+    }
+
+    // Usa o cache em disco: arquivos com o mesmo conteudo nao passam de novo pelo lexico e sintatico
+    public void setCache(CacheCompilacao cache) {
+        this.cache = cache;
+    }
+
+    // Tambem gera o codigo da MVD (opcionalmente depois do OtimizadorConstantes)
+    public void setGeracao(boolean gerarCodigo, boolean otimizar) {
+        this.gerarCodigo = gerarCodigo;
+        this.otimizar = otimizar;
+    }
+
+    // --mvd no lote: executar imprime o codigo de cada arquivo valido depois da saida dele,
+    // passando antes pelo OtimizadorPeephole quando 'peephole' nao e null
+    public void setListagem(boolean listarCodigo, List<RegraPeephole> peephole) {
+        this.listarCodigo = listarCodigo;
+        this.peephole = peephole;
+    }
+
+    // --iterativo: sintatico com pilha explicita (AnalisadorSintatico.setPilhaExplicita)
+    public void setPilhaExplicita(boolean pilhaExplicita) {
+        this.pilhaExplicita = pilhaExplicita;
+    }
+
+    // --stats: cada compilacao mede em sua propria instancia e soma nesta no fim
+    public void setMetricas(MetricasCompilacao metricas) {
+        this.metricas = metricas;
+    }
+
+    // Opcoes que mudam o resultado guardado no cache; -Dlpd.rastreio poe as mensagens de insercao
+    // da TabelaSimbolos na saida guardada
+    private String variante() {
+        return (gerarCodigo ? "mvd" : "") + (otimizar ? "+otimizar" : "")
+                + (MetricasCompilacao.RASTREIO ? "+rastreio" : "");
+    }
+
+    // Compila um arquivo isolado; nada aqui e compartilhado entre tarefas
+    ResultadoCompilacao compilar(Path arquivo) {
+        if (cache == null) return compilar(arquivo, null);
+        byte[] conteudo;
+        try {
+            conteudo = Files.readAllBytes(arquivo);
+        } catch (IOException e) {
+            return new ResultadoCompilacao(arquivo, "", "Erro ao ler o arquivo: " + e.getMessage(), 0, 0);
+        }
+        String chave = CacheCompilacao.chave(conteudo, variante());
+        ResultadoCompilacao r = cache.buscar(chave, arquivo);
+        if (r == null) {
+            r = compilar(arquivo, new String(conteudo, StandardCharsets.UTF_8).toCharArray(), conteudo.length);
+            // o estouro depende do -Xss e do modo do sintatico, nao do fonte: guardado, ele voltaria
+            // mesmo com --iterativo
+            if (r.erro != ESTOURO_PILHA) cache.guardar(chave, r);
+        }
+        return r;
+    }
+
+    // fonte != null: compila o texto ja em memoria (servidor de compilacao); 'arquivo' so identifica o resultado
+    ResultadoCompilacao compilar(Path arquivo, char[] fonte) {
+        return compilar(arquivo, fonte, fonte != null ? tamanhoUtf8(fonte) : 0);
+    }
+
+    // Mesmo que acima, com o tamanho em bytes do fonte que o chamador ja leu; assim 'bytes' do
+    // resultado e sempre o tamanho do arquivo, nao a quantidade de chars UTF-16
+    ResultadoCompilacao compilar(Path arquivo, char[] fonte, long bytesFonte) {
+        ByteArrayOutputStream bytesSaida = new ByteArrayOutputStream();
+        PrintStream saida = new PrintStream(bytesSaida, false, StandardCharsets.UTF_8);
+        String erro = null;
+        int tokens = 0;
+        long bytes = 0;
+        AnalisadorLexico lexico = null;
+        TabelaSimbolos tabela = null;
+        ProgramaMVD programa = null;
+        TabelaNomes nomes = new TabelaNomes();
+        MetricasCompilacao m = metricas != null ? new MetricasCompilacao() : null;
+        if (m != null) {
+            m.inicioMemoria();
+            m.inicioFase();
+        }
+        try {
+            if (fonte != null) {
+                bytes = bytesFonte;
+                lexico = new AnalisadorLexico(fonte, 0, fonte.length, new MapaLinhas(), nomes);
+            } else {
+                bytes = Files.size(arquivo);
+                lexico = new AnalisadorLexico(arquivo.toString(), mapeado, nomes);
+            }
+            tabela = new TabelaSimbolos(nomes);
+            tabela.setSaida(saida);
+            AnalisadorSintatico parser;
+            if (buffer || m != null) {
+                BufferTokens tokensLidos = lexico.tokenizar();
+                if (m != null) {
+                    m.fimFase("lexico");
+                    m.contaTokens(tokensLidos);
+                    tabela.setMetricas(m);
+                }
+                parser = new AnalisadorSintatico(tokensLidos, tabela);
+            } else {
+                parser = new AnalisadorSintatico(lexico, tabela);
+            }
+            parser.setSaida(saida);
+            parser.setPilhaExplicita(pilhaExplicita);
+            if (gerarCodigo) parser.setArvore(new ArvoreSintatica());
+            parser.analisaPrograma();
+            if (m != null) m.fimFase("sintatico");
+            saida.println("\nAnalise concluida. Tabela de Simbolos:");
+            tabela.imprimir();
+            if (gerarCodigo) {
+                if (m != null) m.inicioFase();
+                if (otimizar) {
+                    OtimizadorConstantes otimizador = new OtimizadorConstantes(parser.getArvore());
+                    int eliminados = otimizador.otimizar();
+                    if (m != null) m.fimFase("otimizacao");
+                    saida.println("\nOtimizacao: " + otimizador.getExpressoesDobradas() + " expressoes dobradas, "
+                            + otimizador.getDesviosRemovidos() + " 'se' e " + otimizador.getLacosRemovidos()
+                            + " 'enquanto' removidos, " + eliminados + " nos eliminados");
+                }
+                programa = new GeradorCodigo(parser.getArvore(), tabela).gerar();
+                if (m != null) m.fimFase("geracao");
+            }
+        } catch (IOException e) {
+            erro = "Erro ao ler o arquivo: " + e.getMessage();
+        } catch (RuntimeException e) {
+            erro = e.getMessage();
+        } catch (StackOverflowError e) {
+            // aninhamento fundo demais para a descida recursiva: so este arquivo falha
+            erro = ESTOURO_PILHA;
+        } finally {
+            if (lexico != null) {
+                tokens = lexico.getTotalTokens();
+                try {
+                    lexico.fechar();
+                } catch (IOException e) {
+                    // o resultado ja foi obtido; falha ao fechar nao muda o diagnostico
+                }
+            }
+            if (m != null) {
+                m.fimMemoria();
+                m.registraArquivo(tokens, bytes, nomes);
+                metricas.acumula(m);
+            }
+        }
+        saida.flush();
+        List<Simbolo> simbolos = tabela != null ? tabela.getTodos() : new ArrayList<>();
+        return new ResultadoCompilacao(arquivo, bytesSaida.toString(StandardCharsets.UTF_8), erro, tokens, bytes,
+                simbolos, programa, false);
+    }
+
+    // Tamanho de 'fonte' codificado em UTF-8, sem montar o array de bytes
+    static long tamanhoUtf8(char[] fonte) {
+        long n = 0;
+        for (int i = 0; i < fonte.length; i++) {
+            char c = fonte[i];
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < fonte.length && Character.isLowSurrogate(fonte[i + 1])) {
+                n += 4;
+                i++;
+            } else n += 3;
+        }
+        return n;
+    }
+
+    // Compila todos os arquivos e imprime os resultados em ordem; retorna a quantidade de arquivos com erro
+    public int executar(List<Path> arquivos, PrintStream out, PrintStream err) {
+        long inicio = System.nanoTime();
+        List<ForkJoinTask<ResultadoCompilacao>> tarefas = new ArrayList<>(arquivos.size());
+        for (Path arquivo : arquivos) {
+            tarefas.add(pool.submit(() -> compilar(arquivo)));
+        }
+
+        int erros = 0;
+        long tokens = 0;
+        long bytes = 0;
+        for (ForkJoinTask<ResultadoCompilacao> tarefa : tarefas) {
+            ResultadoCompilacao r = tarefa.join();
+            out.println("=== " + r.arquivo + " ===");
+            out.print(r.saida);
+            if (r.erro != null) {
+                err.println(r.arquivo + ": " + r.erro);
+                erros++;
+            } else if (listarCodigo && r.programa != null) {
+                listaCodigo(r.programa, out);
+            }
+            out.flush();
+            err.flush();
+            tokens += r.tokens;
+            bytes += r.bytes;
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        out.println();
+        out.printf("Arquivos: %d (%d validos, %d com erro)%n", arquivos.size(), arquivos.size() - erros, erros);
+        out.printf("Tokens: %d | Bytes: %d | Tempo: %.3f s%n", tokens, bytes, segundos);
+        out.printf("Vazao: %.1f arquivos/s, %.0f tokens/s%n",
+                arquivos.size() / segundos, tokens / segundos);
+        if (cache != null)
+            out.printf("Cache: %d acertos, %d falhas%n", cache.getAcertos(), cache.getFalhas());
+        return erros;
+    }
+
+    private void listaCodigo(ProgramaMVD programa, PrintStream out) {
+        if (peephole != null) {
+            OtimizadorPeephole otimizador = new OtimizadorPeephole(peephole);
+            programa = otimizador.otimizar(programa);
+            out.println("\nPeephole: " + otimizador.getInstrucoesAntes() + " -> "
+                    + otimizador.getInstrucoesDepois() + " instrucoes (" + otimizador.resumoAplicacoes() + ")");
+        }
+        out.println("\n=== Codigo MVD (" + programa.quantidadeInstrucoes() + " instrucoes) ===");
+        programa.imprimir(out);
+    }
+}
@@ -0,0 +1,852 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Gera uma classe da JVM a partir da arvore sintatica (a mesma entrada do GeradorCodigo) e a carrega
+// como classe oculta (Lookup.defineHiddenClass): o programa roda como bytecode e os lacos quentes sao
+// compilados pelo JIT. Cada sub-rotina vira um metodo estatico, 'se' e 'enquanto' viram desvios da
+// JVM e leia/escreva passam pelo EntradaSaidaMVD, como na MaquinaVirtual.
+//
+// Memoria igual a da MVD: cada endereco da TabelaSimbolos e um campo estatico 'm<endereco>', e o
+// metodo de um bloco salva o seu registro de ativacao (em variaveis locais da JVM) ao entrar e o
+// restaura ao sair, como ALLOC/DALLOC. Uma variavel que so o proprio bloco usa (nenhuma sub-rotina
+// aninhada a enxerga) vive numa variavel local da JVM, que o JIT mantem em registrador: ela comeca
+// com o valor do campo e e copiada para ele antes de cada chamada, entao mesmo ler uma variavel
+// antes de atribuir da o mesmo resultado que na MVD. O valor de uma funcao fica no campo do nome
+// dela: quem chama faz invokestatic e le o campo.
+public class GeradorBytecode {
+    static final String NOME_CLASSE = "ProgramaLPD";
+    static final String ENTRADA_SAIDA = "EntradaSaidaMVD";
+
+    private final ArvoreSintatica arvore;
+    private final TabelaSimbolos tabela;
+    private ArquivoClasse classe;
+    private boolean[] ehFuncao;      // por indice de simbolo
+    private boolean[] ehRotina;
+    private int[] dono;              // metodo do bloco que declara a variavel (-1: nao e variavel)
+    private boolean[] campo;         // variavel usada por sub-rotina aninhada: fica no campo
+    private int[] local;             // variavel local da JVM que guarda a variavel (-1: campo)
+    private int[] metodoRotina;      // metodo de cada sub-rotina, por indice de simbolo
+    private String[] nomesMetodos;
+    private boolean[] temChamada;    // por metodo
+    private int metodos;
+
+    // Metodo sendo gerado
+    private CodigoJVM codigo;
+    private int[] locaisAtuais;      // pares (local da JVM, endereco) das variaveis em local
+
+    public GeradorBytecode(ArvoreSintatica arvore, TabelaSimbolos tabela) {
+        this.arvore = arvore;
+        this.tabela = tabela;
+    }
+
+    public ProgramaJVM gerar() {
+        int n = tabela.tamanho();
+        ehFuncao = new boolean[n];
+        ehRotina = new boolean[n];
+        dono = new int[n];
+        campo = new boolean[n];
+        local = new int[n];
+        metodoRotina = new int[n];
+        Arrays.fill(dono, -1);
+        Arrays.fill(local, -1);
+        Arrays.fill(metodoRotina, -1);
+        int rotinas = 0;
+        for (int no = 0; no < arvore.tamanho(); no++) {
+            TipoNo tipo = arvore.tipo(no);
+            if (tipo == TipoNo.FUNCAO || tipo == TipoNo.PROCEDIMENTO) {
+                ehRotina[arvore.simbolo(no)] = true;
+                ehFuncao[arvore.simbolo(no)] = tipo == TipoNo.FUNCAO;
+                rotinas++;
+            }
+        }
+        nomesMetodos = new String[rotinas + 1];
+        temChamada = new boolean[rotinas + 1];
+        metodos = 1;
+        nomesMetodos[0] = "principal";
+        int raiz = arvore.raiz();
+        analisa(arvore.primeiroFilho(raiz), 0);
+
+        classe = new ArquivoClasse(NOME_CLASSE);
+        int memoria = tabela.getPicoEnderecos();
+        classe.campo(ArquivoClasse.ACC_PRIVATE | ArquivoClasse.ACC_STATIC, "es", "L" + ENTRADA_SAIDA + ";");
+        for (int a = 0; a < memoria; a++)
+            classe.campo(ArquivoClasse.ACC_PRIVATE | ArquivoClasse.ACC_STATIC, "m" + a, "I");
+        geraMetodo(arvore.primeiroFilho(raiz), 0);
+
+        // executar(es): zera a memoria (a classe pode ser executada de novo) e roda o programa
+        CodigoJVM c = new CodigoJVM(classe);
+        c.novaLocal();
+        c.operacao(CodigoJVM.ALOAD_0, 1);
+        c.campo(CodigoJVM.PUTSTATIC, classe.campoProprio("es", "L" + ENTRADA_SAIDA + ";"), -1);
+        for (int a = 0; a < memoria; a++) {
+            c.constante(0);
+            c.campo(CodigoJVM.PUTSTATIC, classe.campoProprio("m" + a, "I"), -1);
+        }
+        c.invoca(CodigoJVM.INVOKESTATIC, classe.metodoProprio("principal", "()V"), 0);
+        c.retorna();
+        classe.metodo(ArquivoClasse.ACC_PUBLIC | ArquivoClasse.ACC_STATIC, "executar",
+                "(L" + ENTRADA_SAIDA + ";)V", c);
+        return new ProgramaJVM(classe.bytes(), metodos);
+    }
+
+    // Primeira passada: numera os metodos e descobre que variaveis precisam ficar em campo (usadas
+    // fora do metodo do bloco que as declara) e que metodos fazem chamadas
+    private void analisa(int no, int metodo) {
+        TipoNo tipo = arvore.tipo(no);
+        int s = arvore.simbolo(no);
+        switch (tipo) {
+            case PROCEDIMENTO:
+            case FUNCAO: {
+                int id = metodos++;
+                metodoRotina[s] = id;
+                nomesMetodos[id] = tabela.get(s).getNome() + "$" + s;
+                for (int f = arvore.primeiroFilho(no); f >= 0; f = arvore.proximoIrmao(f)) analisa(f, id);
+                return;
+            }
+            case VARIAVEL:
+                if (s >= 0) dono[s] = metodo;
+                return;
+            case CHAMADA:
+                temChamada[metodo] = true;
+                return;
+            case IDENTIFICADOR:
+            case ESCREVA:
+            case ATRIBUICAO:
+            case LEIA:
+                if (s >= 0) {
+                    if (ehFuncao[s] && tipo != TipoNo.ATRIBUICAO && tipo != TipoNo.LEIA) temChamada[metodo] = true;
+                    else if (dono[s] != metodo) campo[s] = true;
+                }
+                break;
+            default:
+                break;
+        }
+        for (int f = arvore.primeiroFilho(no); f >= 0; f = arvore.proximoIrmao(f)) analisa(f, metodo);
+    }
+
+    // Metodo de um <bloco>: salva o registro de ativacao (variaveis e resultados das funcoes
+    // declaradas no bloco), comandos, restaura o registro
+    private void geraMetodo(int bloco, int metodo) {
+        int primeiro = Integer.MAX_VALUE;
+        int ultimo = -1;
+        for (int f = arvore.primeiroFilho(bloco); f >= 0; f = arvore.proximoIrmao(f)) {
+            TipoNo tipo = arvore.tipo(f);
+            if (tipo == TipoNo.DECLARACAO) {
+                for (int v = arvore.primeiroFilho(f); v >= 0; v = arvore.proximoIrmao(v)) {
+                    int endereco = tabela.get(arvore.simbolo(v)).getEndereco();
+                    primeiro = Math.min(primeiro, endereco);
+                    ultimo = Math.max(ultimo, endereco);
+                }
+            } else if (tipo == TipoNo.PROCEDIMENTO || tipo == TipoNo.FUNCAO) {
+                // as sub-rotinas aninhadas sao metodos independentes: gera antes deste
+                geraMetodo(arvore.primeiroFilho(f), metodoRotina[arvore.simbolo(f)]);
+                int endereco = tabela.get(arvore.simbolo(f)).getEndereco();
+                if (endereco >= 0) {
+                    primeiro = Math.min(primeiro, endereco);
+                    ultimo = Math.max(ultimo, endereco);
+                }
+            }
+        }
+        int quantidade = Math.max(0, ultimo - primeiro + 1);
+
+        // variavel de cada endereco do registro que fica em local da JVM (-1: fica no campo)
+        int[] variavel = new int[quantidade];
+        Arrays.fill(variavel, -1);
+        int emLocal = 0;
+        for (int f = arvore.primeiroFilho(bloco); f >= 0; f = arvore.proximoIrmao(f)) {
+            if (arvore.tipo(f) != TipoNo.DECLARACAO) continue;
+            for (int v = arvore.primeiroFilho(f); v >= 0; v = arvore.proximoIrmao(v)) {
+                int s = arvore.simbolo(v);
+                if (!campo[s]) {
+                    variavel[tabela.get(s).getEndereco() - primeiro] = s;
+                    emLocal++;
+                }
+            }
+        }
+
+        codigo = new CodigoJVM(classe);
+        locaisAtuais = new int[emLocal * 2];
+        int[] salvo = new int[quantidade];
+        int k = 0;
+        for (int i = 0; i < quantidade; i++) {
+            int endereco = primeiro + i;
+            int s = variavel[i];
+            salvo[i] = -1;
+            // O registro do programa principal nao precisa ser salvo: depois dele vem o HLT. Sem
+            // chamadas, o campo de uma variavel em local nunca muda e tambem nao precisa
+            boolean salva = metodo != 0 && (s < 0 || temChamada[metodo]);
+            if (!salva && s < 0) continue;
+            codigo.campo(CodigoJVM.GETSTATIC, classe.campoProprio("m" + endereco, "I"), 1);
+            if (salva) {
+                salvo[i] = codigo.novaLocal();
+                if (s >= 0) codigo.operacao(CodigoJVM.DUP, 1);
+                codigo.guardaLocal(salvo[i]);
+            }
+            if (s >= 0) {
+                local[s] = codigo.novaLocal();
+                codigo.guardaLocal(local[s]);
+                locaisAtuais[k++] = local[s];
+                locaisAtuais[k++] = endereco;
+            }
+        }
+
+        for (int f = arvore.primeiroFilho(bloco); f >= 0; f = arvore.proximoIrmao(f)) {
+            if (arvore.tipo(f) == TipoNo.COMANDOS) geraComando(f);
+        }
+
+        for (int i = 0; i < quantidade; i++) {
+            if (salvo[i] < 0) continue;
+            codigo.carregaLocal(salvo[i]);
+            codigo.campo(CodigoJVM.PUTSTATIC, classe.campoProprio("m" + (primeiro + i), "I"), -1);
+        }
+        codigo.retorna();
+        classe.metodo(ArquivoClasse.ACC_PRIVATE | ArquivoClasse.ACC_STATIC, nomesMetodos[metodo], "()V", codigo);
+    }
+
+    private void geraComando(int no) {
+        switch (arvore.tipo(no)) {
+            case COMANDOS:
+                for (int f = arvore.primeiroFilho(no); f >= 0; f = arvore.proximoIrmao(f)) geraComando(f);
+                break;
+            case ATRIBUICAO:
+                geraExpressao(arvore.primeiroFilho(no));
+                guarda(simbolo(no));
+                break;
+            case CHAMADA:
+                chama(no);
+                break;
+            case LEIA: {
+                Simbolo s = simbolo(no);
+                if (ehRotina[s.getIndice()])
+                    erro(no, "'" + s.getNome() + "' nao e uma variavel");
+                codigo.campo(CodigoJVM.GETSTATIC, classe.campoProprio("es", "L" + ENTRADA_SAIDA + ";"), 1);
+                codigo.invoca(CodigoJVM.INVOKEVIRTUAL, classe.metodoRef(ENTRADA_SAIDA, "leInteiro", "()I"), 0);
+                guarda(s);
+                break;
+            }
+            case ESCREVA:
+                codigo.campo(CodigoJVM.GETSTATIC, classe.campoProprio("es", "L" + ENTRADA_SAIDA + ";"), 1);
+                geraValor(no);
+                codigo.invoca(CodigoJVM.INVOKEVIRTUAL, classe.metodoRef(ENTRADA_SAIDA, "escreveInteiro", "(I)V"), -2);
+                break;
+            case SE: {
+                int condicao = arvore.primeiroFilho(no);
+                int entao = arvore.proximoIrmao(condicao);
+                int senao = arvore.proximoIrmao(entao);
+                int falso = codigo.novoRotulo();
+                geraCondicao(condicao, falso);
+                geraComando(entao);
+                if (senao >= 0) {
+                    int fim = codigo.novoRotulo();
+                    codigo.desvio(CodigoJVM.GOTO, fim);
+                    codigo.marca(falso);
+                    geraComando(senao);
+                    codigo.marca(fim);
+                } else {
+                    codigo.marca(falso);
+                }
+                break;
+            }
+            case ENQUANTO: {
+                int condicao = arvore.primeiroFilho(no);
+                int inicio = codigo.novoRotulo();
+                int fim = codigo.novoRotulo();
+                codigo.marca(inicio);
+                geraCondicao(condicao, fim);
+                geraComando(arvore.proximoIrmao(condicao));
+                codigo.desvio(CodigoJVM.GOTO, inicio);
+                codigo.marca(fim);
+                break;
+            }
+            default:
+                erro(no, "Comando inesperado: " + arvore.tipo(no));
+        }
+    }
+
+    // Desvia para 'falso' se a condicao for falsa (0); relacional vira um if_icmp direto
+    private void geraCondicao(int no, int falso) {
+        if (arvore.tipo(no) == TipoNo.BINARIO) {
+            int desvio = CodigoJVM.comparacao(arvore.valor(no));
+            if (desvio >= 0) {
+                int esquerda = arvore.primeiroFilho(no);
+                geraExpressao(esquerda);
+                geraExpressao(arvore.proximoIrmao(esquerda));
+                codigo.desvio(CodigoJVM.negacao(desvio), falso);
+                return;
+            }
+        }
+        geraExpressao(no);
+        codigo.desvio(CodigoJVM.IFEQ, falso);
+    }
+
+    private void geraExpressao(int no) {
+        switch (arvore.tipo(no)) {
+            case NUMERO:
+            case BOOLEANO:
+                codigo.constante(arvore.valor(no));
+                break;
+            case IDENTIFICADOR:
+                geraValor(no);
+                break;
+            case UNARIO: {
+                int op = arvore.valor(no);
+                if (op == TokenSimbolo.snao.ordinal()) {
+                    // 1 - x, como o NEG da MVD
+                    codigo.constante(1);
+                    geraExpressao(arvore.primeiroFilho(no));
+                    codigo.operacao(CodigoJVM.ISUB, -1);
+                } else {
+                    geraExpressao(arvore.primeiroFilho(no));
+                    if (op == TokenSimbolo.smenos.ordinal()) codigo.operacao(CodigoJVM.INEG, 0);
+                }
+                break;
+            }
+            case BINARIO: {
+                int esquerda = arvore.primeiroFilho(no);
+                geraExpressao(esquerda);
+                geraExpressao(arvore.proximoIrmao(esquerda));
+                geraOperador(arvore.valor(no));
+                break;
+            }
+            default:
+                erro(no, "Expressao inesperada: " + arvore.tipo(no));
+        }
+    }
+
+    // Os dois operandos estao na pilha. 'e'/'ou' valem 0 ou 1 e olham so se o operando e 0 (como
+    // AND/OR da MVD): um booleano lido com 'leia' pode ter outro valor
+    private void geraOperador(int op) {
+        if (op == TokenSimbolo.smais.ordinal()) codigo.operacao(CodigoJVM.IADD, -1);
+        else if (op == TokenSimbolo.smenos.ordinal()) codigo.operacao(CodigoJVM.ISUB, -1);
+        else if (op == TokenSimbolo.smultiplicacao.ordinal()) codigo.operacao(CodigoJVM.IMUL, -1);
+        else if (op == TokenSimbolo.sdiv.ordinal()) codigo.operacao(CodigoJVM.IDIV, -1);
+        else if (op == TokenSimbolo.se.ordinal()) {
+            int zeroComUm = codigo.novoRotulo();
+            int zero = codigo.novoRotulo();
+            int fim = codigo.novoRotulo();
+            codigo.desvio(CodigoJVM.IFEQ, zeroComUm);
+            codigo.desvio(CodigoJVM.IFEQ, zero);
+            codigo.constante(1);
+            codigo.desvio(CodigoJVM.GOTO, fim);
+            codigo.marca(zeroComUm);
+            codigo.operacao(CodigoJVM.POP, -1);
+            codigo.marca(zero);
+            codigo.constante(0);
+            codigo.marca(fim);
+        } else if (op == TokenSimbolo.sou.ordinal()) {
+            codigo.operacao(CodigoJVM.IOR, -1);
+            booleano(CodigoJVM.IFNE);
+        } else {
+            booleano(CodigoJVM.comparacao(op));
+        }
+    }
+
+    // 1 se o desvio 'opcode' for tomado, senao 0
+    private void booleano(int opcode) {
+        int verdadeiro = codigo.novoRotulo();
+        int fim = codigo.novoRotulo();
+        codigo.desvio(opcode, verdadeiro);
+        codigo.constante(0);
+        codigo.desvio(CodigoJVM.GOTO, fim);
+        codigo.marca(verdadeiro);
+        codigo.constante(1);
+        codigo.marca(fim);
+    }
+
+    // Empilha o valor de uma variavel, ou chama a funcao e empilha seu resultado
+    private void geraValor(int no) {
+        Simbolo s = simbolo(no);
+        if (ehFuncao[s.getIndice()]) {
+            chama(no);
+        } else if (ehRotina[s.getIndice()]) {
+            erro(no, "Procedimento '" + s.getNome() + "' usado como valor");
+        }
+        int l = local[s.getIndice()];
+        if (l >= 0) codigo.carregaLocal(l);
+        else codigo.campo(CodigoJVM.GETSTATIC, classe.campoProprio("m" + s.getEndereco(), "I"), 1);
+    }
+
+    private void guarda(Simbolo s) {
+        int l = local[s.getIndice()];
+        if (l >= 0) codigo.guardaLocal(l);
+        else codigo.campo(CodigoJVM.PUTSTATIC, classe.campoProprio("m" + s.getEndereco(), "I"), -1);
+    }
+
+    // Copia as variaveis em local para os campos (a sub-rotina chamada ve a memoria como na MVD) e chama
+    private void chama(int no) {
+        Simbolo s = simbolo(no);
+        int metodo = metodoRotina[s.getIndice()];
+        if (metodo < 0)
+            erro(no, "'" + s.getNome() + "' nao e uma sub-rotina");
+        for (int i = 0; i < locaisAtuais.length; i += 2) {
+            codigo.carregaLocal(locaisAtuais[i]);
+            codigo.campo(CodigoJVM.PUTSTATIC, classe.campoProprio("m" + locaisAtuais[i + 1], "I"), -1);
+        }
+        codigo.invoca(CodigoJVM.INVOKESTATIC, classe.metodoProprio(nomesMetodos[metodo], "()V"), 0);
+    }
+
+    private Simbolo simbolo(int no) {
+        return tabela.get(arvore.simbolo(no)); // o sintatico ja recusou nomes nao declarados
+    }
+
+    private void erro(int no, String msg) {
+        throw new RuntimeException("Erro de geracao de codigo na linha " + arvore.linha(no) + ": " + msg);
+    }
+}
+
+// Programa LPD carregado como classe oculta. Uma execucao por vez: a memoria sao campos estaticos
+class ProgramaJVM {
+    // A pilha de chamadas do LPD e a da JVM: a execucao roda numa thread com pilha grande, para a
+    // profundidade de recursao ficar perto da que a pilha de 1M posicoes da MaquinaVirtual permite
+    private static final long TAMANHO_PILHA = 256L << 20;
+
+    private final MethodHandle executar;
+    private final int tamanhoClasse;
+    private final int metodos;
+
+    ProgramaJVM(byte[] bytes, int metodos) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            executar = lookup.findStatic(lookup.lookupClass(), "executar",
+                    MethodType.methodType(void.class, EntradaSaidaMVD.class));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Classe gerada invalida", e);
+        }
+        this.tamanhoClasse = bytes.length;
+        this.metodos = metodos;
+    }
+
+    public int getTamanhoClasse() { return tamanhoClasse; }
+    public int getMetodos() { return metodos; }
+
+    public void executar(InputStream entrada, OutputStream saida) throws IOException {
+        EntradaSaidaMVD es = new EntradaSaidaMVD(entrada, saida);
+        Throwable[] falha = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                executar.invokeExact(es);
+            } catch (Throwable e) {
+                falha[0] = e;
+            }
+        }, "lpd", TAMANHO_PILHA);
+        thread.start();
+        boolean interrompido = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrompido = true;
+            }
+        }
+        if (interrompido) Thread.currentThread().interrupt();
+        es.descarrega();
+
+        Throwable e = falha[0];
+        if (e == null) return;
+        if (e instanceof ArithmeticException)
+            throw new RuntimeException("Erro de execucao: divisao por zero");
+        if (e instanceof StackOverflowError)
+            throw new RuntimeException("Erro de execucao: estouro da pilha");
+        if (e instanceof IOException io) throw io;
+        if (e instanceof RuntimeException r) throw r;
+        if (e instanceof Error r) throw r;
+        throw new IllegalStateException(e);
+    }
+}
+
+// Escritor de arquivo .class: pool de constantes, campos e metodos. So o necessario para o
+// GeradorBytecode (sem interfaces, excecoes nem atributos de depuracao)
+class ArquivoClasse {
+    static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+    private static final int VERSAO = 52; // Java 8: exige StackMapTable
+
+    private final ByteArrayOutputStream bytesPool = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(bytesPool);
+    private final Map<String, Integer> constantes = new HashMap<>();
+    private int quantidadeConstantes = 1;
+    private final ByteArrayOutputStream bytesCampos = new ByteArrayOutputStream();
+    private final DataOutputStream campos = new DataOutputStream(bytesCampos);
+    private final ByteArrayOutputStream bytesMetodos = new ByteArrayOutputStream();
+    private final DataOutputStream metodos = new DataOutputStream(bytesMetodos);
+    private int quantidadeCampos;
+    private int quantidadeMetodos;
+    private final String nome;
+    private final int esta;
+    private final int superClasse;
+    private final int codeAtributo;
+    private final int stackMapAtributo;
+
+    ArquivoClasse(String nome) {
+        this.nome = nome;
+        esta = classe(nome);
+        superClasse = classe("java/lang/Object");
+        codeAtributo = utf8("Code");
+        stackMapAtributo = utf8("StackMapTable");
+    }
+
+    // Cada constante entra uma vez; 'chave' identifica o tipo e o conteudo
+    private int constante(String chave, int tag, int a, int b) {
+        Integer indice = constantes.get(chave);
+        if (indice != null) return indice;
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(a);
+            if (tag != 7) pool.writeShort(b);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        constantes.put(chave, quantidadeConstantes);
+        return quantidadeConstantes++;
+    }
+
+    int utf8(String s) {
+        Integer indice = constantes.get("U" + s);
+        if (indice != null) return indice;
+        try {
+            pool.writeByte(1);
+            pool.writeUTF(s); // UTF-8 modificado com o comprimento em u2, como no formato .class
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        constantes.put("U" + s, quantidadeConstantes);
+        return quantidadeConstantes++;
+    }
+
+    int inteiro(int v) {
+        return constante("I" + v, 3, v >>> 16, v & 0xFFFF);
+    }
+
+    int classe(String nome) {
+        return constante("C" + nome, 7, utf8(nome), 0);
+    }
+
+    private int nomeTipo(String nome, String descritor) {
+        return constante("N" + nome + " " + descritor, 12, utf8(nome), utf8(descritor));
+    }
+
+    int campoRef(String dono, String nome, String descritor) {
+        return constante("F" + dono + "." + nome, 9, classe(dono), nomeTipo(nome, descritor));
+    }
+
+    int metodoRef(String dono, String nome, String descritor) {
+        return constante("M" + dono + "." + nome + descritor, 10, classe(dono), nomeTipo(nome, descritor));
+    }
+
+    int campoProprio(String nome, String descritor) {
+        return campoRef(this.nome, nome, descritor);
+    }
+
+    int metodoProprio(String nome, String descritor) {
+        return metodoRef(this.nome, nome, descritor);
+    }
+
+    void campo(int acesso, String nome, String descritor) {
+        try {
+            campos.writeShort(acesso);
+            campos.writeShort(utf8(nome));
+            campos.writeShort(utf8(descritor));
+            campos.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        quantidadeCampos++;
+    }
+
+    void metodo(int acesso, String nome, String descritor, CodigoJVM codigo) {
+        try {
+            metodos.writeShort(acesso);
+            metodos.writeShort(utf8(nome));
+            metodos.writeShort(utf8(descritor));
+            metodos.writeShort(1);
+            codigo.escreveAtributo(metodos, codeAtributo, stackMapAtributo, nome);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        quantidadeMetodos++;
+    }
+
+    byte[] bytes() {
+        if (quantidadeConstantes > 0xFFFF)
+            throw new RuntimeException("Erro de geracao de codigo: programa grande demais para uma classe da JVM");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream saida = new DataOutputStream(bytes);
+        try {
+            saida.writeInt(0xCAFEBABE);
+            saida.writeShort(0);
+            saida.writeShort(VERSAO);
+            saida.writeShort(quantidadeConstantes);
+            bytesPool.writeTo(saida);
+            saida.writeShort(ACC_FINAL | ACC_SUPER);
+            saida.writeShort(esta);
+            saida.writeShort(superClasse);
+            saida.writeShort(0); // interfaces
+            saida.writeShort(quantidadeCampos);
+            bytesCampos.writeTo(saida);
+            saida.writeShort(quantidadeMetodos);
+            bytesMetodos.writeTo(saida);
+            saida.writeShort(0); // atributos da classe
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
+
+// Bytecode de um metodo. Todas as variaveis locais sao int e recebem valor antes do primeiro desvio,
+// entao o quadro da StackMapTable em cada rotulo e so "locais int + N ints na pilha": a altura da
+// pilha e acompanhada instrucao a instrucao e registrada em cada rotulo
+class CodigoJVM {
+    static final int ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19;
+    static final int ILOAD = 21, ALOAD_0 = 42, ISTORE = 54, POP = 87, DUP = 89;
+    static final int IADD = 96, ISUB = 100, IMUL = 104, IDIV = 108, INEG = 116, IOR = 128;
+    static final int IFEQ = 153, IFNE = 154, IF_ICMPEQ = 159, IF_ICMPNE = 160, IF_ICMPLT = 161;
+    static final int IF_ICMPGE = 162, IF_ICMPGT = 163, IF_ICMPLE = 164, GOTO = 167, RETURN = 177;
+    static final int GETSTATIC = 178, PUTSTATIC = 179, INVOKEVIRTUAL = 182, INVOKESTATIC = 184, WIDE = 196;
+    // Desvios usam deslocamento de 16 bits com sinal, o que limita o metodo a 32 KB. Nao vale usar
+    // goto_w: o JIT nem compila metodos com mais de 8000 bytes (HugeMethodLimit)
+    private static final int MAXIMO_DESVIO = 0x7FFF;
+
+    // TokenSimbolo do operador relacional -> if_icmp que desvia quando a comparacao vale
+    private static final int[] COMPARACAO = new int[TokenSimbolo.VALORES.length];
+
+    static {
+        Arrays.fill(COMPARACAO, -1);
+        COMPARACAO[TokenSimbolo.sigual.ordinal()] = IF_ICMPEQ;
+        COMPARACAO[TokenSimbolo.sdiferente.ordinal()] = IF_ICMPNE;
+        COMPARACAO[TokenSimbolo.smenor.ordinal()] = IF_ICMPLT;
+        COMPARACAO[TokenSimbolo.smenor_ig.ordinal()] = IF_ICMPLE;
+        COMPARACAO[TokenSimbolo.smaior.ordinal()] = IF_ICMPGT;
+        COMPARACAO[TokenSimbolo.smaior_ig.ordinal()] = IF_ICMPGE;
+    }
+
+    static int comparacao(int operador) {
+        return COMPARACAO[operador];
+    }
+
+    // if_icmp com a condicao contraria (eq/ne, lt/ge e gt/le sao pares vizinhos)
+    static int negacao(int desvio) {
+        return desvio == IF_ICMPEQ || desvio == IF_ICMPLT || desvio == IF_ICMPGT ? desvio + 1 : desvio - 1;
+    }
+
+    private final ArquivoClasse classe;
+    private byte[] codigo = new byte[256];
+    private int tamanho;
+    private int pilha;          // altura atual; -1 depois de goto/return (codigo inalcancavel)
+    private int maximoPilha;
+    private int locais;
+
+    private int[] posicaoRotulo = new int[16];
+    private int[] pilhaRotulo = new int[16];
+    private int rotulos;
+    private int[] desvios = new int[32];  // pares (posicao da instrucao, rotulo)
+    private int quantidadeDesvios;
+    private int[] quadros = new int[32];  // pares (posicao, altura da pilha), em ordem
+    private int quantidadeQuadros;
+
+    CodigoJVM(ArquivoClasse classe) {
+        this.classe = classe;
+    }
+
+    int novaLocal() {
+        return locais++;
+    }
+
+    int novoRotulo() {
+        if (rotulos == posicaoRotulo.length) {
+            posicaoRotulo = Arrays.copyOf(posicaoRotulo, rotulos * 2);
+            pilhaRotulo = Arrays.copyOf(pilhaRotulo, rotulos * 2);
+        }
+        posicaoRotulo[rotulos] = -1;
+        pilhaRotulo[rotulos] = -1;
+        return rotulos++;
+    }
+
+    // O rotulo aponta para a proxima instrucao
+    void marca(int rotulo) {
+        if (pilha < 0) pilha = pilhaRotulo[rotulo];
+        if (pilha < 0 || (pilhaRotulo[rotulo] >= 0 && pilhaRotulo[rotulo] != pilha))
+            throw new IllegalStateException("Altura da pilha inconsistente no rotulo " + rotulo);
+        pilhaRotulo[rotulo] = pilha;
+        posicaoRotulo[rotulo] = tamanho;
+        if (quantidadeQuadros > 0 && quadros[quantidadeQuadros * 2 - 2] == tamanho) return;
+        if (quantidadeQuadros * 2 == quadros.length) quadros = Arrays.copyOf(quadros, quadros.length * 2);
+        quadros[quantidadeQuadros * 2] = tamanho;
+        quadros[quantidadeQuadros * 2 + 1] = pilha;
+        quantidadeQuadros++;
+    }
+
+    void desvio(int opcode, int rotulo) {
+        if (opcode >= IF_ICMPEQ && opcode <= IF_ICMPLE) ajustaPilha(-2);
+        else if (opcode != GOTO) ajustaPilha(-1);
+        if (pilhaRotulo[rotulo] < 0) pilhaRotulo[rotulo] = pilha;
+        else if (pilhaRotulo[rotulo] != pilha)
+            throw new IllegalStateException("Altura da pilha inconsistente no rotulo " + rotulo);
+        if (quantidadeDesvios * 2 == desvios.length) desvios = Arrays.copyOf(desvios, desvios.length * 2);
+        desvios[quantidadeDesvios * 2] = tamanho;
+        desvios[quantidadeDesvios * 2 + 1] = rotulo;
+        quantidadeDesvios++;
+        u1(opcode);
+        u2(0);
+        if (opcode == GOTO) pilha = -1;
+    }
+
+    void operacao(int opcode, int efeito) {
+        u1(opcode);
+        ajustaPilha(efeito);
+    }
+
+    void constante(int v) {
+        if (v >= -1 && v <= 5) {
+            u1(ICONST_0 + v);
+        } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+            u1(BIPUSH);
+            u1(v);
+        } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+            u1(SIPUSH);
+            u2(v);
+        } else {
+            int indice = classe.inteiro(v);
+            if (indice < 256) {
+                u1(LDC);
+                u1(indice);
+            } else {
+                u1(LDC_W);
+                u2(indice);
+            }
+        }
+        ajustaPilha(1);
+    }
+
+    void carregaLocal(int i) {
+        local(ILOAD, i);
+        ajustaPilha(1);
+    }
+
+    void guardaLocal(int i) {
+        local(ISTORE, i);
+        ajustaPilha(-1);
+    }
+
+    // iload/istore: forma curta para 0..3, u1 ate 255, wide acima
+    private void local(int opcode, int i) {
+        if (i <= 3) {
+            u1(opcode + 5 + i);
+        } else if (i <= 255) {
+            u1(opcode);
+            u1(i);
+        } else {
+            u1(WIDE);
+            u1(opcode);
+            u2(i);
+        }
+    }
+
+    void campo(int opcode, int referencia, int efeito) {
+        u1(opcode);
+        u2(referencia);
+        ajustaPilha(efeito);
+    }
+
+    void invoca(int opcode, int referencia, int efeito) {
+        u1(opcode);
+        u2(referencia);
+        ajustaPilha(efeito);
+    }
+
+    void retorna() {
+        u1(RETURN);
+        pilha = -1;
+    }
+
+    private void ajustaPilha(int efeito) {
+        pilha += efeito;
+        if (pilha > maximoPilha) maximoPilha = pilha;
+    }
+
+    private void u1(int v) {
+        if (tamanho == codigo.length) codigo = Arrays.copyOf(codigo, codigo.length * 2);
+        codigo[tamanho++] = (byte) v;
+    }
+
+    private void u2(int v) {
+        u1(v >> 8);
+        u1(v);
+    }
+
+    // Atributo Code (com a StackMapTable) do metodo 'nome'
+    void escreveAtributo(DataOutputStream saida, int codeAtributo, int stackMapAtributo, String nome)
+            throws IOException {
+        if (tamanho > MAXIMO_DESVIO)
+            throw new RuntimeException("Erro de geracao de codigo: sub-rotina '" + nome
+                    + "' grande demais para um metodo da JVM (" + tamanho + " bytes)");
+        for (int i = 0; i < quantidadeDesvios; i++) {
+            int posicao = desvios[i * 2];
+            int deslocamento = posicaoRotulo[desvios[i * 2 + 1]] - posicao;
+            codigo[posicao + 1] = (byte) (deslocamento >> 8);
+            codigo[posicao + 2] = (byte) deslocamento;
+        }
+
+        ByteArrayOutputStream bytesQuadros = new ByteArrayOutputStream();
+        DataOutputStream q = new DataOutputStream(bytesQuadros);
+        int anterior = -1;
+        boolean mesmosLocais = locais == 0; // o quadro inicial de um metodo ()V nao tem locais
+        for (int i = 0; i < quantidadeQuadros; i++) {
+            int posicao = quadros[i * 2];
+            int altura = quadros[i * 2 + 1];
+            int delta = posicao - anterior - 1;
+            anterior = posicao;
+            if (mesmosLocais && altura == 0) {
+                if (delta < 64) {
+                    q.writeByte(delta);                  // same_frame
+                } else {
+                    q.writeByte(251);                    // same_frame_extended
+                    q.writeShort(delta);
+                }
+            } else if (mesmosLocais && altura == 1) {
+                if (delta < 64) {
+                    q.writeByte(64 + delta);             // same_locals_1_stack_item_frame
+                } else {
+                    q.writeByte(247);
+                    q.writeShort(delta);
+                }
+                q.writeByte(1);                          // ITEM_Integer
+            } else {
+                q.writeByte(255);                        // full_frame
+                q.writeShort(delta);
+                q.writeShort(locais);
+                for (int l = 0; l < locais; l++) q.writeByte(1);
+                q.writeShort(altura);
+                for (int p = 0; p < altura; p++) q.writeByte(1);
+            }
+            mesmosLocais = true;
+        }
+
+        int tamanhoQuadros = quantidadeQuadros > 0 ? 8 + bytesQuadros.size() : 0;
+        saida.writeShort(codeAtributo);
+        saida.writeInt(12 + tamanho + tamanhoQuadros);
+        saida.writeShort(maximoPilha);
+        saida.writeShort(locais);
+        saida.writeInt(tamanho);
+        saida.write(codigo, 0, tamanho);
+        saida.writeShort(0); // tabela de excecoes
+        saida.writeShort(quantidadeQuadros > 0 ? 1 : 0);
+        if (quantidadeQuadros > 0) {
+            saida.writeShort(stackMapAtributo);
+            saida.writeInt(2 + bytesQuadros.size());
+            saida.writeShort(quantidadeQuadros);
+            bytesQuadros.writeTo(saida);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import java.util.Arrays;
+
+// Gera codigo da MVD a partir da arvore sintatica (AnalisadorSintatico com setArvore).
+// Cada variavel usa o endereco que a TabelaSimbolos lhe deu; cada bloco salva o seu registro
+// de ativacao com ALLOC na entrada e restaura com DALLOC na saida, o que permite recursao e
+// deixa sub-rotinas irmas usarem os mesmos enderecos.
+// O valor de uma funcao fica no endereco do proprio nome da funcao: 'f := e' grava nele
+// e quem chama faz CALL f seguido de LDV desse endereco. Esse endereco e do registro do bloco
+// que declara a funcao (e salvo junto com as variaveis dele).
+public class GeradorCodigo {
+    // TokenSimbolo do operador -> instrucao da MVD
+    private static final int[] OPERACAO = new int[TokenSimbolo.VALORES.length];
+
+    static {
+        Arrays.fill(OPERACAO, -1);
+        OPERACAO[TokenSimbolo.smais.ordinal()] = ProgramaMVD.ADD;
+        OPERACAO[TokenSimbolo.smenos.ordinal()] = ProgramaMVD.SUB;
+        OPERACAO[TokenSimbolo.smultiplicacao.ordinal()] = ProgramaMVD.MULT;
+        OPERACAO[TokenSimbolo.sdiv.ordinal()] = ProgramaMVD.DIVI;
+        OPERACAO[TokenSimbolo.se.ordinal()] = ProgramaMVD.AND;
+        OPERACAO[TokenSimbolo.sou.ordinal()] = ProgramaMVD.OR;
+        OPERACAO[TokenSimbolo.smenor.ordinal()] = ProgramaMVD.CME;
+        OPERACAO[TokenSimbolo.smaior.ordinal()] = ProgramaMVD.CMA;
+        OPERACAO[TokenSimbolo.sigual.ordinal()] = ProgramaMVD.CEQ;
+        OPERACAO[TokenSimbolo.sdiferente.ordinal()] = ProgramaMVD.CDIF;
+        OPERACAO[TokenSimbolo.smenor_ig.ordinal()] = ProgramaMVD.CMEQ;
+        OPERACAO[TokenSimbolo.smaior_ig.ordinal()] = ProgramaMVD.CMAQ;
+    }
+
+    private final ArvoreSintatica arvore;
+    private final TabelaSimbolos tabela;
+    private ProgramaMVD programa;
+    private boolean[] ehFuncao;   // por indice de simbolo
+    private boolean[] ehRotina;   // procedimento ou funcao
+    private int[] inicioRotina;   // posicao do codigo de cada sub-rotina, por indice de simbolo
+
+    public GeradorCodigo(ArvoreSintatica arvore, TabelaSimbolos tabela) {
+        this.arvore = arvore;
+        this.tabela = tabela;
+    }
+
+    public ProgramaMVD gerar() {
+        programa = new ProgramaMVD();
+        int n = tabela.tamanho();
+        ehFuncao = new boolean[n];
+        ehRotina = new boolean[n];
+        inicioRotina = new int[n];
+        Arrays.fill(inicioRotina, -1);
+        for (int no = 0; no < arvore.tamanho(); no++) {
+            TipoNo tipo = arvore.tipo(no);
+            if (tipo == TipoNo.FUNCAO || tipo == TipoNo.PROCEDIMENTO) {
+                ehRotina[arvore.simbolo(no)] = true;
+                ehFuncao[arvore.simbolo(no)] = tipo == TipoNo.FUNCAO;
+            }
+        }
+        programa.setMemoriaDados(tabela.getPicoEnderecos());
+
+        int raiz = arvore.raiz();
+        programa.emite(ProgramaMVD.START);
+        geraBloco(arvore.primeiroFilho(raiz));
+        programa.emite(ProgramaMVD.HLT);
+        return programa;
+    }
+
+    // <bloco>: ALLOC do registro de ativacao (variaveis e resultados das funcoes declaradas no
+    // bloco, enderecos seguidos), sub-rotinas (puladas por um JMP), comandos, DALLOC
+    private void geraBloco(int bloco) {
+        int primeiro = Integer.MAX_VALUE;
+        int ultimo = -1;
+        boolean temRotinas = false;
+        for (int f = arvore.primeiroFilho(bloco); f >= 0; f = arvore.proximoIrmao(f)) {
+            if (arvore.tipo(f) == TipoNo.DECLARACAO) {
+                for (int v = arvore.primeiroFilho(f); v >= 0; v = arvore.proximoIrmao(v)) {
+                    int endereco = tabela.get(arvore.simbolo(v)).getEndereco();
+                    primeiro = Math.min(primeiro, endereco);
+                    ultimo = Math.max(ultimo, endereco);
+                }
+            } else if (arvore.tipo(f) != TipoNo.COMANDOS) {
+                temRotinas = true;
+                int endereco = tabela.get(arvore.simbolo(f)).getEndereco();
+                if (endereco >= 0) {
+                    primeiro = Math.min(primeiro, endereco);
+                    ultimo = Math.max(ultimo, endereco);
+                }
+            }
+        }
+        int quantidade = ultimo - primeiro + 1;
+        if (quantidade > 0) programa.emite(ProgramaMVD.ALLOC, primeiro, quantidade);
+
+        int salto = temRotinas ? programa.emite(ProgramaMVD.JMP, -1) : -1;
+        for (int f = arvore.primeiroFilho(bloco); f >= 0; f = arvore.proximoIrmao(f)) {
+            TipoNo tipo = arvore.tipo(f);
+            if (tipo == TipoNo.PROCEDIMENTO || tipo == TipoNo.FUNCAO) {
+                inicioRotina[arvore.simbolo(f)] = programa.posicao();
+                geraBloco(arvore.primeiroFilho(f));
+                programa.emite(ProgramaMVD.RETURN);
+            }
+        }
+        if (salto >= 0) programa.corrige(salto, programa.posicao());
+
+        for (int f = arvore.primeiroFilho(bloco); f >= 0; f = arvore.proximoIrmao(f)) {
+            if (arvore.tipo(f) == TipoNo.COMANDOS) geraComando(f);
+        }
+        if (quantidade > 0) programa.emite(ProgramaMVD.DALLOC, primeiro, quantidade);
+    }
+
+    private void geraComando(int no) {
+        switch (arvore.tipo(no)) {
+            case COMANDOS:
+                for (int f = arvore.primeiroFilho(no); f >= 0; f = arvore.proximoIrmao(f)) geraComando(f);
+                break;
+            case ATRIBUICAO:
+                geraExpressao(arvore.primeiroFilho(no));
+                programa.emite(ProgramaMVD.STR, endereco(no));
+                break;
+            case CHAMADA:
+                programa.emite(ProgramaMVD.CALL, rotina(no));
+                break;
+            case LEIA: {
+                Simbolo s = simbolo(no);
+                if (ehRotina[s.getIndice()])
+                    erro(no, "'" + s.getNome() + "' nao e uma variavel");
+                programa.emite(ProgramaMVD.RD);
+                programa.emite(ProgramaMVD.STR, s.getEndereco());
+                break;
+            }
+            case ESCREVA:
+                geraValor(no);
+                programa.emite(ProgramaMVD.PRN);
+                break;
+            case SE: {
+                int condicao = arvore.primeiroFilho(no);
+                int entao = arvore.proximoIrmao(condicao);
+                int senao = arvore.proximoIrmao(entao);
+                geraExpressao(condicao);
+                int desvio = programa.emite(ProgramaMVD.JMPF, -1);
+                geraComando(entao);
+                if (senao >= 0) {
+                    int fim = programa.emite(ProgramaMVD.JMP, -1);
+                    programa.corrige(desvio, programa.posicao());
+                    geraComando(senao);
+                    programa.corrige(fim, programa.posicao());
+                } else {
+                    programa.corrige(desvio, programa.posicao());
+                }
+                break;
+            }
+            case ENQUANTO: {
+                int condicao = arvore.primeiroFilho(no);
+                int inicio = programa.posicao();
+                geraExpressao(condicao);
+                int desvio = programa.emite(ProgramaMVD.JMPF, -1);
+                geraComando(arvore.proximoIrmao(condicao));
+                programa.emite(ProgramaMVD.JMP, inicio);
+                programa.corrige(desvio, programa.posicao());
+                break;
+            }
+            default:
+                erro(no, "Comando inesperado: " + arvore.tipo(no));
+        }
+    }
+
+    private void geraExpressao(int no) {
+        switch (arvore.tipo(no)) {
+            case NUMERO:
+            case BOOLEANO:
+                programa.emite(ProgramaMVD.LDC, arvore.valor(no));
+                break;
+            case IDENTIFICADOR:
+                geraValor(no);
+                break;
+            case UNARIO: {
+                geraExpressao(arvore.primeiroFilho(no));
+                int op = arvore.valor(no);
+                if (op == TokenSimbolo.smenos.ordinal()) programa.emite(ProgramaMVD.INV);
+                else if (op == TokenSimbolo.snao.ordinal()) programa.emite(ProgramaMVD.NEG);
+                break;
+            }
+            case BINARIO: {
+                int esquerda = arvore.primeiroFilho(no);
+                geraExpressao(esquerda);
+                geraExpressao(arvore.proximoIrmao(esquerda));
+                programa.emite(OPERACAO[arvore.valor(no)]);
+                break;
+            }
+            default:
+                erro(no, "Expressao inesperada: " + arvore.tipo(no));
+        }
+    }
+
+    // Empilha o valor de uma variavel, ou chama a funcao e empilha seu resultado
+    private void geraValor(int no) {
+        Simbolo s = simbolo(no);
+        if (ehFuncao[s.getIndice()]) {
+            programa.emite(ProgramaMVD.CALL, rotina(no));
+        } else if (ehRotina[s.getIndice()]) {
+            erro(no, "Procedimento '" + s.getNome() + "' usado como valor");
+        }
+        programa.emite(ProgramaMVD.LDV, s.getEndereco());
+    }
+
+    private Simbolo simbolo(int no) {
+        return tabela.get(arvore.simbolo(no)); // o sintatico ja recusou nomes nao declarados
+    }
+
+    private int endereco(int no) {
+        return simbolo(no).getEndereco();
+    }
+
+    private int rotina(int no) {
+        Simbolo s = simbolo(no);
+        int inicio = inicioRotina[s.getIndice()];
+        if (inicio < 0)
+            erro(no, "'" + s.getNome() + "' nao e uma sub-rotina");
+        return inicio;
+    }
+
+    private void erro(int no, String msg) {
+        throw new RuntimeException("Erro de geracao de codigo na linha " + arvore.linha(no) + ": " + msg);
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+// Gera programas LPD validos de tamanho configuravel, para benchmarks e testes de carga.
+// Os programas sempre terminam: cada 'enquanto' tem um contador proprio com poucas iteracoes,
+// sub-rotinas so chamam sub-rotinas declaradas antes e 'div' so divide por constantes.
+public class GeradorLPD {
+    private final long tamanhoAlvo;    // tamanho aproximado do programa em bytes
+    private final int procedimentos;   // quantidade de sub-rotinas (1 em cada 4 e funcao)
+    private final int profundidade;    // aninhamento maximo de se/enquanto/inicio
+    private final int complexidade;    // operadores por expressao
+    private final Random aleatorio;
+
+    private StringBuilder saida;
+    private int rotinaAtual;
+    private boolean[] ehFuncao;
+
+    public GeradorLPD(long tamanhoAlvo, int procedimentos, int profundidade, int complexidade, long semente) {
+        this.tamanhoAlvo = tamanhoAlvo;
+        this.procedimentos = Math.max(1, procedimentos);
+        this.profundidade = Math.max(0, profundidade);
+        this.complexidade = Math.max(0, complexidade);
+        this.aleatorio = new Random(semente);
+    }
+
+    public String gerar() {
+        StringBuilder sb = new StringBuilder((int) Math.min(tamanhoAlvo + 4096, Integer.MAX_VALUE - 8));
+        gerar(sb);
+        return sb.toString();
+    }
+
+    public void gerar(Path arquivo) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder(1 << 16);
+            gerar(sb, w);
+        }
+    }
+
+    private void gerar(StringBuilder sb) {
+        try {
+            gerar(sb, null);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // nao acontece sem escritor
+        }
+    }
+
+    // Com escritor != null o texto e despejado aos pedacos, em memoria constante
+    private void gerar(StringBuilder sb, BufferedWriter w) throws IOException {
+        saida = sb;
+        ehFuncao = new boolean[procedimentos];
+        long escrito = 0;
+
+        sb.append("{programa gerado: ").append(procedimentos).append(" sub-rotinas, profundidade ")
+          .append(profundidade).append(", complexidade ").append(complexidade).append("}\n");
+        sb.append("programa gerado;\n");
+        sb.append("var g0, g1, g2, g3: inteiro;\n    gb0: booleano;\n\n");
+
+        for (int i = 0; i < procedimentos; i++) {
+            rotinaAtual = i;
+            ehFuncao[i] = i % 4 == 3;
+            long alvoRotina = tamanhoAlvo * (i + 1) / procedimentos;
+            if (ehFuncao[i]) geraFuncao(i, alvoRotina - escrito);
+            else geraProcedimento(i, alvoRotina - escrito);
+            if (w != null) {
+                escrito += sb.length();
+                w.append(sb);
+                sb.setLength(0);
+            } else {
+                escrito = sb.length();
+            }
+        }
+
+        rotinaAtual = procedimentos;
+        sb.append("inicio\n");
+        sb.append("  g0 := 0; g1 := 1; g2 := 2; g3 := 3; gb0 := verdadeiro");
+        for (int i = 0; i < procedimentos; i++) {
+            if (!ehFuncao[i]) sb.append(";\n  p").append(i);
+        }
+        sb.append(";\n  escreva(g0)\nfim.\n");
+        if (w != null) {
+            w.append(sb);
+            sb.setLength(0);
+        }
+    }
+
+    private void cabecalhoVariaveis() {
+        saida.append("var ");
+        for (int d = 0; d <= profundidade; d++) saida.append('c').append(d).append(", ");
+        saida.append("v0, v1, v2, v3: inteiro;\n    b0, b1: booleano;\n");
+    }
+
+    private void geraProcedimento(int i, long alvo) {
+        int inicio = saida.length();
+        saida.append("procedimento p").append(i).append(";\n");
+        cabecalhoVariaveis();
+        saida.append("inicio\n  v0 := ").append(i).append("; v1 := 1; v2 := 2; v3 := 3; b0 := falso; b1 := verdadeiro");
+        // no maximo uma chamada a outra sub-rotina, para o custo de execucao nao explodir
+        if (i > 0 && aleatorio.nextInt(10) < 3) {
+            int j = aleatorio.nextInt(i);
+            if (!ehFuncao[j]) saida.append(";\n  p").append(j);
+        }
+        do {
+            saida.append(";\n");
+            comando(1, 0);
+        } while (saida.length() - inicio < alvo);
+        saida.append(";\n  escreva(v0)\nfim;\n\n");
+    }
+
+    // Funcoes nao chamam outras sub-rotinas; o valor e atribuido ao nome no fim
+    private void geraFuncao(int i, long alvo) {
+        int inicio = saida.length();
+        saida.append("funcao f").append(i).append(": inteiro;\n");
+        cabecalhoVariaveis();
+        saida.append("inicio\n  v0 := ").append(i).append("; v1 := 1; v2 := 2; v3 := 3; b0 := falso; b1 := verdadeiro");
+        int limite = rotinaAtual;
+        rotinaAtual = -1; // sem chamadas dentro de funcao
+        do {
+            saida.append(";\n");
+            comando(1, 0);
+        } while (saida.length() - inicio < alvo);
+        rotinaAtual = limite;
+        saida.append(";\n  f").append(i).append(" := ");
+        expressaoInteira(complexidade);
+        saida.append("\nfim;\n\n");
+    }
+
+    private void indenta(int nivel) {
+        for (int k = 0; k < nivel; k++) saida.append("  ");
+    }
+
+    // nivelLaco: quantos 'enquanto' envolvem o comando (escolhe o contador livre)
+    private void comando(int nivel, int nivelLaco) {
+        indenta(nivel);
+        int escolha = aleatorio.nextInt(nivel > profundidade ? 4 : 8);
+        switch (escolha) {
+            case 0: case 1:
+                saida.append('v').append(aleatorio.nextInt(4)).append(" := ");
+                expressaoInteira(complexidade);
+                break;
+            case 2:
+                saida.append('b').append(aleatorio.nextInt(2)).append(" := ");
+                condicao(complexidade);
+                break;
+            case 3:
+                saida.append('g').append(aleatorio.nextInt(4)).append(" := ");
+                expressaoInteira(complexidade);
+                break;
+            case 4: case 5:
+                saida.append("se ");
+                condicao(complexidade);
+                saida.append(" entao\n");
+                comando(nivel + 1, nivelLaco);
+                if (aleatorio.nextBoolean()) {
+                    saida.append('\n');
+                    indenta(nivel);
+                    saida.append("senao\n");
+                    comando(nivel + 1, nivelLaco);
+                }
+                break;
+            case 6: {
+                // o laco vai dentro de inicio/fim para caber em qualquer posicao de comando
+                String c = "c" + nivelLaco;
+                saida.append("inicio\n");
+                indenta(nivel + 1);
+                saida.append(c).append(" := 0;\n");
+                indenta(nivel + 1);
+                saida.append("enquanto ").append(c).append(" < ").append(1 + aleatorio.nextInt(3)).append(" faca\n");
+                indenta(nivel + 1);
+                saida.append("inicio\n");
+                int n = 1 + aleatorio.nextInt(3);
+                for (int k = 0; k < n; k++) {
+                    comando(nivel + 2, nivelLaco + 1);
+                    saida.append(";\n");
+                }
+                indenta(nivel + 2);
+                saida.append(c).append(" := ").append(c).append(" + 1\n");
+                indenta(nivel + 1);
+                saida.append("fim\n");
+                indenta(nivel);
+                saida.append("fim");
+                break;
+            }
+            default: {
+                saida.append("inicio\n");
+                int n = 1 + aleatorio.nextInt(3);
+                for (int k = 0; k < n; k++) {
+                    if (k > 0) saida.append(";\n");
+                    comando(nivel + 1, nivelLaco);
+                }
+                saida.append('\n');
+                indenta(nivel);
+                saida.append("fim");
+                break;
+            }
+        }
+    }
+
+    private void expressaoInteira(int operadores) {
+        if (operadores == 0) {
+            operandoInteiro();
+            return;
+        }
+        int esquerda = aleatorio.nextInt(operadores);
+        int direita = operadores - 1 - esquerda;
+        boolean parenteses = aleatorio.nextInt(3) == 0;
+        if (parenteses) saida.append('(');
+        switch (aleatorio.nextInt(4)) {
+            case 0:
+                expressaoInteira(esquerda);
+                saida.append(" + ");
+                termoInteiro(direita);
+                break;
+            case 1:
+                expressaoInteira(esquerda);
+                saida.append(" - ");
+                termoInteiro(direita);
+                break;
+            case 2:
+                termoInteiro(esquerda);
+                saida.append(" * ");
+                termoInteiro(direita);
+                break;
+            default:
+                termoInteiro(esquerda);
+                saida.append(" div ").append(1 + aleatorio.nextInt(9));
+                break;
+        }
+        if (parenteses) saida.append(')');
+    }
+
+    // Termo: sem + ou - no nivel de cima (senao precisa de parenteses)
+    private void termoInteiro(int operadores) {
+        if (operadores == 0) {
+            operandoInteiro();
+        } else {
+            saida.append('(');
+            expressaoInteira(operadores);
+            saida.append(')');
+        }
+    }
+
+    private void operandoInteiro() {
+        int escolha = aleatorio.nextInt(10);
+        if (escolha < 5) {
+            saida.append('v').append(aleatorio.nextInt(4));
+        } else if (escolha < 8) {
+            saida.append(aleatorio.nextInt(100));
+        } else if (escolha < 9 || rotinaAtual <= 0) {
+            saida.append('g').append(aleatorio.nextInt(4));
+        } else {
+            // chamada de funcao declarada antes, se houver
+            int j = aleatorio.nextInt(rotinaAtual);
+            if (ehFuncao[j]) saida.append('f').append(j);
+            else saida.append('v').append(aleatorio.nextInt(4));
+        }
+    }
+
+    private void condicao(int operadores) {
+        int escolha = aleatorio.nextInt(8);
+        if (operadores == 0 || escolha == 0) {
+            switch (aleatorio.nextInt(5)) {
+                case 0: saida.append("b").append(aleatorio.nextInt(2)); break;
+                case 1: saida.append("nao b").append(aleatorio.nextInt(2)); break;
+                case 2: saida.append(aleatorio.nextBoolean() ? "verdadeiro" : "falso"); break;
+                case 3: saida.append("1 = 1"); break; // condicao constante
+                default: comparacao(0); break;
+            }
+        } else if (escolha < 5) {
+            comparacao(operadores);
+        } else {
+            saida.append('(');
+            comparacao(operadores / 2);
+            saida.append(escolha == 5 ? ") e (" : ") ou (");
+            comparacao(operadores / 2);
+            saida.append(')');
+        }
+    }
+
+    private static final String[] RELACIONAIS = { " = ", " != ", " < ", " <= ", " > ", " >= " };
+
+    private void comparacao(int operadores) {
+        expressaoInteira(operadores / 2);
+        saida.append(RELACIONAIS[aleatorio.nextInt(RELACIONAIS.length)]);
+        expressaoInteira(operadores - operadores / 2);
+    }
+
+    // Programa com 'niveis' niveis de aninhamento em cada construcao: sub-rotinas declaradas uma
+    // dentro da outra, comandos inicio/se/enquanto uns dentro dos outros e expressoes com 'niveis'
+    // parenteses, sinais e 'nao'. Para medir o sintatico; como 'b' e falso, executa quase nada.
+    static void gerarAninhado(Path arquivo, int niveis) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8)) {
+            w.append("{programa aninhado: ").append(String.valueOf(niveis)).append(" niveis}\n");
+            w.append("programa aninhado;\nvar x: inteiro;\n    b: booleano;\n");
+            for (int i = 0; i < niveis; i++) w.append("procedimento p").append(String.valueOf(i)).append(";\n");
+            for (int i = 0; i < niveis; i++) w.append("inicio x := ").append(String.valueOf(i)).append(" fim;\n");
+            w.append("inicio\nb := falso;\n");
+            for (int i = 0; i < niveis; i++) w.append(i % 3 == 0 ? "inicio\n" : i % 3 == 1 ? "se b entao\n" : "enquanto b faca\n");
+            w.append("inicio\nx := ");
+            for (int i = 0; i < niveis; i++) w.append("(-");
+            w.append('1');
+            for (int i = 0; i < niveis; i++) w.append(')');
+            w.append(";\nb := ");
+            for (int i = 0; i < niveis; i++) w.append("nao ");
+            w.append("b\nfim");
+            for (int i = niveis - 1; i >= 0; i--) if (i % 3 == 0) w.append("\nfim");
+            w.append("\nfim.\n");
+        }
+    }
+
+    // Aceita sufixos K, M e G (ex: 10M)
+    static long leTamanho(String s) {
+        char ultimo = Character.toUpperCase(s.charAt(s.length() - 1));
+        long fator = ultimo == 'K' ? 1L << 10 : ultimo == 'M' ? 1L << 20 : ultimo == 'G' ? 1L << 30 : 1;
+        String numero = fator == 1 ? s : s.substring(0, s.length() - 1);
+        return Long.parseLong(numero) * fator;
+    }
+
+    public static void main(String[] args) throws IOException {
+        long tamanho = 1 << 20;
+        int procedimentos = 100;
+        int profundidade = 3;
+        int complexidade = 3;
+        long semente = 42;
+        int aninhado = 0;
+        String arquivo = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tamanho": tamanho = leTamanho(args[++i]); break;
+                case "--procedimentos": procedimentos = Integer.parseInt(args[++i]); break;
+                case "--profundidade": profundidade = Integer.parseInt(args[++i]); break;
+                case "--complexidade": complexidade = Integer.parseInt(args[++i]); break;
+                case "--semente": semente = Long.parseLong(args[++i]); break;
+                case "--aninhado": aninhado = Integer.parseInt(args[++i]); break;
+                default: arquivo = args[i];
+            }
+        }
+        if (arquivo == null) {
+            System.out.println("Uso: java GeradorLPD [--tamanho 10M] [--procedimentos N] [--profundidade N]"
+                    + " [--complexidade N] [--semente N] [--aninhado NIVEIS] <arquivo_saida>");
+            return;
+        }
+        if (aninhado > 0) {
+            gerarAninhado(Path.of(arquivo), aninhado);
+            return;
+        }
+        new GeradorLPD(tamanho, procedimentos, profundidade, complexidade, semente).gerar(Path.of(arquivo));
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Referencias cruzadas gravadas pelo sintatico (setReferencias): cada uso resolvido de um simbolo
+// vira uma entrada (simbolo, posicao do token no texto, tipo de uso, sub-rotina onde aparece) em
+// colunas paralelas, sem objeto por uso. As entradas de cada simbolo formam uma lista encadeada
+// pela coluna 'proximo' (a lista de postagem do simbolo), em ordem de texto, entao:
+//   - usos de um simbolo (find-references): percorre a lista dele
+//   - quem chama uma sub-rotina: os usos CHAMADA dela, olhando a coluna 'rotina'
+//   - variaveis sem uso: lista duplamente encadeada das variaveis declaradas que ainda nao tem
+//     nenhuma entrada; o primeiro uso tira a variavel dela
+// Tudo em O(tamanho da resposta), sem reanalisar o fonte. Os simbolos sao os indices da
+// TabelaSimbolos (Simbolo.getIndice()) e as posicoes viram linha e coluna pelo MapaLinhas.
+public class IndiceReferencias {
+    public static final byte LEITURA = 0, ESCRITA = 1, CHAMADA = 2;
+    private static final String[] SIGLAS = { "l", "e", "c" };
+
+    // colunas das entradas
+    private int[] simbolos = new int[1024];
+    private int[] posicoes = new int[1024];
+    private byte[] tipos = new byte[1024];
+    private int[] rotinas = new int[1024];   // sub-rotina (ou programa) onde o uso aparece
+    private int[] proximos = new int[1024];  // proxima entrada do mesmo simbolo (-1: ultima)
+    private int quantidade;
+
+    // por simbolo
+    private int[] primeiro = new int[256];   // -1: sem uso
+    private int[] ultimo = new int[256];
+    private int[] usos = new int[256];
+    private int[] declaracao = new int[256]; // posicao do nome na declaracao (-1: nao declarado aqui)
+    private int[] anteriorSemUso = new int[256];
+    private int[] proximoSemUso = new int[256];
+    private boolean[] semUso = new boolean[256];
+    private boolean[] variavel = new boolean[256];
+    private int primeiroSemUso = -1;
+    private int ultimoSemUso = -1;
+    private int simbolosConhecidos;
+
+    private void garanteSimbolo(int simbolo) {
+        if (simbolo < simbolosConhecidos) return;
+        int n = primeiro.length;
+        while (n <= simbolo) n *= 2;
+        if (n != primeiro.length) {
+            primeiro = Arrays.copyOf(primeiro, n);
+            ultimo = Arrays.copyOf(ultimo, n);
+            usos = Arrays.copyOf(usos, n);
+            declaracao = Arrays.copyOf(declaracao, n);
+            anteriorSemUso = Arrays.copyOf(anteriorSemUso, n);
+            proximoSemUso = Arrays.copyOf(proximoSemUso, n);
+            semUso = Arrays.copyOf(semUso, n);
+            variavel = Arrays.copyOf(variavel, n);
+        }
+        Arrays.fill(primeiro, simbolosConhecidos, simbolo + 1, -1);
+        Arrays.fill(ultimo, simbolosConhecidos, simbolo + 1, -1);
+        Arrays.fill(declaracao, simbolosConhecidos, simbolo + 1, -1);
+        simbolosConhecidos = simbolo + 1;
+    }
+
+    // Simbolo inserido na tabela, com o nome na 'posicao'; variaveis entram na lista de sem uso
+    void declara(int simbolo, int posicao, boolean variavel) {
+        garanteSimbolo(simbolo);
+        declaracao[simbolo] = posicao;
+        this.variavel[simbolo] = variavel;
+        if (variavel && usos[simbolo] == 0) {
+            semUso[simbolo] = true;
+            anteriorSemUso[simbolo] = ultimoSemUso;
+            proximoSemUso[simbolo] = -1;
+            if (ultimoSemUso >= 0) proximoSemUso[ultimoSemUso] = simbolo;
+            else primeiroSemUso = simbolo;
+            ultimoSemUso = simbolo;
+        }
+    }
+
+    // Uso de 'simbolo' no token da 'posicao', dentro da sub-rotina 'rotina'
+    void registra(int simbolo, int posicao, byte tipo, int rotina) {
+        garanteSimbolo(simbolo);
+        if (quantidade == simbolos.length) {
+            int n = quantidade * 2;
+            simbolos = Arrays.copyOf(simbolos, n);
+            posicoes = Arrays.copyOf(posicoes, n);
+            tipos = Arrays.copyOf(tipos, n);
+            rotinas = Arrays.copyOf(rotinas, n);
+            proximos = Arrays.copyOf(proximos, n);
+        }
+        int e = quantidade++;
+        simbolos[e] = simbolo;
+        posicoes[e] = posicao;
+        tipos[e] = tipo;
+        rotinas[e] = rotina;
+        proximos[e] = -1;
+        if (ultimo[simbolo] >= 0) proximos[ultimo[simbolo]] = e;
+        else primeiro[simbolo] = e;
+        ultimo[simbolo] = e;
+        if (usos[simbolo]++ == 0 && semUso[simbolo]) tiraDeSemUso(simbolo);
+    }
+
+    private void tiraDeSemUso(int simbolo) {
+        semUso[simbolo] = false;
+        int a = anteriorSemUso[simbolo];
+        int p = proximoSemUso[simbolo];
+        if (a >= 0) proximoSemUso[a] = p;
+        else primeiroSemUso = p;
+        if (p >= 0) anteriorSemUso[p] = a;
+        else ultimoSemUso = a;
+    }
+
+    public int quantidade() { return quantidade; }
+
+    // Colunas de uma entrada
+    public int simbolo(int entrada) { return simbolos[entrada]; }
+    public int posicao(int entrada) { return posicoes[entrada]; }
+    public byte tipo(int entrada) { return tipos[entrada]; }
+    public int rotina(int entrada) { return rotinas[entrada]; }
+
+    public int usos(int simbolo) {
+        return simbolo < simbolosConhecidos ? usos[simbolo] : 0;
+    }
+
+    // Falso para o programa e as sub-rotinas: o nome de uma funcao numa expressao e uma chamada
+    public boolean ehVariavel(int simbolo) {
+        return simbolo < simbolosConhecidos && variavel[simbolo];
+    }
+
+    public int declaracao(int simbolo) {
+        return simbolo < simbolosConhecidos ? declaracao[simbolo] : -1;
+    }
+
+    // Percurso da lista de um simbolo sem alocar: for (e = primeiroUso(s); e >= 0; e = proximoUso(e))
+    public int primeiroUso(int simbolo) {
+        return simbolo < simbolosConhecidos ? primeiro[simbolo] : -1;
+    }
+
+    public int proximoUso(int entrada) {
+        return proximos[entrada];
+    }
+
+    // Entradas de todos os usos de 'simbolo', em ordem de texto
+    public int[] referencias(int simbolo) {
+        int[] r = new int[usos(simbolo)];
+        int k = 0;
+        for (int e = primeiroUso(simbolo); e >= 0; e = proximos[e]) r[k++] = e;
+        return r;
+    }
+
+    // Sub-rotinas (ou o programa) que chamam 'rotina', sem repeticao, na ordem da primeira chamada
+    public int[] chamadores(int rotina) {
+        int[] r = new int[usos(rotina)];
+        int k = 0;
+        for (int e = primeiroUso(rotina); e >= 0; e = proximos[e]) {
+            if (tipos[e] != CHAMADA) continue;
+            int chamador = rotinas[e];
+            boolean repetido = false;
+            for (int i = 0; i < k && !repetido; i++) repetido = r[i] == chamador;
+            if (!repetido) r[k++] = chamador;
+        }
+        return Arrays.copyOf(r, k);
+    }
+
+    // Variaveis declaradas sem nenhum uso, em ordem de declaracao
+    public int[] naoUsadas() {
+        int k = 0;
+        for (int s = primeiroSemUso; s >= 0; s = proximoSemUso[s]) k++;
+        int[] r = new int[k];
+        k = 0;
+        for (int s = primeiroSemUso; s >= 0; s = proximoSemUso[s]) r[k++] = s;
+        return r;
+    }
+
+    public long memoriaBytes() {
+        return (long) simbolos.length * (4 * 4 + 1) + (long) primeiro.length * (6 * 4 + 2);
+    }
+
+    // Relatorio (--referencias): usos de cada simbolo como linha:coluna e sigla do tipo de uso
+    // (l leitura, e escrita, c chamada), quem chama cada sub-rotina e as variaveis sem uso
+    public void imprimir(PrintStream saida, TabelaSimbolos tabela, MapaLinhas linhas) {
+        saida.println("\n=== Referencias cruzadas (" + quantidade + " usos, " + memoriaBytes() + " bytes) ===");
+        for (int s = 0; s < tabela.tamanho(); s++) {
+            Simbolo simbolo = tabela.get(s);
+            StringBuilder linha = new StringBuilder();
+            boolean funcao = !ehVariavel(s) && simbolo.getTipo().ehValor();
+            linha.append(simbolo.getNome()).append(" [").append(funcao ? "funcao " : "")
+                 .append(simbolo.getTipo().nome).append(']');
+            int d = declaracao(s);
+            if (d >= 0) linha.append(" declarado em ").append(linhas.linha(d)).append(':').append(linhas.coluna(d));
+            if (usos(s) == 0) {
+                if (simbolo.getTipo() != TipoSimbolo.PROGRAMA) linha.append(": sem uso");
+            } else {
+                linha.append(':');
+                for (int e = primeiroUso(s); e >= 0; e = proximos[e]) {
+                    linha.append(' ').append(linhas.linha(posicoes[e])).append(':').append(linhas.coluna(posicoes[e]))
+                         .append(SIGLAS[tipos[e]]);
+                }
+                int[] chamadores = chamadores(s);
+                if (chamadores.length > 0) {
+                    linha.append(" | chamado por:");
+                    for (int c : chamadores) linha.append(' ').append(tabela.get(c).getNome());
+                }
+            }
+            saida.println(linha);
+        }
+        int[] naoUsadas = naoUsadas();
+        if (naoUsadas.length > 0) {
+            StringBuilder linha = new StringBuilder("Variaveis sem uso:");
+            for (int s : naoUsadas) linha.append(' ').append(tabela.get(s).getNome());
+            saida.println(linha);
+        }
+    }
+}
@@ -1,24 +1,326 @@
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
     public static void main(String[] args) {
-        if (args.length == 0) {
-            System.out.println("Uso: java Main <caminho_do_arquivo>");
+        boolean mapeado = false;
+        boolean buffer = false;
+        boolean pipeline = false;
+        boolean paralelo = false;
+        boolean iterativo = false;
+        boolean arvore = false;
+        boolean mvd = false;
+        boolean executar = false;
+        boolean jvm = false;
+        boolean otimizar = false;
+        boolean referencias = false;
+        List<RegraPeephole> peephole = null; // null: codigo da MVD como o GeradorCodigo emitiu
+        Path diretorioCache = null;
+        long limiteCache = 256L << 20;
+        String destinoStats = null; // "-": System.err
+        String destinoTokens = null; // "": <arquivo>.lpdt ao lado de cada fonte
+        List<String> caminhos = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--mapeado")) {
+                mapeado = true;
+            } else if (arg.equals("--buffer")) {
+                buffer = true;
+            } else if (arg.equals("--pipeline")) {
+                pipeline = true;
+            } else if (arg.equals("--paralelo")) {
+                paralelo = true;
+            } else if (arg.equals("--iterativo")) {
+                iterativo = true;
+            } else if (arg.equals("--arvore")) {
+                arvore = true;
+            } else if (arg.equals("--mvd")) {
+                mvd = true;
+            } else if (arg.equals("--executar")) {
+                executar = true;
+            } else if (arg.equals("--jvm")) {
+                jvm = true;
+            } else if (arg.equals("--otimizar")) {
+                otimizar = true;
+            } else if (arg.equals("--referencias")) {
+                referencias = true;
+            } else if (arg.equals("--peephole")) {
+                peephole = OtimizadorPeephole.REGRAS;
+            } else if (arg.startsWith("--peephole=")) {
+                try {
+                    peephole = OtimizadorPeephole.regras(arg.substring(11));
+                } catch (RuntimeException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(1);
+                }
+            } else if (arg.equals("--cache")) {
+                diretorioCache = Path.of(".lpd-cache");
+            } else if (arg.startsWith("--cache=")) {
+                diretorioCache = Path.of(arg.substring(8));
+            } else if (arg.equals("--stats")) {
+                destinoStats = "-";
+            } else if (arg.startsWith("--stats=")) {
+                destinoStats = arg.substring(8);
+            } else if (arg.equals("--tokens")) {
+                destinoTokens = "";
+            } else if (arg.startsWith("--tokens=")) {
+                destinoTokens = arg.substring(9);
+            } else if (arg.startsWith("--cache-limite=")) {
+                limiteCache = GeradorLPD.leTamanho(arg.substring(15));
+            } else {
+                caminhos.add(arg);
+            }
+        }
+        if (caminhos.isEmpty()) {
+            System.out.println("Uso: java Main [--mapeado] [--buffer] [--pipeline] [--paralelo] [--iterativo] [--arvore] [--mvd] [--executar] [--jvm] [--otimizar] [--referencias] [--peephole[=regras]] [--cache[=dir]] [--cache-limite=N] [--stats[=arquivo]] [--tokens[=arquivo]] <arquivo | diretorio | glob>...");
+            return;
+        }
+        // --stats mede lexico e sintatico como fases separadas, na mesma thread; no --pipeline elas
+        // correm juntas, com o lexico em outra thread, e as metricas descreveriam outro caminho
+        if (destinoStats != null && pipeline) {
+            System.err.println("Erro de uso: --stats nao mede o --pipeline (lexico e sintatico em threads"
+                    + " separadas); use --stats sem --pipeline");
+            System.exit(1);
+        }
+        if (destinoTokens != null) {
+            if (!gravaTokens(caminhos, destinoTokens, mapeado)) System.exit(1);
             return;
         }
-        String caminhoArquivo = args[0];
+        CacheCompilacao cache = null;
+        if (diretorioCache != null) {
+            try {
+                cache = new CacheCompilacao(diretorioCache, limiteCache);
+            } catch (IOException e) {
+                System.err.println("Cache desativado: " + e.getMessage());
+            }
+        }
+        MetricasCompilacao metricas = destinoStats != null ? new MetricasCompilacao() : null;
+        // Mais de um arquivo, diretorio ou glob: compila em lote, em paralelo
+        if (caminhos.size() > 1 || !Files.isRegularFile(Path.of(caminhos.get(0)))) {
+            // Opcoes de um arquivo so: a arvore, o indice e a execucao (que le da entrada padrao) nao
+            // se misturam entre arquivos, e --pipeline/--paralelo/--jvm nao passam pelo CompiladorLote
+            String opcao = pipeline ? "--pipeline" : paralelo ? "--paralelo" : arvore ? "--arvore"
+                    : executar ? "--executar" : jvm ? "--jvm" : referencias ? "--referencias" : null;
+            if (opcao != null) {
+                System.err.println("Erro de uso: " + opcao + " aceita um unico arquivo, nao um lote"
+                        + " (varios arquivos, diretorio ou glob)");
+                System.exit(1);
+            }
+            try {
+                List<Path> arquivos = CompiladorLote.expandir(caminhos);
+                CompiladorLote lote = new CompiladorLote(mapeado, buffer);
+                lote.setCache(cache);
+                lote.setPilhaExplicita(iterativo);
+                lote.setGeracao(mvd || otimizar, otimizar);
+                lote.setListagem(mvd, peephole);
+                lote.setMetricas(metricas);
+                int erros = lote.executar(arquivos, System.out, System.err);
+                emiteMetricas(metricas, destinoStats);
+                if (erros > 0) System.exit(1);
+            } catch (IOException e) {
+                System.err.println("Erro ao listar arquivos: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        // Com cache (e sem --arvore, --jvm ou --referencias, que precisam do sintatico): um acerto nem
+        // passa pelo lexico e sintatico
+        if (cache != null && !arvore && !jvm && !referencias) {
+            CompiladorLote compilador = new CompiladorLote(mapeado, buffer);
+            compilador.setCache(cache);
+            compilador.setPilhaExplicita(iterativo);
+            compilador.setGeracao(mvd || executar || otimizar, otimizar);
+            compilador.setMetricas(metricas);
+            ResultadoCompilacao r = compilador.compilar(Path.of(caminhos.get(0)));
+            emiteMetricas(metricas, destinoStats);
+            System.out.print(r.saida);
+            if (r.erro != null) System.err.println(r.erro);
+            else if (mvd || executar) {
+                try {
+                    saidaCodigo(r.programa, mvd, executar, peephole);
+                } catch (IOException e) {
+                    System.err.println("Erro de entrada/saida na execucao: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+            return;
+        }
+        String caminhoArquivo = caminhos.get(0);
+        TabelaNomes nomes = new TabelaNomes();
+        AnalisadorLexico lexico = null;
+        CanalTokens canal = null;
         try {
-            AnalisadorLexico lexico = new AnalisadorLexico(caminhoArquivo);
-            TabelaSimbolos tabela = new TabelaSimbolos();
-            AnalisadorSintatico parser = new AnalisadorSintatico(lexico, tabela);
+            if (metricas != null) {
+                metricas.inicioMemoria();
+                metricas.inicioFase();
+            }
+            lexico = new AnalisadorLexico(caminhoArquivo, mapeado, nomes);
+            TabelaSimbolos tabela = new TabelaSimbolos(nomes);
+            AnalisadorSintatico parser;
+            // Com --stats o lexico roda inteiro antes do sintatico, para as fases serem medidas separadas
+            // (por isso --stats nao aceita --pipeline);
+            // com --paralelo o sintatico precisa de acesso aleatorio aos tokens
+            if (buffer || paralelo || metricas != null) {
+                BufferTokens tokens = lexico.tokenizar();
+                if (metricas != null) {
+                    metricas.fimFase("lexico");
+                    metricas.contaTokens(tokens);
+                    tabela.setMetricas(metricas);
+                }
+                parser = new AnalisadorSintatico(tokens, tabela);
+                if (paralelo) parser.setParalelo(ForkJoinPool.commonPool());
+            } else if (pipeline) {
+                canal = new CanalTokens(lexico);
+                parser = new AnalisadorSintatico(canal, tabela);
+            } else {
+                parser = new AnalisadorSintatico(lexico, tabela);
+            }
+            if (arvore || mvd || executar || otimizar) parser.setArvore(new ArvoreSintatica());
+            if (referencias) parser.setReferencias(new IndiceReferencias());
+            parser.setPilhaExplicita(iterativo);
             parser.analisaPrograma();
+            if (metricas != null) metricas.fimFase("sintatico");
             System.out.println("\nAnalise concluida. Tabela de Simbolos:");
             tabela.imprimir();
-            lexico.fechar();
+            if (referencias) parser.getReferencias().imprimir(System.out, tabela, lexico.getLinhas());
+            if (otimizar) {
+                if (metricas != null) metricas.inicioFase();
+                OtimizadorConstantes otimizador = new OtimizadorConstantes(parser.getArvore());
+                int eliminados = otimizador.otimizar();
+                if (metricas != null) metricas.fimFase("otimizacao");
+                System.out.println("\nOtimizacao: " + otimizador.getExpressoesDobradas() + " expressoes dobradas, "
+                        + otimizador.getDesviosRemovidos() + " 'se' e " + otimizador.getLacosRemovidos()
+                        + " 'enquanto' removidos, " + eliminados + " nos eliminados");
+            }
+            if (arvore) {
+                ArvoreSintatica a = parser.getArvore();
+                a.compactar();
+                System.out.println("\n=== Arvore Sintatica (" + a.tamanho() + " nos, " + a.memoriaBytes() + " bytes) ===");
+                a.imprimir(System.out, nomes);
+            }
+            if (mvd || executar) {
+                if (metricas != null) metricas.inicioFase();
+                ProgramaMVD programa = new GeradorCodigo(parser.getArvore(), tabela).gerar();
+                // --jvm: a execucao e pelo bytecode gerado; se o programa nao couber numa classe da JVM
+                // (o GeradorCodigo ja validou a arvore, entao so sobram limites de tamanho), pela MaquinaVirtual
+                ProgramaJVM programaJvm = null;
+                if (jvm && executar) {
+                    try {
+                        programaJvm = new GeradorBytecode(parser.getArvore(), tabela).gerar();
+                    } catch (RuntimeException e) {
+                        System.out.println("\n" + e.getMessage() + "; executando na MVD");
+                    }
+                }
+                if (metricas != null) metricas.fimFase("geracao");
+                saidaCodigo(programa, mvd, executar && programaJvm == null, peephole);
+                if (programaJvm != null) executaJvm(programaJvm);
+            }
         } catch (IOException e) {
             System.err.println("Erro ao ler o arquivo: " + e.getMessage());
         } catch (RuntimeException e) {
             System.err.println(e.getMessage());
+        } finally {
+            if (canal != null) canal.close(); // para a thread do lexico antes de fechar o arquivo
+            if (lexico != null) {
+                if (metricas != null) {
+                    metricas.fimMemoria();
+                    metricas.registraArquivo(lexico.getTotalTokens(),
+                            Path.of(caminhoArquivo).toFile().length(), nomes);
+                }
+                try {
+                    lexico.fechar();
+                } catch (IOException e) {
+                    // a compilacao ja terminou
+                }
+            }
+            emiteMetricas(metricas, destinoStats);
+        }
+    }
+
+    // --tokens: so o lexico roda e os tokens de cada fonte vao para um arquivo binario (ArquivoTokens)
+    private static boolean gravaTokens(List<String> caminhos, String destino, boolean mapeado) {
+        List<Path> arquivos;
+        try {
+            arquivos = CompiladorLote.expandir(caminhos);
+        } catch (IOException e) {
+            System.err.println("Erro ao listar arquivos: " + e.getMessage());
+            return false;
+        }
+        if (!destino.isEmpty() && arquivos.size() > 1) {
+            System.err.println("--tokens=arquivo aceita um so fonte; use --tokens para gravar <fonte>.lpdt");
+            return false;
+        }
+        boolean ok = true;
+        for (Path fonte : arquivos) {
+            Path saida = destino.isEmpty() ? Path.of(fonte + ".lpdt") : Path.of(destino);
+            AnalisadorLexico lexico = null;
+            try {
+                lexico = new AnalisadorLexico(fonte.toString(), mapeado, new TabelaNomes());
+                long tokens = ArquivoTokens.gravar(lexico, saida);
+                System.out.println(fonte + ": " + tokens + " tokens em " + saida + " (" + Files.size(saida) + " bytes)");
+            } catch (IOException e) {
+                System.err.println("Erro ao gravar os tokens de " + fonte + ": " + e.getMessage());
+                ok = false;
+            } finally {
+                if (lexico != null) {
+                    try {
+                        lexico.fechar();
+                    } catch (IOException e) {
+                        // os tokens ja foram gravados
+                    }
+                }
+            }
+        }
+        return ok;
+    }
+
+    // --stats: JSON no System.err; --stats=arquivo: grava no arquivo
+    private static void emiteMetricas(MetricasCompilacao metricas, String destino) {
+        if (metricas == null) return;
+        if (destino.equals("-")) {
+            System.err.println(metricas.paraJson());
+            return;
+        }
+        try {
+            Files.writeString(Path.of(destino), metricas.paraJson() + "\n");
+        } catch (IOException e) {
+            System.err.println("Erro ao gravar as metricas: " + e.getMessage());
+        }
+    }
+
+    // --executar --jvm: roda o programa compilado para bytecode da JVM
+    private static void executaJvm(ProgramaJVM programa) throws IOException {
+        System.out.println("\n=== Execucao (JVM: " + programa.getMetodos() + " metodos, "
+                + programa.getTamanhoClasse() + " bytes) ===");
+        long inicio = System.nanoTime();
+        programa.executar(System.in, System.out);
+        System.out.printf("Executado em %.3f s%n", (System.nanoTime() - inicio) / 1e9);
+    }
+
+    // Listagem (--mvd) e execucao (--executar) do codigo gerado, antes passando pelas regras do
+    // OtimizadorPeephole (--peephole); o cache guarda sempre o codigo sem peephole
+    private static void saidaCodigo(ProgramaMVD programa, boolean mvd, boolean executar,
+                                    List<RegraPeephole> peephole) throws IOException {
+        if (peephole != null) {
+            OtimizadorPeephole otimizador = new OtimizadorPeephole(peephole);
+            programa = otimizador.otimizar(programa);
+            System.out.println("\nPeephole: " + otimizador.getInstrucoesAntes() + " -> "
+                    + otimizador.getInstrucoesDepois() + " instrucoes (" + otimizador.resumoAplicacoes() + ")");
+        }
+        if (mvd) {
+            System.out.println("\n=== Codigo MVD (" + programa.quantidadeInstrucoes() + " instrucoes) ===");
+            programa.imprimir(System.out);
+        }
+        if (executar) {
+            System.out.println("\n=== Execucao ===");
+            long inicio = System.nanoTime();
+            long instrucoes = new MaquinaVirtual(System.in, System.out).executar(programa);
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+            System.out.printf("%d instrucoes em %.3f s%n", instrucoes, segundos);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+// Inicio de cada linha do fonte (posicao do primeiro caractere, em caracteres; a linha 1 comeca
+// em 0). O lexico acrescenta uma entrada a cada '\n' que le; tokens, nos e mensagens guardam so a
+// posicao, e linha e coluna sao calculadas quando alguem pede, por busca binaria. Acessos em
+// ordem crescente (o caso comum) acertam a ultima linha encontrada sem busca.
+//
+// Um escritor (a thread do lexico) e varios leitores: 'quantidade' e volatil e so aumenta depois
+// que a entrada foi gravada, entao quem le ve todas as linhas ate as posicoes que ja recebeu.
+public class MapaLinhas {
+    private volatile int[] inicios = new int[1024];
+    private volatile int quantidade = 1;
+    private int ultimaLinha; // indice da linha do ultimo acesso (corrida benigna entre leitores)
+
+    // Registra o inicio de uma linha; posicoes que nao avancam sao ignoradas (relexar um trecho ja mapeado)
+    public void adiciona(int posicao) {
+        int n = quantidade;
+        int[] v = inicios;
+        if (posicao <= v[n - 1]) return;
+        if (n == v.length) {
+            v = Arrays.copyOf(v, n * 2);
+            inicios = v;
+        }
+        v[n] = posicao;
+        quantidade = n + 1;
+    }
+
+    public int quantidade() {
+        return quantidade;
+    }
+
+    // Linha (a partir de 1) da posicao
+    public int linha(int posicao) {
+        int n = quantidade;
+        int[] v = inicios;
+        int l = ultimaLinha;
+        if (l < n && v[l] <= posicao && (l + 1 == n || posicao < v[l + 1])) return l + 1;
+        int baixo = 0;
+        int alto = n - 1;
+        while (baixo < alto) {
+            int meio = (baixo + alto + 1) >>> 1;
+            if (v[meio] <= posicao) baixo = meio;
+            else alto = meio - 1;
+        }
+        ultimaLinha = baixo;
+        return baixo + 1;
+    }
+
+    // Coluna (a partir de 1) da posicao na sua linha
+    public int coluna(int posicao) {
+        return posicao - inicios[linha(posicao) - 1] + 1;
+    }
+
+    public int inicioLinha(int linha) {
+        return inicios[linha - 1];
+    }
+
+    // "linha L, coluna C", para mensagens de erro
+    public String descreve(int posicao) {
+        return "linha " + linha(posicao) + ", coluna " + coluna(posicao);
+    }
+
+    // Edicao no texto: apaga os caracteres [posicao, posicao + removidos) e insere 'inserido'.
+    // As linhas que comecavam dentro do trecho apagado somem, as do texto inserido entram e as
+    // de depois se deslocam.
+    public void substitui(int posicao, int removidos, CharSequence inserido) {
+        int n = quantidade;
+        int[] v = inicios;
+        // linhas antes da edicao: comecam em <= posicao
+        int antes = linha(posicao);
+        // primeira linha depois do trecho apagado: comeca em > posicao + removidos
+        int depois = antes;
+        while (depois < n && v[depois] <= posicao + removidos) depois++;
+        int novas = 0;
+        for (int i = 0; i < inserido.length(); i++) if (inserido.charAt(i) == '\n') novas++;
+        int delta = inserido.length() - removidos;
+        int total = antes + novas + (n - depois);
+        int[] w = total > v.length ? Arrays.copyOf(v, Math.max(total, v.length * 2)) : v;
+        System.arraycopy(v, depois, w, antes + novas, n - depois);
+        for (int i = antes + novas; i < total; i++) w[i] += delta;
+        int k = antes;
+        for (int i = 0; i < inserido.length(); i++) if (inserido.charAt(i) == '\n') w[k++] = posicao + i + 1;
+        inicios = w;
+        quantidade = total;
+        ultimaLinha = 0;
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Interpretador da MVD sobre o codigo empacotado de ProgramaMVD.
+// O laco de despacho e um unico switch sobre int com pc, topo da pilha e memoria em
+// variaveis locais, sem alocacao por instrucao; leia/escreva usam buffers proprios (EntradaSaidaMVD).
+// As superinstrucoes do OtimizadorPeephole fazem o trabalho de varias instrucoes num despacho so.
+// A memoria M tem a area de dados (enderecos das variaveis) seguida da pilha.
+public class MaquinaVirtual {
+    private final EntradaSaidaMVD es;
+    private final int tamanhoPilha;
+
+    public MaquinaVirtual(InputStream entrada, OutputStream saida) {
+        this(entrada, saida, 1 << 20);
+    }
+
+    public MaquinaVirtual(InputStream entrada, OutputStream saida, int tamanhoPilha) {
+        this.es = new EntradaSaidaMVD(entrada, saida);
+        this.tamanhoPilha = tamanhoPilha;
+    }
+
+    // Executa ate HLT e retorna a quantidade de instrucoes executadas
+    public long executar(ProgramaMVD programa) throws IOException {
+        return executar(programa.getCodigo(), programa.getMemoriaDados());
+    }
+
+    public long executar(int[] c, int memoriaDados) throws IOException {
+        int[] m = new int[memoriaDados + tamanhoPilha];
+        int s = memoriaDados - 1;
+        int pc = 0;
+        long executadas = 0;
+        try {
+            laco:
+            while (true) {
+                executadas++;
+                switch (c[pc]) {
+                    case ProgramaMVD.LDC: m[++s] = c[pc + 1]; pc += 2; break;
+                    case ProgramaMVD.LDV: m[++s] = m[c[pc + 1]]; pc += 2; break;
+                    case ProgramaMVD.STR: m[c[pc + 1]] = m[s--]; pc += 2; break;
+                    case ProgramaMVD.ADD: m[s - 1] += m[s]; s--; pc++; break;
+                    case ProgramaMVD.SUB: m[s - 1] -= m[s]; s--; pc++; break;
+                    case ProgramaMVD.MULT: m[s - 1] *= m[s]; s--; pc++; break;
+                    case ProgramaMVD.DIVI: m[s - 1] /= m[s]; s--; pc++; break;
+                    case ProgramaMVD.INV: m[s] = -m[s]; pc++; break;
+                    case ProgramaMVD.AND: m[s - 1] = (m[s - 1] != 0 && m[s] != 0) ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.OR: m[s - 1] = (m[s - 1] != 0 || m[s] != 0) ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.NEG: m[s] = 1 - m[s]; pc++; break;
+                    case ProgramaMVD.CME: m[s - 1] = m[s - 1] < m[s] ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.CMA: m[s - 1] = m[s - 1] > m[s] ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.CEQ: m[s - 1] = m[s - 1] == m[s] ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.CDIF: m[s - 1] = m[s - 1] != m[s] ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.CMEQ: m[s - 1] = m[s - 1] <= m[s] ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.CMAQ: m[s - 1] = m[s - 1] >= m[s] ? 1 : 0; s--; pc++; break;
+                    case ProgramaMVD.JMP: pc = c[pc + 1]; break;
+                    case ProgramaMVD.JMPF: pc = m[s--] == 0 ? c[pc + 1] : pc + 2; break;
+                    case ProgramaMVD.NULL: pc++; break;
+                    case ProgramaMVD.RD: m[++s] = es.leInteiro(); pc++; break;
+                    case ProgramaMVD.PRN: es.escreveInteiro(m[s--]); pc++; break;
+                    case ProgramaMVD.START: s = memoriaDados - 1; pc++; break;
+                    case ProgramaMVD.ALLOC: {
+                        int base = c[pc + 1];
+                        int n = c[pc + 2];
+                        System.arraycopy(m, base, m, s + 1, n);
+                        s += n;
+                        pc += 3;
+                        break;
+                    }
+                    case ProgramaMVD.DALLOC: {
+                        int base = c[pc + 1];
+                        int n = c[pc + 2];
+                        s -= n;
+                        System.arraycopy(m, s + 1, m, base, n);
+                        pc += 3;
+                        break;
+                    }
+                    case ProgramaMVD.CALL: m[++s] = pc + 2; pc = c[pc + 1]; break;
+                    case ProgramaMVD.RETURN: pc = m[s--]; break;
+                    case ProgramaMVD.HLT: break laco;
+                    case ProgramaMVD.INCV: m[c[pc + 1]] += c[pc + 2]; pc += 3; break;
+                    case ProgramaMVD.STV: m[c[pc + 1]] = m[s]; pc += 2; break;
+                    case ProgramaMVD.OPVV: m[++s] = opera(c[pc + 1], m[c[pc + 2]], m[c[pc + 3]]); pc += 4; break;
+                    case ProgramaMVD.OPVC: m[++s] = opera(c[pc + 1], m[c[pc + 2]], c[pc + 3]); pc += 4; break;
+                    case ProgramaMVD.JCMPF:
+                        pc = opera(c[pc + 1], m[s - 1], m[s]) == 0 ? c[pc + 2] : pc + 3;
+                        s -= 2;
+                        break;
+                    case ProgramaMVD.JVVF: pc = opera(c[pc + 1], m[c[pc + 2]], m[c[pc + 3]]) == 0 ? c[pc + 4] : pc + 5; break;
+                    case ProgramaMVD.JVCF: pc = opera(c[pc + 1], m[c[pc + 2]], c[pc + 3]) == 0 ? c[pc + 4] : pc + 5; break;
+                    default:
+                        throw new RuntimeException("Erro de execucao: instrucao invalida " + c[pc] + " em " + pc);
+                }
+            }
+        } catch (ArithmeticException e) {
+            throw new RuntimeException("Erro de execucao: divisao por zero (instrucao " + pc + ")");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new RuntimeException("Erro de execucao: estouro da pilha (instrucao " + pc + ")");
+        } finally {
+            es.descarrega();
+        }
+        return executadas;
+    }
+
+    // Instrucao binaria 'op' (ADD ... CMAQ) aplicada a a e b, para as superinstrucoes
+    static int opera(int op, int a, int b) {
+        switch (op) {
+            case ProgramaMVD.ADD: return a + b;
+            case ProgramaMVD.SUB: return a - b;
+            case ProgramaMVD.MULT: return a * b;
+            case ProgramaMVD.DIVI: return a / b;
+            case ProgramaMVD.AND: return a != 0 && b != 0 ? 1 : 0;
+            case ProgramaMVD.OR: return a != 0 || b != 0 ? 1 : 0;
+            case ProgramaMVD.CME: return a < b ? 1 : 0;
+            case ProgramaMVD.CMA: return a > b ? 1 : 0;
+            case ProgramaMVD.CEQ: return a == b ? 1 : 0;
+            case ProgramaMVD.CDIF: return a != b ? 1 : 0;
+            case ProgramaMVD.CMEQ: return a <= b ? 1 : 0;
+            case ProgramaMVD.CMAQ: return a >= b ? 1 : 0;
+            default: throw new RuntimeException("Erro de execucao: operacao invalida " + op);
+        }
+    }
+}
+
+// leia/escreva da MVD com buffers proprios: inteiros em texto, um por linha na saida. Usado pelo
+// interpretador e pelo codigo gerado por GeradorBytecode
+class EntradaSaidaMVD {
+    private final InputStream entrada;
+    private final OutputStream saida;
+
+    private final byte[] bufferEntrada = new byte[8192];
+    private int posEntrada;
+    private int fimEntrada;
+    private final byte[] bufferSaida = new byte[8192];
+    private int posSaida;
+
+    EntradaSaidaMVD(InputStream entrada, OutputStream saida) {
+        this.entrada = entrada;
+        this.saida = saida;
+    }
+
+    private int leByte() throws IOException {
+        if (posEntrada == fimEntrada) {
+            fimEntrada = entrada.read(bufferEntrada, 0, bufferEntrada.length);
+            posEntrada = 0;
+            if (fimEntrada <= 0) {
+                fimEntrada = 0;
+                return -1;
+            }
+        }
+        return bufferEntrada[posEntrada++];
+    }
+
+    // Le um inteiro com sinal, pulando espacos
+    int leInteiro() throws IOException {
+        int b = leByte();
+        while (b == ' ' || b == '\n' || b == '\r' || b == '\t') b = leByte();
+        if (b == -1) throw new RuntimeException("Erro de execucao: fim da entrada em 'leia'");
+        boolean negativo = b == '-';
+        if (negativo || b == '+') b = leByte();
+        if (b < '0' || b > '9') throw new RuntimeException("Erro de execucao: inteiro esperado em 'leia'");
+        int valor = 0;
+        while (b >= '0' && b <= '9') {
+            valor = valor * 10 + (b - '0');
+            b = leByte();
+        }
+        return negativo ? -valor : valor;
+    }
+
+    void escreveInteiro(int valor) throws IOException {
+        if (posSaida + 12 > bufferSaida.length) descarrega();
+        long v = valor;
+        if (v < 0) {
+            bufferSaida[posSaida++] = '-';
+            v = -v;
+        }
+        int inicio = posSaida;
+        do {
+            bufferSaida[posSaida++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        // digitos sairam ao contrario
+        for (int i = inicio, j = posSaida - 1; i < j; i++, j--) {
+            byte t = bufferSaida[i];
+            bufferSaida[i] = bufferSaida[j];
+            bufferSaida[j] = t;
+        }
+        bufferSaida[posSaida++] = '\n';
+    }
+
+    void descarrega() throws IOException {
+        if (posSaida > 0) {
+            saida.write(bufferSaida, 0, posSaida);
+            posSaida = 0;
+        }
+        saida.flush();
+    }
+}
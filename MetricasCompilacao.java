@@ -0,0 +1,186 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Metricas de uma compilacao (ou de varias, somadas no modo em lote), impressas em JSON pelo --stats.
+// Quem mede recebe a instancia por um setMetricas(...); sem ela o custo e um teste de null por
+// evento. As mensagens de rastreio da tabela de simbolos dependem de RASTREIO, uma constante:
+// desligada (o padrao), o JIT elimina o codigo inteiro.
+public class MetricasCompilacao {
+    // java -Dlpd.rastreio=true ... liga as mensagens "Tentando inserir / SUCESSO / FALHA"
+    static final boolean RASTREIO = Boolean.getBoolean("lpd.rastreio");
+
+    private final Map<String, Long> nanosFase = new LinkedHashMap<>();
+    private final long[] contagemTokens = new long[TokenSimbolo.VALORES.length];
+    private long tokens;
+    private long bytes;
+    private int arquivos;
+
+    // tabela de simbolos
+    long insercoes;
+    long buscas;
+    long buscasSemSucesso;
+    long redeclaracoes;
+    long nanosSemantico;
+    int maiorCadeia;  // maior cadeia de declaracoes sombreadas (mesmo nome em escopos abertos)
+    int maiorNivel;   // maior profundidade de escopo
+
+    // tabela de nomes (medida no fim, sem custo durante a analise)
+    private int nomes;
+    private int slotsNomes;
+    private long sondagensNomes;
+    private int maiorSondagemNomes;
+
+    // memoria
+    private long bytesAlocados;
+    private long picoHeap;
+
+    private long inicio;
+    private long alocadosInicio;
+
+    // Contagem por TokenSimbolo, tirada do buffer ja pronto (o lexico nao conta nada)
+    public void contaTokens(BufferTokens buffer) {
+        for (int i = 0; i < buffer.tamanho(); i++) contagemTokens[buffer.simbolo(i).ordinal()]++;
+    }
+
+    // Chamados pela TabelaSimbolos a cada insercao e a cada escopo aberto
+    void contaCadeia(int tamanho) {
+        if (tamanho > maiorCadeia) maiorCadeia = tamanho;
+    }
+
+    void contaNivel(int nivel) {
+        if (nivel > maiorNivel) maiorNivel = nivel;
+    }
+
+    // Marca o inicio de uma fase; fimFase(nome) soma o tempo desde a ultima marca
+    public void inicioFase() {
+        inicio = System.nanoTime();
+    }
+
+    public void fimFase(String nome) {
+        long agora = System.nanoTime();
+        nanosFase.merge(nome, agora - inicio, Long::sum);
+        inicio = agora;
+    }
+
+    // Comeca a contar a memoria alocada pela thread atual e zera o pico do heap
+    public void inicioMemoria() {
+        alocadosInicio = alocadosThread();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) pool.resetPeakUsage();
+    }
+
+    public void fimMemoria() {
+        bytesAlocados += Math.max(0, alocadosThread() - alocadosInicio);
+        long pico = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) pico += pool.getPeakUsage().getUsed();
+        picoHeap = Math.max(picoHeap, pico);
+    }
+
+    private static long alocadosThread() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean)
+            return bean.getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+
+    // Totais do arquivo compilado e sondagens da TabelaNomes (distancia de cada nome ao slot de origem)
+    public void registraArquivo(long tokens, long bytes, TabelaNomes tabelaNomes) {
+        this.tokens += tokens;
+        this.bytes += bytes;
+        arquivos++;
+        if (tabelaNomes == null) return;
+        nomes += tabelaNomes.tamanho();
+        slotsNomes += tabelaNomes.capacidade();
+        for (int id = 0; id < tabelaNomes.tamanho(); id++) {
+            int s = tabelaNomes.sondagens(id);
+            sondagensNomes += s;
+            if (s > maiorSondagemNomes) maiorSondagemNomes = s;
+        }
+    }
+
+    // Soma as metricas de outra compilacao (modo em lote; cada arquivo mede em sua propria instancia)
+    public synchronized void acumula(MetricasCompilacao outra) {
+        outra.nanosFase.forEach((fase, nanos) -> nanosFase.merge(fase, nanos, Long::sum));
+        for (int i = 0; i < contagemTokens.length; i++) contagemTokens[i] += outra.contagemTokens[i];
+        tokens += outra.tokens;
+        bytes += outra.bytes;
+        arquivos += outra.arquivos;
+        insercoes += outra.insercoes;
+        buscas += outra.buscas;
+        buscasSemSucesso += outra.buscasSemSucesso;
+        redeclaracoes += outra.redeclaracoes;
+        nanosSemantico += outra.nanosSemantico;
+        maiorCadeia = Math.max(maiorCadeia, outra.maiorCadeia);
+        maiorNivel = Math.max(maiorNivel, outra.maiorNivel);
+        nomes += outra.nomes;
+        slotsNomes += outra.slotsNomes;
+        sondagensNomes += outra.sondagensNomes;
+        maiorSondagemNomes = Math.max(maiorSondagemNomes, outra.maiorSondagemNomes);
+        bytesAlocados += outra.bytesAlocados;
+        picoHeap = Math.max(picoHeap, outra.picoHeap);
+    }
+
+    public synchronized String paraJson() {
+        // o tempo da tabela de simbolos e medido dentro do sintatico: sai dele e vira a fase semantica
+        Map<String, Long> fases = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> f : nanosFase.entrySet()) {
+            if (f.getKey().equals("sintatico") && nanosSemantico > 0) {
+                fases.put("sintatico", Math.max(0, f.getValue() - nanosSemantico));
+                fases.put("semantico", nanosSemantico);
+            } else {
+                fases.put(f.getKey(), f.getValue());
+            }
+        }
+        long nanosLexSint = fases.getOrDefault("lexico", 0L) + fases.getOrDefault("sintatico", 0L)
+                + fases.getOrDefault("semantico", 0L);
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"arquivos\": ").append(arquivos).append(",\n");
+        json.append("  \"bytes\": ").append(bytes).append(",\n");
+        json.append("  \"tokens\": ").append(tokens).append(",\n");
+        json.append("  \"fasesMs\": {");
+        String sep = "";
+        for (Map.Entry<String, Long> f : fases.entrySet()) {
+            json.append(sep).append("\n    \"").append(f.getKey()).append("\": ")
+                .append(String.format(Locale.ROOT, "%.3f", f.getValue() / 1e6));
+            sep = ",";
+        }
+        json.append("\n  },\n");
+        json.append("  \"tokensPorSegundo\": ")
+            .append(nanosLexSint > 0 ? Math.round(tokens / (nanosLexSint / 1e9)) : 0).append(",\n");
+        json.append("  \"contagemTokens\": {");
+        sep = "";
+        for (TokenSimbolo s : TokenSimbolo.VALORES) {
+            if (contagemTokens[s.ordinal()] == 0) continue;
+            json.append(sep).append("\n    \"").append(s.name()).append("\": ").append(contagemTokens[s.ordinal()]);
+            sep = ",";
+        }
+        json.append("\n  },\n");
+        json.append("  \"tabelaSimbolos\": {\n");
+        json.append("    \"insercoes\": ").append(insercoes).append(",\n");
+        json.append("    \"redeclaracoes\": ").append(redeclaracoes).append(",\n");
+        json.append("    \"buscas\": ").append(buscas).append(",\n");
+        json.append("    \"buscasSemSucesso\": ").append(buscasSemSucesso).append(",\n");
+        json.append("    \"maiorCadeiaSombreamento\": ").append(maiorCadeia).append(",\n");
+        json.append("    \"maiorNivelEscopo\": ").append(maiorNivel).append("\n");
+        json.append("  },\n");
+        json.append("  \"tabelaNomes\": {\n");
+        json.append("    \"nomes\": ").append(nomes).append(",\n");
+        json.append("    \"slots\": ").append(slotsNomes).append(",\n");
+        json.append("    \"sondagemMedia\": ")
+            .append(String.format(Locale.ROOT, "%.3f", nomes > 0 ? (double) sondagensNomes / nomes : 0.0)).append(",\n");
+        json.append("    \"maiorSondagem\": ").append(maiorSondagemNomes).append("\n");
+        json.append("  },\n");
+        json.append("  \"memoria\": {\n");
+        json.append("    \"bytesAlocados\": ").append(bytesAlocados).append(",\n");
+        json.append("    \"picoHeap\": ").append(picoHeap).append("\n");
+        json.append("  }\n");
+        json.append("}");
+        return json.toString();
+    }
+}
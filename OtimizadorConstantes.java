@@ -0,0 +1,113 @@
+// Dobra subexpressoes constantes (aritmeticas, relacionais e logicas) e elimina 'se' e
+// 'enquanto' cuja condicao e constante. Trabalha direto na ArvoreSintatica, reescrevendo
+// os nos no lugar; os nos descartados ficam soltos na arena e nao sao mais visitados.
+public class OtimizadorConstantes {
+    private static final int MAIS = TokenSimbolo.smais.ordinal();
+    private static final int MENOS = TokenSimbolo.smenos.ordinal();
+    private static final int VEZES = TokenSimbolo.smultiplicacao.ordinal();
+    private static final int DIV = TokenSimbolo.sdiv.ordinal();
+    private static final int E = TokenSimbolo.se.ordinal();
+    private static final int OU = TokenSimbolo.sou.ordinal();
+    private static final int NAO = TokenSimbolo.snao.ordinal();
+    private static final int IGUAL = TokenSimbolo.sigual.ordinal();
+    private static final int DIFERENTE = TokenSimbolo.sdiferente.ordinal();
+    private static final int MENOR = TokenSimbolo.smenor.ordinal();
+    private static final int MENOR_IG = TokenSimbolo.smenor_ig.ordinal();
+    private static final int MAIOR = TokenSimbolo.smaior.ordinal();
+    private static final int MAIOR_IG = TokenSimbolo.smaior_ig.ordinal();
+
+    private final ArvoreSintatica arvore;
+    private int expressoesDobradas;
+    private int desviosRemovidos;
+    private int lacosRemovidos;
+    private int nosEliminados;
+
+    public OtimizadorConstantes(ArvoreSintatica arvore) {
+        this.arvore = arvore;
+    }
+
+    // Executa a passagem e retorna quantos nos deixaram de fazer parte da arvore
+    public int otimizar() {
+        if (arvore.tamanho() == 0) return 0;
+        int antes = arvore.contaAlcancaveis();
+        visita(arvore.raiz());
+        nosEliminados = antes - arvore.contaAlcancaveis();
+        return nosEliminados;
+    }
+
+    public int getExpressoesDobradas() { return expressoesDobradas; }
+    public int getDesviosRemovidos() { return desviosRemovidos; }
+    public int getLacosRemovidos() { return lacosRemovidos; }
+    public int getNosEliminados() { return nosEliminados; }
+
+    private boolean constante(int no) {
+        TipoNo tipo = arvore.tipo(no);
+        return tipo == TipoNo.NUMERO || tipo == TipoNo.BOOLEANO;
+    }
+
+    private void visita(int no) {
+        for (int f = arvore.primeiroFilho(no); f >= 0; f = arvore.proximoIrmao(f)) visita(f);
+
+        switch (arvore.tipo(no)) {
+            case UNARIO: {
+                int operando = arvore.primeiroFilho(no);
+                if (!constante(operando)) return;
+                int v = arvore.valor(operando);
+                int op = arvore.valor(no);
+                if (op == NAO) arvore.tornaFolha(no, TipoNo.BOOLEANO, v != 0 ? 0 : 1);
+                else arvore.tornaFolha(no, TipoNo.NUMERO, op == MENOS ? -v : v);
+                expressoesDobradas++;
+                break;
+            }
+            case BINARIO: {
+                int esquerda = arvore.primeiroFilho(no);
+                int direita = arvore.proximoIrmao(esquerda);
+                if (!constante(esquerda) || !constante(direita)) return;
+                dobraBinario(no, arvore.valor(no), arvore.valor(esquerda), arvore.valor(direita));
+                break;
+            }
+            case SE: {
+                int condicao = arvore.primeiroFilho(no);
+                if (!constante(condicao)) return;
+                int entao = arvore.proximoIrmao(condicao);
+                int senao = arvore.proximoIrmao(entao);
+                if (arvore.valor(condicao) != 0) arvore.substitui(no, entao);
+                else if (senao >= 0) arvore.substitui(no, senao);
+                else arvore.tornaFolha(no, TipoNo.COMANDOS, -1);
+                desviosRemovidos++;
+                break;
+            }
+            case ENQUANTO: {
+                // 'enquanto verdadeiro' e um laco infinito de proposito: fica como esta
+                int condicao = arvore.primeiroFilho(no);
+                if (constante(condicao) && arvore.valor(condicao) == 0) {
+                    arvore.tornaFolha(no, TipoNo.COMANDOS, -1);
+                    lacosRemovidos++;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private void dobraBinario(int no, int op, int a, int b) {
+        if (op == MAIS) arvore.tornaFolha(no, TipoNo.NUMERO, a + b);
+        else if (op == MENOS) arvore.tornaFolha(no, TipoNo.NUMERO, a - b);
+        else if (op == VEZES) arvore.tornaFolha(no, TipoNo.NUMERO, a * b);
+        else if (op == DIV) {
+            if (b == 0) return; // a divisao por zero continua acontecendo em tempo de execucao
+            arvore.tornaFolha(no, TipoNo.NUMERO, a / b);
+        }
+        else if (op == E) arvore.tornaFolha(no, TipoNo.BOOLEANO, a != 0 && b != 0 ? 1 : 0);
+        else if (op == OU) arvore.tornaFolha(no, TipoNo.BOOLEANO, a != 0 || b != 0 ? 1 : 0);
+        else if (op == IGUAL) arvore.tornaFolha(no, TipoNo.BOOLEANO, a == b ? 1 : 0);
+        else if (op == DIFERENTE) arvore.tornaFolha(no, TipoNo.BOOLEANO, a != b ? 1 : 0);
+        else if (op == MENOR) arvore.tornaFolha(no, TipoNo.BOOLEANO, a < b ? 1 : 0);
+        else if (op == MENOR_IG) arvore.tornaFolha(no, TipoNo.BOOLEANO, a <= b ? 1 : 0);
+        else if (op == MAIOR) arvore.tornaFolha(no, TipoNo.BOOLEANO, a > b ? 1 : 0);
+        else if (op == MAIOR_IG) arvore.tornaFolha(no, TipoNo.BOOLEANO, a >= b ? 1 : 0);
+        else return;
+        expressoesDobradas++;
+    }
+}
@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Substituicao de uma regra do OtimizadorPeephole: com a janela casada a partir da instrucao i,
+// emite as instrucoes que ficam no lugar (nenhuma, para remover) e retorna true; retorna false se
+// os opcodes casaram mas a regra nao vale ali (ex.: LDV e STR de enderecos diferentes)
+interface ReescritaPeephole {
+    boolean reescreve(OtimizadorPeephole o, int i);
+}
+
+// Uma linha da tabela de regras: a sequencia de instrucoes (em cada posicao, os opcodes aceitos)
+// e a substituicao
+class RegraPeephole {
+    final String nome;
+    final int[][] padrao;
+    final ReescritaPeephole reescrita;
+
+    RegraPeephole(String nome, int[][] padrao, ReescritaPeephole reescrita) {
+        this.nome = nome;
+        this.padrao = padrao;
+        this.reescrita = reescrita;
+    }
+}
+
+// Otimizador peephole sobre o codigo da MVD gerado pelo GeradorCodigo. O gerador emite sempre os
+// mesmos padroes ('x := x + 1' vira LDV x, LDC 1, ADD, STR x; toda condicao de 'se' e 'enquanto'
+// termina numa comparacao seguida de JMPF), e cada um custa um despacho por instrucao no laco da
+// MaquinaVirtual. As regras trocam essas sequencias por superinstrucoes (INCV, OPVV, OPVC, JCMPF,
+// JVVF, JVCF, STV), tiram pares STR/LDV redundantes e encurtam cadeias de desvios.
+//
+// O codigo e decodificado em colunas (opcode e ate 4 operandos por instrucao), com os destinos de
+// desvio como indices de instrucao. Cada passagem percorre as instrucoes e, em cada uma, tenta as
+// regras na ordem da tabela (as mais longas primeiro); uma janela so casa se nenhuma instrucao
+// depois da primeira for destino de desvio. As passagens se repetem ate nada mudar, e no fim os
+// destinos voltam a ser posicoes no codigo empacotado.
+public class OtimizadorPeephole {
+    private static final int[] BINARIAS = {
+        ProgramaMVD.ADD, ProgramaMVD.SUB, ProgramaMVD.MULT, ProgramaMVD.DIVI, ProgramaMVD.AND, ProgramaMVD.OR,
+        ProgramaMVD.CME, ProgramaMVD.CMA, ProgramaMVD.CEQ, ProgramaMVD.CDIF, ProgramaMVD.CMEQ, ProgramaMVD.CMAQ
+    };
+    private static final int[] RELACIONAIS = {
+        ProgramaMVD.CME, ProgramaMVD.CMA, ProgramaMVD.CEQ, ProgramaMVD.CDIF, ProgramaMVD.CMEQ, ProgramaMVD.CMAQ
+    };
+    private static final int[] DESVIOS = {
+        ProgramaMVD.JMP, ProgramaMVD.JMPF, ProgramaMVD.CALL, ProgramaMVD.JCMPF, ProgramaMVD.JVVF, ProgramaMVD.JVCF
+    };
+    private static final int[] LDV = { ProgramaMVD.LDV };
+    private static final int[] LDC = { ProgramaMVD.LDC };
+    private static final int[] STR = { ProgramaMVD.STR };
+    private static final int[] JMPF = { ProgramaMVD.JMPF };
+    private static final int[] JMP = { ProgramaMVD.JMP };
+    private static final int MAX_PASSAGENS = 16;
+
+    // Tabela padrao, na ordem em que as regras sao tentadas em cada instrucao
+    static final List<RegraPeephole> REGRAS = List.of(
+        // LDV n, LDC k, ADD|SUB, STR n -> INCV n +-k
+        new RegraPeephole("incremento", new int[][] { LDV, LDC, { ProgramaMVD.ADD, ProgramaMVD.SUB }, STR },
+            (o, i) -> {
+                int n = o.operando(i, 1);
+                int k = o.operando(i + 1, 1);
+                if (o.operando(i + 3, 1) != n) return false;
+                if (o.op(i + 2) == ProgramaMVD.SUB) {
+                    if (k == Integer.MIN_VALUE) return false;
+                    k = -k;
+                }
+                o.emite(ProgramaMVD.INCV, n, k);
+                return true;
+            }),
+        // LDC k, LDV n, ADD, STR n -> INCV n k
+        new RegraPeephole("incremento-comutado", new int[][] { LDC, LDV, { ProgramaMVD.ADD }, STR },
+            (o, i) -> {
+                int n = o.operando(i + 1, 1);
+                if (o.operando(i + 3, 1) != n) return false;
+                o.emite(ProgramaMVD.INCV, n, o.operando(i, 1));
+                return true;
+            }),
+        // LDV a, LDV b, <rel>, JMPF p -> JVVF rel a b p
+        new RegraPeephole("carga-carga-compara-desvia", new int[][] { LDV, LDV, RELACIONAIS, JMPF },
+            (o, i) -> {
+                o.emite(ProgramaMVD.JVVF, o.op(i + 2), o.operando(i, 1), o.operando(i + 1, 1), o.operando(i + 3, 1));
+                return true;
+            }),
+        // LDV a, LDC k, <rel>, JMPF p -> JVCF rel a k p
+        new RegraPeephole("carga-constante-compara-desvia", new int[][] { LDV, LDC, RELACIONAIS, JMPF },
+            (o, i) -> {
+                o.emite(ProgramaMVD.JVCF, o.op(i + 2), o.operando(i, 1), o.operando(i + 1, 1), o.operando(i + 3, 1));
+                return true;
+            }),
+        // LDV a, LDV b, <op> -> OPVV op a b
+        new RegraPeephole("carga-carga-op", new int[][] { LDV, LDV, BINARIAS },
+            (o, i) -> {
+                o.emite(ProgramaMVD.OPVV, o.op(i + 2), o.operando(i, 1), o.operando(i + 1, 1));
+                return true;
+            }),
+        // LDV a, LDC k, <op> -> OPVC op a k
+        new RegraPeephole("carga-constante-op", new int[][] { LDV, LDC, BINARIAS },
+            (o, i) -> {
+                o.emite(ProgramaMVD.OPVC, o.op(i + 2), o.operando(i, 1), o.operando(i + 1, 1));
+                return true;
+            }),
+        // <rel>, JMPF p -> JCMPF rel p
+        new RegraPeephole("compara-desvia", new int[][] { RELACIONAIS, JMPF },
+            (o, i) -> {
+                o.emite(ProgramaMVD.JCMPF, o.op(i), o.operando(i + 1, 1));
+                return true;
+            }),
+        // STR n, LDV n -> STV n (o valor gravado ja esta no topo)
+        new RegraPeephole("armazena-carga", new int[][] { STR, LDV },
+            (o, i) -> {
+                if (o.operando(i + 1, 1) != o.operando(i, 1)) return false;
+                o.emite(ProgramaMVD.STV, o.operando(i, 1));
+                return true;
+            }),
+        // LDV n, STR n -> nada
+        new RegraPeephole("carga-armazena", new int[][] { LDV, STR },
+            (o, i) -> o.operando(i + 1, 1) == o.operando(i, 1)),
+        // desvio para um JMP -> desvio direto para o destino final
+        new RegraPeephole("desvio-desvio", new int[][] { DESVIOS },
+            (o, i) -> {
+                int d = ProgramaMVD.DESVIO[o.op(i)];
+                int destino = o.operando(i, d);
+                for (int saltos = 0; o.op(destino) == ProgramaMVD.JMP && saltos < 64; saltos++) {
+                    int proximo = o.operando(destino, 1);
+                    if (proximo == destino) break; // laco infinito de JMPs
+                    destino = proximo;
+                }
+                if (destino == o.operando(i, d)) return false;
+                o.emiteCopia(i, d, destino);
+                return true;
+            }),
+        // JMP para a instrucao seguinte -> nada
+        new RegraPeephole("desvio-proximo", new int[][] { JMP },
+            (o, i) -> o.operando(i, 1) == i + 1)
+    );
+
+    private final List<RegraPeephole> regras;
+    private final int[] aplicacoes;
+
+    // Instrucoes decodificadas: opcode e operandos (4 por instrucao); destinos sao indices de instrucao
+    private int[] ops;
+    private int[] args;
+    private int quantidade;
+    private boolean[] alvo;
+
+    // Saida da passagem atual
+    private int[] novosOps;
+    private int[] novosArgs;
+    private int novaQuantidade;
+
+    private int instrucoesAntes;
+    private int instrucoesDepois;
+
+    public OtimizadorPeephole() {
+        this(REGRAS);
+    }
+
+    public OtimizadorPeephole(List<RegraPeephole> regras) {
+        this.regras = regras;
+        this.aplicacoes = new int[regras.size()];
+    }
+
+    // Regras da tabela padrao pelos nomes, separados por virgula (ex.: "incremento,compara-desvia")
+    public static List<RegraPeephole> regras(String nomes) {
+        List<RegraPeephole> escolhidas = new ArrayList<>();
+        for (String nome : nomes.split(",")) {
+            RegraPeephole regra = null;
+            for (RegraPeephole r : REGRAS) if (r.nome.equals(nome.trim())) regra = r;
+            if (regra == null) throw new RuntimeException("Regra de peephole desconhecida: '" + nome.trim() + "'");
+            escolhidas.add(regra);
+        }
+        // mantem a ordem da tabela padrao, que tenta as janelas mais longas primeiro
+        escolhidas.sort((a, b) -> REGRAS.indexOf(a) - REGRAS.indexOf(b));
+        return escolhidas;
+    }
+
+    // Retorna o programa otimizado (o original nao muda)
+    public ProgramaMVD otimizar(ProgramaMVD programa) {
+        decodifica(programa.getCodigo());
+        instrucoesAntes = quantidade;
+        // uma regra pode abrir caminho para outra: repete enquanto alguma se aplicar
+        boolean mudou = true;
+        for (int p = 0; mudou && p < MAX_PASSAGENS; p++) mudou = passagem();
+        instrucoesDepois = quantidade;
+        return new ProgramaMVD(codifica(), programa.getMemoriaDados());
+    }
+
+    public int getInstrucoesAntes() { return instrucoesAntes; }
+    public int getInstrucoesDepois() { return instrucoesDepois; }
+
+    // "nome: n, ..." das regras que se aplicaram
+    public String resumoAplicacoes() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < regras.size(); r++) {
+            if (aplicacoes[r] == 0) continue;
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(regras.get(r).nome).append(": ").append(aplicacoes[r]);
+        }
+        return sb.length() > 0 ? sb.toString() : "nenhuma regra aplicada";
+    }
+
+    // Acesso das regras a janela
+    int op(int i) { return ops[i]; }
+    int operando(int i, int k) { return args[i * 4 + k - 1]; }
+
+    void emite(int op, int... operandos) {
+        int i = novaInstrucao(op);
+        for (int k = 0; k < operandos.length; k++) novosArgs[i * 4 + k] = operandos[k];
+    }
+
+    // Copia a instrucao i trocando o destino (operando d)
+    void emiteCopia(int i, int d, int destino) {
+        int j = copia(i);
+        novosArgs[j * 4 + d - 1] = destino;
+    }
+
+    private int copia(int i) {
+        int j = novaInstrucao(ops[i]);
+        System.arraycopy(args, i * 4, novosArgs, j * 4, 4);
+        return j;
+    }
+
+    private int novaInstrucao(int op) {
+        if (novaQuantidade == novosOps.length) {
+            novosOps = Arrays.copyOf(novosOps, novaQuantidade * 2);
+            novosArgs = Arrays.copyOf(novosArgs, novaQuantidade * 8);
+        }
+        novosOps[novaQuantidade] = op;
+        Arrays.fill(novosArgs, novaQuantidade * 4, novaQuantidade * 4 + 4, 0);
+        return novaQuantidade++;
+    }
+
+    private void decodifica(int[] codigo) {
+        int[] indice = new int[codigo.length + 1];
+        quantidade = 0;
+        for (int pc = 0; pc < codigo.length; pc += 1 + ProgramaMVD.OPERANDOS[codigo[pc]]) indice[pc] = quantidade++;
+        indice[codigo.length] = quantidade;
+        ops = new int[Math.max(quantidade, 1)];
+        args = new int[ops.length * 4];
+        int i = 0;
+        for (int pc = 0; pc < codigo.length; pc += 1 + ProgramaMVD.OPERANDOS[codigo[pc]], i++) {
+            int op = codigo[pc];
+            ops[i] = op;
+            for (int k = 1; k <= ProgramaMVD.OPERANDOS[op]; k++) args[i * 4 + k - 1] = codigo[pc + k];
+            if (ProgramaMVD.DESVIO[op] > 0) {
+                int d = i * 4 + ProgramaMVD.DESVIO[op] - 1;
+                args[d] = indice[args[d]];
+            }
+        }
+    }
+
+    private int[] codifica() {
+        int[] posicao = new int[quantidade + 1];
+        int tamanho = 0;
+        for (int i = 0; i < quantidade; i++) {
+            posicao[i] = tamanho;
+            tamanho += 1 + ProgramaMVD.OPERANDOS[ops[i]];
+        }
+        posicao[quantidade] = tamanho;
+        int[] codigo = new int[tamanho];
+        for (int i = 0; i < quantidade; i++) {
+            int op = ops[i];
+            int pc = posicao[i];
+            codigo[pc] = op;
+            for (int k = 1; k <= ProgramaMVD.OPERANDOS[op]; k++) codigo[pc + k] = args[i * 4 + k - 1];
+            if (ProgramaMVD.DESVIO[op] > 0) codigo[pc + ProgramaMVD.DESVIO[op]] = posicao[codigo[pc + ProgramaMVD.DESVIO[op]]];
+        }
+        return codigo;
+    }
+
+    // Uma passagem sobre todas as instrucoes; retorna se alguma regra se aplicou
+    private boolean passagem() {
+        alvo = new boolean[quantidade + 1];
+        for (int i = 0; i < quantidade; i++) {
+            int d = ProgramaMVD.DESVIO[ops[i]];
+            if (d > 0) alvo[args[i * 4 + d - 1]] = true;
+        }
+        novosOps = new int[Math.max(quantidade, 1)];
+        novosArgs = new int[novosOps.length * 4];
+        novaQuantidade = 0;
+        int[] novoIndice = new int[quantidade + 1]; // instrucao antiga -> nova (removida: a seguinte)
+        boolean mudou = false;
+        int i = 0;
+        while (i < quantidade) {
+            int consumidas = 0;
+            int inicio = novaQuantidade;
+            for (int r = 0; r < regras.size() && consumidas == 0; r++) {
+                RegraPeephole regra = regras.get(r);
+                if (!casa(regra.padrao, i)) continue;
+                if (regra.reescrita.reescreve(this, i)) {
+                    consumidas = regra.padrao.length;
+                    aplicacoes[r]++;
+                } else {
+                    novaQuantidade = inicio; // a regra pode ter emitido antes de desistir
+                }
+            }
+            if (consumidas == 0) {
+                copia(i);
+                consumidas = 1;
+            } else {
+                mudou = true;
+            }
+            for (int k = 0; k < consumidas; k++) novoIndice[i + k] = inicio;
+            i += consumidas;
+        }
+        novoIndice[quantidade] = novaQuantidade;
+        for (int j = 0; j < novaQuantidade; j++) {
+            int d = ProgramaMVD.DESVIO[novosOps[j]];
+            if (d > 0) novosArgs[j * 4 + d - 1] = novoIndice[novosArgs[j * 4 + d - 1]];
+        }
+        ops = novosOps;
+        args = novosArgs;
+        quantidade = novaQuantidade;
+        return mudou;
+    }
+
+    // Os opcodes da janela batem com o padrao e so a primeira instrucao pode ser destino de desvio
+    private boolean casa(int[][] padrao, int i) {
+        if (i + padrao.length > quantidade) return false;
+        for (int k = 0; k < padrao.length; k++) {
+            if (k > 0 && alvo[i + k]) return false;
+            boolean aceito = false;
+            for (int op : padrao[k]) aceito |= ops[i + k] == op;
+            if (!aceito) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Codigo da maquina virtual didatica do LPD (MVD), empacotado num int[]: cada instrucao
+// ocupa 1 + OPERANDOS[op] posicoes (opcode seguido dos operandos). Destinos de desvio
+// (o operando DESVIO[op] de JMP, JMPF, CALL e dos desvios fundidos) sao posicoes nesse vetor.
+// De INCV em diante sao superinstrucoes, que so o OtimizadorPeephole emite; o operando 'op'
+// delas e uma das instrucoes binarias (ADD ... CMAQ).
+public class ProgramaMVD {
+    static final int LDC = 0;     // LDC k      : empilha a constante k
+    static final int LDV = 1;     // LDV n      : empilha M[n]
+    static final int STR = 2;     // STR n      : M[n] := topo; desempilha
+    static final int ADD = 3;
+    static final int SUB = 4;
+    static final int MULT = 5;
+    static final int DIVI = 6;
+    static final int INV = 7;     // troca o sinal do topo
+    static final int AND = 8;
+    static final int OR = 9;
+    static final int NEG = 10;    // negacao logica: 1 - topo
+    static final int CME = 11;    // <
+    static final int CMA = 12;    // >
+    static final int CEQ = 13;    // =
+    static final int CDIF = 14;   // !=
+    static final int CMEQ = 15;   // <=
+    static final int CMAQ = 16;   // >=
+    static final int JMP = 17;    // JMP p
+    static final int JMPF = 18;   // JMPF p     : desvia se o topo for 0; desempilha
+    static final int NULL = 19;
+    static final int RD = 20;     // empilha um inteiro lido da entrada
+    static final int PRN = 21;    // imprime o topo; desempilha
+    static final int START = 22;
+    static final int ALLOC = 23;  // ALLOC m n  : empilha M[m..m+n-1] (salva para recursao)
+    static final int DALLOC = 24; // DALLOC m n : restaura M[m+n-1..m] da pilha
+    static final int CALL = 25;   // CALL p     : empilha o retorno e desvia
+    static final int RETURN = 26;
+    static final int HLT = 27;
+    static final int INCV = 28;   // INCV n k   : M[n] := M[n] + k
+    static final int STV = 29;    // STV n      : M[n] := topo, sem desempilhar
+    static final int OPVV = 30;   // OPVV op a b: empilha M[a] op M[b]
+    static final int OPVC = 31;   // OPVC op a k: empilha M[a] op k
+    static final int JCMPF = 32;  // JCMPF op p : desempilha b e a; desvia se (a op b) for 0
+    static final int JVVF = 33;   // JVVF op a b p: desvia se (M[a] op M[b]) for 0
+    static final int JVCF = 34;   // JVCF op a k p: desvia se (M[a] op k) for 0
+
+    static final String[] NOMES = {
+        "LDC", "LDV", "STR", "ADD", "SUB", "MULT", "DIVI", "INV", "AND", "OR", "NEG",
+        "CME", "CMA", "CEQ", "CDIF", "CMEQ", "CMAQ", "JMP", "JMPF", "NULL", "RD", "PRN",
+        "START", "ALLOC", "DALLOC", "CALL", "RETURN", "HLT",
+        "INCV", "STV", "OPVV", "OPVC", "JCMPF", "JVVF", "JVCF"
+    };
+
+    static final int[] OPERANDOS = {
+        1, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 1, 1, 0, 0, 0,
+        0, 2, 2, 1, 0, 0,
+        2, 1, 3, 3, 2, 4, 4
+    };
+
+    // Qual operando (1, 2, ...) e destino de desvio; 0: nenhum
+    static final int[] DESVIO = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 1, 1, 0, 0, 0,
+        0, 0, 0, 1, 0, 0,
+        0, 0, 0, 0, 2, 4, 4
+    };
+
+    // Superinstrucoes cujo primeiro operando e uma instrucao binaria
+    static boolean temOperacao(int op) {
+        return op == OPVV || op == OPVC || op == JCMPF || op == JVVF || op == JVCF;
+    }
+
+    private int[] codigo;
+    private int tamanho;
+    private int instrucoes;
+    private int memoriaDados; // posicoes de M usadas por variaveis (enderecos 0..memoriaDados-1)
+
+    public ProgramaMVD() {
+        codigo = new int[256];
+    }
+
+    // Reconstroi um programa a partir do codigo empacotado (ex.: lido do CacheCompilacao)
+    public ProgramaMVD(int[] codigo, int memoriaDados) {
+        this.codigo = codigo.clone();
+        this.tamanho = codigo.length;
+        this.memoriaDados = memoriaDados;
+        for (int pc = 0; pc < tamanho; pc += 1 + OPERANDOS[codigo[pc]]) instrucoes++;
+    }
+
+    // Acrescenta uma instrucao e retorna sua posicao
+    public int emite(int op) {
+        garante(1);
+        codigo[tamanho] = op;
+        instrucoes++;
+        return tamanho++;
+    }
+
+    public int emite(int op, int a) {
+        garante(2);
+        codigo[tamanho] = op;
+        codigo[tamanho + 1] = a;
+        instrucoes++;
+        tamanho += 2;
+        return tamanho - 2;
+    }
+
+    public int emite(int op, int a, int b) {
+        garante(3);
+        codigo[tamanho] = op;
+        codigo[tamanho + 1] = a;
+        codigo[tamanho + 2] = b;
+        instrucoes++;
+        tamanho += 3;
+        return tamanho - 3;
+    }
+
+    // Ajusta o primeiro operando de uma instrucao ja emitida (destino de desvio)
+    public void corrige(int posicao, int operando) {
+        codigo[posicao + 1] = operando;
+    }
+
+    private void garante(int n) {
+        if (tamanho + n > codigo.length)
+            codigo = Arrays.copyOf(codigo, Math.max(codigo.length * 2, tamanho + n));
+    }
+
+    public int posicao() { return tamanho; }
+    public int quantidadeInstrucoes() { return instrucoes; }
+    public int getMemoriaDados() { return memoriaDados; }
+    public void setMemoriaDados(int memoriaDados) { this.memoriaDados = memoriaDados; }
+
+    // Codigo empacotado, do tamanho exato
+    public int[] getCodigo() {
+        return Arrays.copyOf(codigo, tamanho);
+    }
+
+    // Listagem no formato da MVD; destinos de desvio aparecem como rotulos L<posicao>
+    public void imprimir(PrintStream saida) {
+        boolean[] alvo = new boolean[tamanho + 1];
+        for (int pc = 0; pc < tamanho; pc += 1 + OPERANDOS[codigo[pc]]) {
+            int op = codigo[pc];
+            if (DESVIO[op] > 0) alvo[codigo[pc + DESVIO[op]]] = true;
+        }
+        for (int pc = 0; pc < tamanho; pc += 1 + OPERANDOS[codigo[pc]]) {
+            int op = codigo[pc];
+            StringBuilder linha = new StringBuilder();
+            linha.append(alvo[pc] ? String.format("L%-6d", pc) : "       ");
+            linha.append(NOMES[op]);
+            for (int k = 1; k <= OPERANDOS[op]; k++) {
+                linha.append(k == 1 ? " " : ",");
+                if (k == DESVIO[op]) linha.append('L').append(codigo[pc + k]);
+                else if (k == 1 && temOperacao(op)) linha.append(NOMES[codigo[pc + 1]]);
+                else linha.append(codigo[pc + k]);
+            }
+            saida.println(linha);
+        }
+    }
+}
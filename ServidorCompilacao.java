@@ -0,0 +1,169 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Servidor de compilacao: uma JVM que fica no ar (com o JIT ja aquecido) e compila os
+// programas que os clientes mandam por um socket Unix local ou por TCP no loopback.
+// Cada conexao e atendida por uma thread virtual e pode mandar varios pedidos seguidos.
+//
+// Protocolo (texto UTF-8, uma linha por pedido; serve ate 'nc -U' como cliente):
+//   COMPILAR <caminho>              compila o arquivo (caminho absoluto, o servidor o le)
+//   FONTE <n> <nome>\n<n bytes>     compila o fonte enviado (ex.: buffer nao salvo do editor)
+//   PARAR                           encerra o servidor
+// Resposta: "VALIDO <a> <b>" ou "ERRO <a> <b>", seguida de a bytes com a saida que o Main
+// imprimiria (mensagens do sintatico e a Tabela de Simbolos) e b bytes com a mensagem de erro.
+//
+// Requer JDK 21 (Thread.ofVirtual). Como a arvore compila com um 'javac *.java' so, o compilador
+// inteiro (Main inclusive) passa a precisar do JDK 21; com JDK 17 basta deixar de fora este arquivo
+// e o ClienteCompilacao.
+//
+// Uso: jar cfe compilador.jar ServidorCompilacao *.class
+//      java -XX:+AutoCreateSharedArchive -XX:SharedArchiveFile=compilador.jsa -jar compilador.jar \
+//           [--socket caminho | --porta N] [--mapeado] [--aquecimento N]
+// O arquivo AppCDS (compilador.jsa) e gerado pela propria JVM na primeira execucao e reaproveitado
+// nas seguintes (o CDS so aceita classpath em jar). Depende da versao exata do JDK, por isso nao
+// fica no repositorio.
+public class ServidorCompilacao {
+    static final String SOCKET_PADRAO =
+            Path.of(System.getProperty("java.io.tmpdir"), "lpd-compilador.sock").toString();
+
+    private final CompiladorLote compilador;
+    private volatile boolean parar;
+    private ServerSocketChannel servidor;
+
+    public ServidorCompilacao(boolean mapeado) {
+        this.compilador = new CompiladorLote(mapeado, false);
+    }
+
+    // Endereco do socket Unix, ou do loopback quando porta > 0
+    static SocketAddress endereco(String socket, int porta) {
+        return porta > 0 ? new InetSocketAddress(InetAddress.getLoopbackAddress(), porta)
+                : UnixDomainSocketAddress.of(socket);
+    }
+
+    // Compila 'vezes' vezes um programa gerado, para o JIT ja ter compilado lexico e sintatico
+    // quando o primeiro cliente chegar
+    public void aquecer(int vezes) {
+        char[] fonte = new GeradorLPD(16 * 1024, 8, 3, 3, 7).gerar().toCharArray();
+        Path nome = Path.of("aquecimento.lpd");
+        for (int i = 0; i < vezes; i++) compilador.compilar(nome, fonte);
+    }
+
+    public void servir(SocketAddress endereco) throws IOException {
+        if (endereco instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath()); // socket de uma execucao anterior
+            servidor = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            unix.getPath().toFile().deleteOnExit();
+        } else {
+            servidor = ServerSocketChannel.open();
+        }
+        servidor.bind(endereco);
+        System.out.println("Servidor de compilacao em " + endereco);
+        while (!parar) {
+            SocketChannel cliente;
+            try {
+                cliente = servidor.accept();
+            } catch (IOException e) {
+                if (parar) break; // o canal foi fechado por PARAR
+                throw e;
+            }
+            Thread.ofVirtual().name("compilacao").start(() -> atender(cliente));
+        }
+    }
+
+    private void atender(SocketChannel cliente) {
+        try (cliente;
+             InputStream in = new BufferedInputStream(Channels.newInputStream(cliente));
+             OutputStream out = new BufferedOutputStream(Channels.newOutputStream(cliente))) {
+            String linha;
+            while ((linha = leLinha(in)) != null) {
+                ResultadoCompilacao r;
+                try {
+                    if (linha.startsWith("COMPILAR ")) {
+                        r = compilador.compilar(Path.of(linha.substring(9)));
+                    } else if (linha.startsWith("FONTE ")) {
+                        int espaco = linha.indexOf(' ', 6);
+                        int tamanho = Integer.parseInt(espaco < 0 ? linha.substring(6) : linha.substring(6, espaco));
+                        String nome = espaco < 0 ? "fonte" : linha.substring(espaco + 1);
+                        byte[] bytes = in.readNBytes(tamanho);
+                        if (bytes.length < tamanho) break;
+                        char[] fonte = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+                        r = compilador.compilar(Path.of(nome), fonte, bytes.length);
+                    } else if (linha.equals("PARAR")) {
+                        parar = true;
+                        servidor.close();
+                        break;
+                    } else {
+                        escreveResposta(out, "", "Pedido desconhecido: " + linha);
+                        continue;
+                    }
+                } catch (StackOverflowError e) {
+                    // o CompiladorLote ja transforma o estouro em erro do arquivo; isto cobre o que
+                    // estiver fora dele, para o cliente sempre receber resposta e a conexao seguir
+                    escreveResposta(out, "", "Erro de compilacao: estouro da pilha da JVM");
+                    continue;
+                }
+                escreveResposta(out, r.saida, r.erro);
+            }
+        } catch (IOException | RuntimeException e) {
+            // cliente caiu no meio do pedido: so essa conexao e perdida
+            System.err.println("Conexao encerrada: " + e.getMessage());
+        }
+    }
+
+    private static void escreveResposta(OutputStream out, String saida, String erro) throws IOException {
+        byte[] s = saida.getBytes(StandardCharsets.UTF_8);
+        byte[] e = erro == null ? new byte[0] : erro.getBytes(StandardCharsets.UTF_8);
+        String cabecalho = (erro == null ? "VALIDO " : "ERRO ") + s.length + " " + e.length + "\n";
+        out.write(cabecalho.getBytes(StandardCharsets.UTF_8));
+        out.write(s);
+        out.write(e);
+        out.flush();
+    }
+
+    // Le uma linha terminada em '\n' (sem o '\n'); null no fim da conexao
+    static String leLinha(InputStream in) throws IOException {
+        ByteArrayOutputStream linha = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') linha.write(b);
+        if (b == -1 && linha.size() == 0) return null;
+        return linha.toString(StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String socket = SOCKET_PADRAO;
+        int porta = 0;
+        boolean mapeado = false;
+        int aquecimento = 200;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--socket": socket = args[++i]; break;
+                case "--porta": porta = Integer.parseInt(args[++i]); break;
+                case "--mapeado": mapeado = true; break;
+                case "--aquecimento": aquecimento = Integer.parseInt(args[++i]); break;
+                default:
+                    System.err.println("Uso: java ServidorCompilacao [--socket caminho | --porta N] [--mapeado] [--aquecimento N]");
+                    return;
+            }
+        }
+        ServidorCompilacao servidor = new ServidorCompilacao(mapeado);
+        long inicio = System.nanoTime();
+        servidor.aquecer(aquecimento);
+        System.out.printf("Aquecimento: %d compilacoes em %.0f ms%n", aquecimento, (System.nanoTime() - inicio) / 1e6);
+        servidor.servir(endereco(socket, porta));
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+// Pool de nomes (identificadores) compartilhado pelo lexico, sintatico e tabela de simbolos.
+// Cada nome distinto recebe um id inteiro; quem recebe o id compara inteiros em vez de Strings.
+// Um nome que ja esta no pool e encontrado direto do buffer de caracteres, sem alocar nada.
+// Lexemas de numeros e de tokens de erro ficam num pool a parte (internLiteral): os ids deles tem
+// o bit LITERAL ligado e nao contam em tamanho(), entao nao ocupam ids de identificador (nem
+// posicoes nas tabelas indexadas por id, como os visiveis da TabelaSimbolos).
+public class TabelaNomes {
+    static final int LITERAL = 1 << 30;
+
+    // volatil: no modo em pipeline (CanalTokens) o lexico interna numa thread e o sintatico le em outra
+    private volatile String[] nomes;
+    private int[] hashes;
+    private int[] slots; // tabela de espalhamento aberta: id + 1, ou 0 para vazio
+    private int quantidade;
+    private final TabelaNomes literais; // null no proprio pool de literais
+
+    public TabelaNomes() {
+        this(true);
+    }
+
+    private TabelaNomes(boolean comLiterais) {
+        nomes = new String[64];
+        hashes = new int[64];
+        slots = new int[128];
+        quantidade = 0;
+        literais = comLiterais ? new TabelaNomes(false) : null;
+    }
+
+    // Mesmo calculo de String.hashCode(), para poder ser feito enquanto os caracteres sao lidos
+    public static int hash(char[] buffer, int inicio, int tamanho) {
+        int h = 0;
+        for (int i = inicio; i < inicio + tamanho; i++) {
+            h = 31 * h + buffer[i];
+        }
+        return h;
+    }
+
+    public int intern(char[] buffer, int inicio, int tamanho) {
+        return intern(buffer, inicio, tamanho, hash(buffer, inicio, tamanho));
+    }
+
+    // Retorna o id do nome buffer[inicio..inicio+tamanho), inserindo-o se for novo
+    public int intern(char[] buffer, int inicio, int tamanho, int hash) {
+        int mascara = slots.length - 1;
+        int i = espalha(hash) & mascara;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash && iguais(nomes[id], buffer, inicio, tamanho))
+                return id;
+            i = (i + 1) & mascara;
+        }
+        return adiciona(new String(buffer, inicio, tamanho), hash, i);
+    }
+
+    // Lexema de um numero ou de um token de erro; retorna o id com o bit LITERAL
+    public int internLiteral(char[] buffer, int inicio, int tamanho, int hash) {
+        return LITERAL | literais.intern(buffer, inicio, tamanho, hash);
+    }
+
+    public int internLiteral(String lexema) {
+        return LITERAL | literais.intern(lexema);
+    }
+
+    public static boolean ehLiteral(int id) {
+        return (id & LITERAL) != 0;
+    }
+
+    // Quantidade de literais distintos (ids LITERAL | 0 ate LITERAL | quantidadeLiterais() - 1)
+    public int quantidadeLiterais() {
+        return literais.tamanho();
+    }
+
+    public int intern(String nome) {
+        int hash = nome.hashCode();
+        int mascara = slots.length - 1;
+        int i = espalha(hash) & mascara;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash && nomes[id].equals(nome))
+                return id;
+            i = (i + 1) & mascara;
+        }
+        return adiciona(nome, hash, i);
+    }
+
+    // Retorna o id do nome ou -1 se ele nunca foi visto (nao insere)
+    public int buscar(String nome) {
+        int hash = nome.hashCode();
+        int mascara = slots.length - 1;
+        int i = espalha(hash) & mascara;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash && nomes[id].equals(nome))
+                return id;
+            i = (i + 1) & mascara;
+        }
+        return -1;
+    }
+
+    public String nome(int id) {
+        return (id & LITERAL) != 0 ? literais.nomes[id & ~LITERAL] : nomes[id];
+    }
+
+    // Identificadores distintos (sem os literais)
+    public int tamanho() {
+        return quantidade;
+    }
+
+    public int capacidade() {
+        return slots.length;
+    }
+
+    // Quantos slots uma busca pelo nome 'id' examina (1 = achou no slot de origem)
+    public int sondagens(int id) {
+        int mascara = slots.length - 1;
+        int i = espalha(hashes[id]) & mascara;
+        int n = 1;
+        while (slots[i] != id + 1) {
+            i = (i + 1) & mascara;
+            n++;
+        }
+        return n;
+    }
+
+    private int adiciona(String nome, int hash, int slot) {
+        int id = quantidade++;
+        if (id == nomes.length) {
+            nomes = Arrays.copyOf(nomes, id * 2);
+            hashes = Arrays.copyOf(hashes, id * 2);
+        }
+        nomes[id] = nome;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        // mantem a ocupacao abaixo de 50%
+        if (quantidade * 2 > slots.length)
+            reespalha();
+        return id;
+    }
+
+    private void reespalha() {
+        slots = new int[slots.length * 2];
+        int mascara = slots.length - 1;
+        for (int id = 0; id < quantidade; id++) {
+            int i = espalha(hashes[id]) & mascara;
+            while (slots[i] != 0)
+                i = (i + 1) & mascara;
+            slots[i] = id + 1;
+        }
+    }
+
+    private static int espalha(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean iguais(String nome, char[] buffer, int inicio, int tamanho) {
+        if (nome.length() != tamanho) return false;
+        for (int i = 0; i < tamanho; i++) {
+            if (nome.charAt(i) != buffer[inicio + i]) return false;
+        }
+        return true;
+    }
+}
@@ -1,87 +1,239 @@
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+// Tipo de um simbolo. Variaveis e funcoes tem o tipo do valor (INTEIRO/BOOLEANO); o nome e o
+// texto impresso na tabela. Comparar tipos e comparar referencias, sem String no caminho quente.
+enum TipoSimbolo {
+    PROGRAMA("programa"), PROCEDIMENTO("procedimento"), INTEIRO("inteiro"), BOOLEANO("booleano");
+
+    static final TipoSimbolo[] VALORES = values();
+
+    final String nome;
+
+    TipoSimbolo(String nome) {
+        this.nome = nome;
+    }
+
+    // Tipo escrito no fonte (sinteiro/sbooleano), ou null
+    static TipoSimbolo doToken(TokenSimbolo simbolo) {
+        if (simbolo == TokenSimbolo.sinteiro) return INTEIRO;
+        if (simbolo == TokenSimbolo.sbooleano) return BOOLEANO;
+        return null;
+    }
+
+    // Pode aparecer numa expressao ou receber atribuicao
+    boolean ehValor() {
+        return this == INTEIRO || this == BOOLEANO;
+    }
+}
+
 class Simbolo {
     private String nome;
+    private int idNome;
     private int escopo;
-    private String tipo;
+    private TipoSimbolo tipo;
     private int endereco;
+    private int indice; // posicao na ordem de declaracao (getTodos())
 
-    public Simbolo(String nome, int escopo, String tipo, int endereco) {
+    public Simbolo(String nome, int escopo, TipoSimbolo tipo, int endereco) {
+        this(nome, -1, escopo, tipo, endereco, -1);
+    }
+
+    public Simbolo(String nome, int idNome, int escopo, TipoSimbolo tipo, int endereco, int indice) {
         this.nome = nome;
+        this.idNome = idNome;
         this.escopo = escopo;
         this.tipo = tipo;
         this.endereco = endereco;
+        this.indice = indice;
     }
 
     public String getNome() { return nome; }
+    public int getIdNome() { return idNome; }
     public int getEscopo() { return escopo; }
-    public String getTipo() { return tipo; }
-    public void setTipo(String tipo) { this.tipo = tipo; }
+    public TipoSimbolo getTipo() { return tipo; }
+    public void setTipo(TipoSimbolo tipo) { this.tipo = tipo; }
     public int getEndereco() { return endereco; }
+    public int getIndice() { return indice; }
 
     @Override
     public String toString() {
         return "Simbolo{" +
                 "nome='" + nome + '\'' +
                 ", escopo=" + escopo +
-                ", tipo='" + tipo + '\'' +
+                ", tipo='" + tipo.nome + '\'' +
                 ", endereco=" + endereco +
                 '}';
     }
 }
 
+// Entrada do indice: aponta para o simbolo visivel e para o que ele esconde (mesmo nome, escopo externo)
+class EntradaSimbolo {
+    final Simbolo simbolo;
+    final EntradaSimbolo sombreada;
+
+    EntradaSimbolo(Simbolo simbolo, EntradaSimbolo sombreada) {
+        this.simbolo = simbolo;
+        this.sombreada = sombreada;
+    }
+}
+
 public class TabelaSimbolos {
-    private List<Simbolo> tabela;
+    private List<Simbolo> tabela;        // todos os simbolos ja declarados, em ordem
+    private TabelaNomes nomes;           // pool de nomes compartilhado com o lexico
+    private EntradaSimbolo[] visiveis;   // id do nome -> declaracao visivel mais recente
+    private List<EntradaSimbolo> pilha;  // declaracoes dos escopos abertos, em ordem
+    private int[] inicioEscopo;          // posicao da pilha onde cada escopo comeca
+    private int[] enderecoEscopo;        // enderecoAtual na entrada de cada escopo
     private int enderecoAtual;
+    private int picoEnderecos;           // maior enderecoAtual ja alcancado
     private int nivelAtual;
+    private PrintStream saida = System.out;
+    private MetricasCompilacao metricas; // null: nada e medido
 
     public TabelaSimbolos() {
+        this(new TabelaNomes());
+    }
+
+    public TabelaSimbolos(TabelaNomes nomes) {
         tabela = new ArrayList<>();
+        this.nomes = nomes;
+        visiveis = new EntradaSimbolo[Math.max(16, nomes.tamanho())];
+        pilha = new ArrayList<>();
+        inicioEscopo = new int[16];
+        enderecoEscopo = new int[16];
         enderecoAtual = 0;
         nivelAtual = 0;
     }
 
-    // Insere um símbolo na tabela; tipo precisa ser o tipo concreto (ex: "inteiro", "booleano", "procedimento", "programa")
-    public boolean inserir(String nome, int escopo, String tipo) {
-    // Debug
-    System.out.println("Tentando inserir: " + nome + " no escopo " + escopo + " tipo: " + tipo);
-    
-    // Verifica se já existe símbolo com mesmo nome no mesmo escopo
-    for (int i = tabela.size() - 1; i >= 0; i--) {
-        Simbolo s = tabela.get(i);
-        if (s.getNome().equals(nome) && s.getEscopo() == escopo) {
-            System.out.println("FALHA: " + nome + " já existe no escopo " + escopo);
+    // Passa a usar o pool de nomes do lexico; so pode ser trocado enquanto a tabela esta vazia
+    public void vincularNomes(TabelaNomes nomes) {
+        if (this.nomes == nomes) return;
+        if (!tabela.isEmpty())
+            throw new IllegalStateException("Tabela de simbolos ja usa outro pool de nomes");
+        this.nomes = nomes;
+    }
+
+    public TabelaNomes getNomes() {
+        return nomes;
+    }
+
+    // Destino das mensagens da tabela (o padrao e System.out)
+    public void setSaida(PrintStream saida) {
+        this.saida = saida;
+    }
+
+    PrintStream getSaida() {
+        return saida;
+    }
+
+    // Passa a contar insercoes, buscas, cadeias de sombreamento e profundidade de escopo
+    public void setMetricas(MetricasCompilacao metricas) {
+        this.metricas = metricas;
+    }
+
+    // Insere um símbolo na tabela
+    public boolean inserir(String nome, int escopo, TipoSimbolo tipo) {
+        return inserir(nomes.intern(nome), escopo, tipo);
+    }
+
+    // Mesmo que inserir(String, ...), mas pelo id do nome na TabelaNomes
+    public boolean inserir(int idNome, int escopo, TipoSimbolo tipo) {
+        if (metricas == null) return insere(idNome, escopo, tipo);
+        long inicio = System.nanoTime();
+        boolean inserido = insere(idNome, escopo, tipo);
+        metricas.nanosSemantico += System.nanoTime() - inicio;
+        metricas.insercoes++;
+        if (inserido) {
+            int cadeia = 0;
+            for (EntradaSimbolo e = visiveis[idNome]; e != null; e = e.sombreada) cadeia++;
+            metricas.contaCadeia(cadeia);
+        } else {
+            metricas.redeclaracoes++;
+        }
+        return inserido;
+    }
+
+    private boolean insere(int idNome, int escopo, TipoSimbolo tipo) {
+        if (MetricasCompilacao.RASTREIO)
+            saida.println("Tentando inserir: " + nomes.nome(idNome) + " no escopo " + escopo + " tipo: " + tipo.nome);
+
+        // Verifica se já existe símbolo com mesmo nome no mesmo escopo (só o visível pode ser do mesmo escopo)
+        garanteCapacidade(idNome);
+        EntradaSimbolo atual = visiveis[idNome];
+        if (atual != null && atual.simbolo.getEscopo() == escopo) {
+            if (MetricasCompilacao.RASTREIO)
+                saida.println("FALHA: " + nomes.nome(idNome) + " já existe no escopo " + escopo);
             return false; // já existe no mesmo escopo
         }
+        // so valores ocupam memoria: variaveis e o resultado de cada funcao (programa e procedimento nao)
+        int endereco = tipo.ehValor() ? enderecoAtual++ : -1;
+        if (enderecoAtual > picoEnderecos) picoEnderecos = enderecoAtual;
+        Simbolo simbolo = new Simbolo(nomes.nome(idNome), idNome, escopo, tipo, endereco, tabela.size());
+        EntradaSimbolo entrada = new EntradaSimbolo(simbolo, atual);
+        visiveis[idNome] = entrada;
+        pilha.add(entrada);
+        tabela.add(simbolo);
+        if (MetricasCompilacao.RASTREIO)
+            saida.println("SUCESSO: " + nomes.nome(idNome) + " inserido no escopo " + escopo);
+        return true;
     }
-    Simbolo simbolo = new Simbolo(nome, escopo, tipo, enderecoAtual++);
-    tabela.add(simbolo);
-    System.out.println("SUCESSO: " + nome + " inserido no escopo " + escopo);
-    return true;
-}
 
-    // Busca um símbolo pelo nome (pega o mais recente em escopos internos)
+    // Busca um simbolo pelo nome (pega o mais recente entre os escopos abertos)
     public Simbolo buscar(String nome) {
-        for (int i = tabela.size() - 1; i >= 0; i--) {
-            Simbolo s = tabela.get(i);
-            if (s.getNome().equals(nome)) {
-                return s;
-            }
+        int idNome = nomes.buscar(nome);
+        return idNome < 0 ? null : buscar(idNome);
+    }
+
+    public Simbolo buscar(int idNome) {
+        if (metricas != null) {
+            metricas.buscas++;
+            long inicio = System.nanoTime();
+            Simbolo s = busca(idNome);
+            metricas.nanosSemantico += System.nanoTime() - inicio;
+            if (s == null) metricas.buscasSemSucesso++;
+            return s;
         }
-        return null;
+        return busca(idNome);
+    }
+
+    private Simbolo busca(int idNome) {
+        if (idNome >= visiveis.length) return null;
+        EntradaSimbolo entrada = visiveis[idNome];
+        return entrada != null ? entrada.simbolo : null;
+    }
+
+    private void garanteCapacidade(int idNome) {
+        if (idNome >= visiveis.length)
+            visiveis = Arrays.copyOf(visiveis, Math.max(idNome + 1, visiveis.length * 2));
     }
 
-    // Entra em novo escopo
+    // Entra em novo escopo. Os enderecos do escopo comecam depois dos do escopo de fora (que ainda
+    // estao vivos) e sao devolvidos na saida: sub-rotinas irmas reusam os mesmos enderecos, e a
+    // memoria de dados e o pico da pilha de registros de ativacao, nao a soma de todas as variaveis.
     public void entrarEscopo() {
         nivelAtual++;
+        if (nivelAtual == inicioEscopo.length) {
+            inicioEscopo = Arrays.copyOf(inicioEscopo, inicioEscopo.length * 2);
+            enderecoEscopo = Arrays.copyOf(enderecoEscopo, inicioEscopo.length);
+        }
+        inicioEscopo[nivelAtual] = pilha.size();
+        enderecoEscopo[nivelAtual] = enderecoAtual;
+        if (metricas != null) metricas.contaNivel(nivelAtual);
     }
 
-    // Sai do escopo atual, removendo símbolos do nível
+    // Sai do escopo atual, removendo simbolos do nivel (O(k) no numero de declaracoes do escopo)
     public void sairEscopo() {
-        // Remove símbolos do escopo que está sendo encerrado (nivelAtual)
+        if (nivelAtual == 0) return;
+        int inicio = inicioEscopo[nivelAtual];
+        for (int i = pilha.size() - 1; i >= inicio; i--) {
+            EntradaSimbolo entrada = pilha.remove(i);
+            visiveis[entrada.simbolo.getIdNome()] = entrada.sombreada;
+        }
+        enderecoAtual = enderecoEscopo[nivelAtual];
         nivelAtual--;
-        if (nivelAtual < 0) nivelAtual = 0;
     }
 
     // Retorna o nível atual do escopo
@@ -89,12 +241,63 @@ public class TabelaSimbolos {
         return nivelAtual;
     }
 
+    // Proximo endereco a ser dado a um simbolo
+    public int getEnderecoAtual() {
+        return enderecoAtual;
+    }
+
+    // Maior quantidade de enderecos em uso ao mesmo tempo (todos os escopos de uma cadeia de
+    // aninhamento): o tamanho da memoria de dados que a MVD precisa reservar
+    public int getPicoEnderecos() {
+        return picoEnderecos;
+    }
+
+    // Recria o estado da tabela num ponto do programa: 'simbolos' sao todos os declarados antes
+    // dele (na ordem, com indice = posicao) e visivel[i] diz se o simbolo i esta num escopo aberto.
+    // Os visiveis formam uma pilha de escopos, entao seus niveis nunca diminuem ao longo da lista.
+    // O endereco de entrada dos escopos reabertos fica o que esta tabela ja tinha: quem restaura
+    // num escopo aberto por outra tabela nao sai dele.
+    public void restaurar(List<Simbolo> simbolos, boolean[] visivel, int nivel, int enderecoAtual) {
+        tabela = new ArrayList<>(simbolos);
+        visiveis = new EntradaSimbolo[Math.max(16, nomes.tamanho())];
+        pilha = new ArrayList<>();
+        if (nivel >= inicioEscopo.length) {
+            inicioEscopo = new int[nivel + 1];
+            enderecoEscopo = Arrays.copyOf(enderecoEscopo, nivel + 1);
+        }
+        picoEnderecos = enderecoAtual;
+        for (Simbolo s : simbolos) picoEnderecos = Math.max(picoEnderecos, s.getEndereco() + 1);
+        int nivelPilha = 0;
+        for (int i = 0; i < simbolos.size(); i++) {
+            if (!visivel[i]) continue;
+            Simbolo s = simbolos.get(i);
+            while (nivelPilha < s.getEscopo()) inicioEscopo[++nivelPilha] = pilha.size();
+            garanteCapacidade(s.getIdNome());
+            EntradaSimbolo entrada = new EntradaSimbolo(s, visiveis[s.getIdNome()]);
+            visiveis[s.getIdNome()] = entrada;
+            pilha.add(entrada);
+        }
+        while (nivelPilha < nivel) inicioEscopo[++nivelPilha] = pilha.size();
+        this.nivelAtual = nivel;
+        this.enderecoAtual = enderecoAtual;
+    }
+
     // Imprime a tabela de símbolos
     public void imprimir() {
-        System.out.println("=== Tabela de Simbolos ===");
+        saida.println("=== Tabela de Simbolos ===");
         for (Simbolo s : tabela) {
-            System.out.println(s);
+            saida.println(s);
         }
+        saida.println("Memoria de dados: " + picoEnderecos + " enderecos");
+    }
+
+    // Simbolo pela posicao na ordem de declaracao (Simbolo.getIndice())
+    public Simbolo get(int indice) {
+        return tabela.get(indice);
+    }
+
+    public int tamanho() {
+        return tabela.size();
     }
 
     public List<Simbolo> getTodos() {